@@ -98,8 +98,9 @@ final class RelayMain {
         timeline.scheduleNow(new Runnable() {
           @Override
           public void run() {
-            try {
-              frontEnd.handleConnection(connection);
+            // Closing the connection is what sends the response frame.
+            try (final Connection closing = connection) {
+              frontEnd.handleConnection(closing);
             } catch (Exception ex) {
               LOG.error(ex, "Exception handling connection.");
             }
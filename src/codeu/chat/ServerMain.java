@@ -17,24 +17,35 @@ package codeu.chat;
 
 import java.io.IOException;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.server.Durability;
+import codeu.chat.server.FileWriter;
 import codeu.chat.server.NoOpRelay;
 import codeu.chat.server.RemoteRelay;
+import codeu.chat.server.Engine;
+import codeu.chat.server.SelectorEngine;
+import codeu.chat.server.Snapshotter;
 import codeu.chat.server.Server;
+import codeu.chat.server.ThreadEngine;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ClientConnectionSource;
-import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
-import codeu.chat.util.connections.ServerConnectionSource;
 
 final class ServerMain {
 
   private static final Logger.Log LOG = Logger.newLog(ServerMain.class);
 
+  // The transaction log is kept in this directory under the persistent path.
+  private static final String LOG_DIRECTORY = "log";
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -54,13 +65,76 @@ final class ServerMain {
     // of the server.
     File persistentPath = null;
     RemoteAddress relayAddress = null;
+    int workers = Runtime.getRuntime().availableProcessors();
+    String engine = "selector";
+    Durability durability = Durability.ASYNC;
+    long fsyncMs = FileWriter.DEFAULT_FORCE_INTERVAL_MS;
+    long segmentSize = FileWriter.DEFAULT_SEGMENT_SIZE;
+    long snapshotEvery = Snapshotter.DEFAULT_EVERY;
+
+    // Options are given as "--name=value" and can appear anywhere in the
+    // arguments. Everything else is positional.
+    final List<String> positional = new ArrayList<>();
+    final Map<String, String> options = new HashMap<>();
+
+    for (final String arg : args) {
+      if (arg.startsWith("--") && arg.contains("=")) {
+        final int split = arg.indexOf('=');
+        options.put(arg.substring(2, split), arg.substring(split + 1));
+      } else {
+        positional.add(arg);
+      }
+    }
 
     try {
-      id = Uuid.parse(args[0]);
-      secret = Secret.parse(args[1]);
-      port = Integer.parseInt(args[2]);
-      persistentPath = new File(args[3]);
-      relayAddress = args.length > 4 ? RemoteAddress.parse(args[4]) : null;
+      id = Uuid.parse(positional.get(0));
+      secret = Secret.parse(positional.get(1));
+      port = Integer.parseInt(positional.get(2));
+      persistentPath = new File(positional.get(3));
+      relayAddress = positional.size() > 4 ? RemoteAddress.parse(positional.get(4)) : null;
+
+      // The number of threads used to answer read-only requests.
+      if (options.containsKey("workers")) {
+        workers = Integer.parseInt(options.get("workers"));
+      }
+
+      // How connections are served. See SelectorEngine and ThreadEngine.
+      if (options.containsKey("engine")) {
+        engine = options.get("engine");
+        if (!"selector".equals(engine) && !"threads".equals(engine)) {
+          throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+      }
+
+      // When the transaction log is forced to disk. See Durability.
+      if (options.containsKey("durability")) {
+        durability = Durability.parse(options.get("durability"));
+      }
+
+      // How often the log is forced with --durability=batched.
+      if (options.containsKey("fsync-ms")) {
+        fsyncMs = Long.parseLong(options.get("fsync-ms"));
+        if (fsyncMs < 0) {
+          throw new IllegalArgumentException("Negative fsync interval " + fsyncMs);
+        }
+      }
+
+      // The size, in megabytes, at which a new log segment is started.
+      if (options.containsKey("segment-mb")) {
+        segmentSize = Long.parseLong(options.get("segment-mb")) * 1024 * 1024;
+        if (segmentSize <= 0) {
+          throw new IllegalArgumentException("Segment size must be positive");
+        }
+      }
+
+      // How many records are written to the log between snapshots of the
+      // model, or 0 for none. See Snapshotter.
+      if (options.containsKey("snapshot-every")) {
+        snapshotEvery = Long.parseLong(options.get("snapshot-every"));
+        if (snapshotEvery < 0) {
+          throw new IllegalArgumentException("Negative snapshot interval " + snapshotEvery);
+        }
+      }
     } catch (Exception ex) {
       LOG.error(ex, "Failed to read command arguments");
       System.exit(1);
@@ -72,12 +146,21 @@ final class ServerMain {
     }
 
     try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(port);
         final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
     ) {
 
       LOG.info("Starting server...");
-      runServer(id, secret, serverSource, relaySource);
+      runServer(id,
+                secret,
+                port,
+                workers,
+                engine,
+                new File(persistentPath, LOG_DIRECTORY),
+                segmentSize,
+                durability,
+                fsyncMs,
+                snapshotEvery,
+                relaySource);
 
     } catch (IOException ex) {
 
@@ -88,30 +171,48 @@ final class ServerMain {
 
   private static void runServer(Uuid id,
                                 Secret secret,
-                                ConnectionSource serverSource,
-                                ConnectionSource relaySource) {
+                                int port,
+                                int workers,
+                                String engineName,
+                                File logDirectory,
+                                long segmentSize,
+                                Durability durability,
+                                long fsyncMs,
+                                long snapshotEvery,
+                                ConnectionSource relaySource) throws IOException {
 
     final Relay relay = relaySource == null ?
                         new NoOpRelay() :
                         new RemoteRelay(relaySource);
 
-    final Server server = new Server(id, secret, relay);
-
-    LOG.info("Created server.");
-
-    while (true) {
-
-      try {
+    final Server server = new Server(id,
+                                     secret,
+                                     relay,
+                                     workers,
+                                     logDirectory,
+                                     segmentSize,
+                                     durability,
+                                     fsyncMs,
+                                     snapshotEvery);
+
+    LOG.info("Created server with %d workers and %s durability.",
+             workers,
+             durability.name().toLowerCase());
+
+    final Engine.Handler handler = new Engine.Handler() {
+      @Override
+      public void onRequest(byte[] request, Engine.Reply reply) {
+        server.handleRequest(request, reply);
+      }
+    };
 
-        LOG.info("Established connection...");
-        final Connection connection = serverSource.connect();
-        LOG.info("Connection established.");
+    try (final Engine engine = "threads".equals(engineName) ?
+                               new ThreadEngine(port, handler) :
+                               new SelectorEngine(port, handler)) {
 
-        server.handleConnection(connection);
+      LOG.info("Accepting connections on port %d with the %s engine...", port, engineName);
+      engine.run();
 
-      } catch (IOException ex) {
-        LOG.error(ex, "Failed to establish connection.");
-      }
     }
   }
 }
@@ -30,6 +30,12 @@ import codeu.chat.common.Access;
 
 public final class Chat {
 
+  // The most messages "m-search" will print.
+  private static final int SEARCH_RESULTS = 20;
+
+  // The most users or conversations "u-list" and "c-list" print for a prefix.
+  private static final int PREFIX_RESULTS = 20;
+
   // PANELS
   //
   // We are going to use a stack of panels to track where in the application
@@ -94,22 +100,12 @@ public final class Chat {
     // Find the first conversation with the given name and return its context.
     // If no conversation has the given name, this will return null.
     private ConversationContext findConvo(final UserContext user, String title) {
-    for (final ConversationContext conversation : user.conversations()) {
-      if (title.equals(conversation.conversation.title)) {
-        return conversation;
-      }
-    }
-      return null;
+      return user.findConversation(title);
     }
     // Find the first user with the given name and return a user context
     // for that user. If no user is found, the function will return null.
     private UserContext findUser(final Context context, String name) {
-    for (final UserContext user : context.allUsers()) {
-      if (user.user.name.equals(name)) {
-        return user;
-      }
-    }
-      return null;
+      return context.findUser(name);
     }
 
   // CREATE ROOT PANEL
@@ -139,8 +135,8 @@ public final class Chat {
         System.out.println("    Check the version of server.");
         System.out.println("  uptime");
         System.out.println("    The uptime of chat server");
-        System.out.println("  u-list");
-        System.out.println("    List all users.");
+        System.out.println("  u-list [prefix]");
+        System.out.println("    List all users, or the first users whose names start with prefix.");
         System.out.println("  u-add <name>");
         System.out.println("    Add a new user with the given name.");
         System.out.println("  u-sign-in <name>");
@@ -171,7 +167,10 @@ public final class Chat {
     panel.register("u-list", new Panel.Command() {
       @Override
       public void invoke(List<String> args) {
-        for (final UserContext user : context.allUsers()) {
+        final Iterable<UserContext> users = args.size() > 0 ?
+            context.usersStartingWith(args.get(0), PREFIX_RESULTS) :
+            context.allUsers();
+        for (final UserContext user : users) {
           System.out.format(
               "USER %s (UUID:%s)\n",
               user.user.name,
@@ -263,8 +262,9 @@ public final class Chat {
       @Override
       public void invoke(List<String> args) {
         System.out.println("USER MODE");
-        System.out.println("  c-list");
-        System.out.println("    List all conversations that the current user can interact with.");
+        System.out.println("  c-list [prefix]");
+        System.out.println("    List all conversations that the current user can interact with,");
+        System.out.println("    or the first ones whose titles start with prefix.");
         System.out.println("  c-add <title>");
         System.out.println("    Add a new conversation with the given title and join it as the current user.");
         System.out.println("  c-join <title>");
@@ -298,7 +298,10 @@ public final class Chat {
     panel.register("c-list", new Panel.Command() {
       @Override
       public void invoke(List<String> args) {
-        for (final ConversationContext conversation : user.conversations()) {
+        final Iterable<ConversationContext> conversations = args.size() > 0 ?
+            user.conversationsStartingWith(args.get(0), PREFIX_RESULTS) :
+            user.conversations();
+        for (final ConversationContext conversation : conversations) {
           System.out.format(
               "CONVERSATION %s (UUID:%s)\n",
               conversation.conversation.title,
@@ -561,6 +564,8 @@ public final class Chat {
         System.out.println("    List all messages in the current conversation.");
         System.out.println("  m-add <message>");
         System.out.println("    Add a new message to the current conversation as the current user.");
+        System.out.println("  m-search <words>");
+        System.out.println("    List the newest messages in the current conversation containing all of the words.");
         System.out.println("  info");
         System.out.println("    Display all info about the current conversation.");
         System.out.println("  get-access");
@@ -583,9 +588,7 @@ public final class Chat {
       @Override
       public void invoke(List<String> args) {
         System.out.println("--- start of conversation ---");
-        for (MessageContext message = conversation.firstMessage();
-                            message != null;
-                            message = message.next()) {
+        for (final MessageContext message : conversation.messages()) {
           System.out.println();
           System.out.format("USER : %s\n", message.message.author);
           System.out.format("SENT : %s\n", message.message.creation);
@@ -597,6 +600,36 @@ public final class Chat {
       }
     });
 
+    // M-SEARCH (search messages)
+    //
+    // Add a command to print the newest messages in the current conversation
+    // that contain all of the given words when the user enters "m-search"
+    // while on the conversation panel.
+    //
+    panel.register("m-search", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        final StringBuilder query = new StringBuilder();
+        for (final String arg : args) {
+          query.append(arg).append(' ');
+        }
+        if (query.toString().trim().length() > 0) {
+          System.out.println("--- search results ---");
+          for (final MessageContext message : conversation.search(query.toString(), SEARCH_RESULTS)) {
+            System.out.println();
+            System.out.format("USER : %s\n", message.message.author);
+            System.out.format("SENT : %s\n", message.message.creation);
+            System.out.println();
+            System.out.println(message.message.content);
+            System.out.println();
+          }
+          System.out.println("--- end of results ---");
+        } else {
+          System.out.println("ERROR: Missing <words>");
+        }
+      }
+    });
+
     // M-ADD (add message)
     //
     // Add a command to add a new message to the current conversation when the
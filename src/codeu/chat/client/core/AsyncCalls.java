@@ -0,0 +1,156 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.Promise;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.MultiplexedConnectionSource;
+
+// ASYNC CALLS
+//
+// Sends requests over a multiplexed connection without waiting for their
+// responses. Each call returns a promise that the connection's reader thread
+// finishes when the response arrives, so no thread is tied up per request.
+//
+// At most "maxInFlight" requests are waiting on the server at once. A call
+// made when that many are out blocks until one of them is answered, which
+// keeps a fast caller from queueing without bound. As callbacks run on the
+// reader thread, they must not make further calls and wait on them.
+final class AsyncCalls {
+
+  private final static Logger.Log LOG = Logger.newLog(AsyncCalls.class);
+
+  interface Request {
+    void write(OutputStream out) throws IOException;
+  }
+
+  interface Response<T> {
+    T read(InputStream in) throws IOException;
+  }
+
+  private final MultiplexedConnectionSource source;
+  private final Semaphore inFlight;
+
+  public AsyncCalls(MultiplexedConnectionSource source, int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least one");
+    }
+    this.source = source;
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  // CALL
+  //
+  // Send "type" followed by whatever "request" writes. The promise is
+  // finished with what "response" reads if the server answers with
+  // "expected", and fails otherwise.
+  public <T> Promise<T> call(int type,
+                             Request request,
+                             final int expected,
+                             final Response<T> response) {
+
+    return call(type, request, new Response<T>() {
+      @Override
+      public T read(InputStream in) throws IOException {
+        final int code = Serializers.INTEGER.read(in);
+        if (code != expected) {
+          throw new IOException(String.format(
+              "Expected response %d but server sent %d", expected, code));
+        }
+        return response.read(in);
+      }
+    });
+  }
+
+  // CALL
+  //
+  // Send "type" followed by whatever "request" writes. The promise is
+  // finished with what "response" reads from the whole of the server's
+  // answer, including its response code.
+  public <T> Promise<T> call(final int type,
+                             final Request request,
+                             final Response<T> response) {
+
+    final Promise<T> promise = new Promise<>();
+
+    inFlight.acquireUninterruptibly();
+
+    // The permit is given back by whichever of the callback or the write
+    // failure below happens first.
+    final AtomicBoolean released = new AtomicBoolean(false);
+
+    final MultiplexedConnectionSource.Callback callback = new MultiplexedConnectionSource.Callback() {
+      @Override
+      public void onResponse(InputStream in) {
+        release(released);
+        try {
+          promise.complete(response.read(in));
+        } catch (Exception ex) {
+          LOG.error(ex, "Failed to read response from server.");
+          promise.fail(ex);
+        }
+      }
+
+      @Override
+      public void onFailure(IOException cause) {
+        release(released);
+        promise.fail(cause);
+      }
+    };
+
+    final Connection connection;
+
+    try {
+      connection = source.connect(callback);
+      Serializers.INTEGER.write(connection.out(), type);
+      request.write(connection.out());
+    } catch (Exception ex) {
+      LOG.error(ex, "Failed to send request to server.");
+      release(released);
+      promise.fail(ex);
+      return promise;
+    }
+
+    try {
+      // Closing sends the request. Failures from here on go to the callback.
+      connection.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Unexpected failure closing connection.");
+    }
+
+    return promise;
+  }
+
+  // Requests that only send their type.
+  static final Request EMPTY = new Request() {
+    @Override
+    public void write(OutputStream out) { }
+  };
+
+  private void release(AtomicBoolean released) {
+    if (released.compareAndSet(false, true)) {
+      inFlight.release();
+    }
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import codeu.chat.util.connections.MultiplexedConnectionSource;
+
+// ASYNC CONTEXT
+//
+// Entry point for the asynchronous client API. Its view and controller send
+// every request over "source" without waiting and return promises of the
+// results. Together they never have more than "maxInFlight" requests waiting
+// on the server; a call past that blocks until an earlier one is answered.
+public final class AsyncContext {
+
+  private final AsyncView view;
+  private final AsyncController controller;
+
+  public AsyncContext(MultiplexedConnectionSource source, int maxInFlight) {
+    final AsyncCalls calls = new AsyncCalls(source, maxInFlight);
+    this.view = new AsyncView(calls);
+    this.controller = new AsyncController(calls);
+  }
+
+  public AsyncView view() {
+    return view;
+  }
+
+  public AsyncController controller() {
+    return controller;
+  }
+}
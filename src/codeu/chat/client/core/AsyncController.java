@@ -0,0 +1,150 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.NewMessage;
+import codeu.chat.common.User;
+import codeu.chat.util.Promise;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// ASYNC CONTROLLER
+//
+// The same writes as Controller, but each one returns straight away with a
+// promise of its result. As with Controller, a write the server turns down
+// finishes with null (or false) rather than failing. See AsyncContext.
+public final class AsyncController {
+
+  private final AsyncCalls calls;
+
+  AsyncController(AsyncCalls calls) {
+    this.calls = calls;
+  }
+
+  public Promise<User> newUser(final String name) {
+    return calls.call(
+        NetworkCode.NEW_USER_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Serializers.STRING.write(out, name);
+          }
+        },
+        NetworkCode.NEW_USER_RESPONSE,
+        new AsyncCalls.Response<User>() {
+          @Override
+          public User read(InputStream in) throws IOException {
+            return Serializers.nullable(User.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  public Promise<ConversationHeader> newConversation(final String title, final Uuid owner) {
+    return calls.call(
+        NetworkCode.NEW_CONVERSATION_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Serializers.STRING.write(out, title);
+            Uuid.SERIALIZER.write(out, owner);
+          }
+        },
+        NetworkCode.NEW_CONVERSATION_RESPONSE,
+        new AsyncCalls.Response<ConversationHeader>() {
+          @Override
+          public ConversationHeader read(InputStream in) throws IOException {
+            return Serializers.nullable(ConversationHeader.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  public Promise<Message> newMessage(final Uuid author, final Uuid conversation, final String body) {
+    return calls.call(
+        NetworkCode.NEW_MESSAGE_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Uuid.SERIALIZER.write(out, author);
+            Uuid.SERIALIZER.write(out, conversation);
+            Serializers.STRING.write(out, body);
+          }
+        },
+        NetworkCode.NEW_MESSAGE_RESPONSE,
+        new AsyncCalls.Response<Message>() {
+          @Override
+          public Message read(InputStream in) throws IOException {
+            return Serializers.nullable(Message.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  // One request for all of "messages". The list has an entry for each, in
+  // order, which is null where that message could not be created.
+  public Promise<List<Message>> newMessages(final Collection<NewMessage> messages) {
+    return calls.call(
+        NetworkCode.NEW_MESSAGES_BATCH_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Serializers.collection(NewMessage.SERIALIZER).write(out, messages);
+          }
+        },
+        NetworkCode.NEW_MESSAGES_BATCH_RESPONSE,
+        new AsyncCalls.Response<List<Message>>() {
+          @Override
+          public List<Message> read(InputStream in) throws IOException {
+            return new ArrayList<>(Serializers.collection(Serializers.nullable(Message.SERIALIZER)).read(in));
+          }
+        });
+  }
+
+  // Finishes with true if the user joined and false if they did not have
+  // access. Any other answer from the server fails the promise.
+  public Promise<Boolean> joinConversation(final Uuid conversation, final Uuid user) {
+    return calls.call(
+        NetworkCode.JOIN_CONVERSATION_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Uuid.SERIALIZER.write(out, conversation);
+            Uuid.SERIALIZER.write(out, user);
+          }
+        },
+        new AsyncCalls.Response<Boolean>() {
+          @Override
+          public Boolean read(InputStream in) throws IOException {
+            final int code = Serializers.INTEGER.read(in);
+            if (code == NetworkCode.JOIN_CONVERSATION_RESPONSE_OK) {
+              return true;
+            }
+            if (code == NetworkCode.JOIN_CONVERSATION_RESPONSE_NO_ACCESS) {
+              return false;
+            }
+            throw new IOException(String.format("Unexpected response %d to join", code));
+          }
+        });
+  }
+}
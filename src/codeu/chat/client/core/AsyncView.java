@@ -0,0 +1,261 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.MessagePosition;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Page;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.User;
+import codeu.chat.util.Promise;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// ASYNC VIEW
+//
+// The same reads as View, but each one returns straight away with a promise
+// of its result. Requests share one multiplexed connection and are answered
+// in whatever order the server finishes them. See AsyncContext.
+public final class AsyncView {
+
+  private final AsyncCalls calls;
+
+  AsyncView(AsyncCalls calls) {
+    this.calls = calls;
+  }
+
+  public Promise<Collection<User>> getUsers() {
+    return calls.call(
+        NetworkCode.GET_USERS_REQUEST,
+        AsyncCalls.EMPTY,
+        NetworkCode.GET_USERS_RESPONSE,
+        new AsyncCalls.Response<Collection<User>>() {
+          @Override
+          public Collection<User> read(InputStream in) throws IOException {
+            return Serializers.collection(User.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  public Promise<Page<User>> getUsers(final Uuid start, final int limit) {
+    return calls.call(
+        NetworkCode.GET_USERS_PAGE_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Uuid.SERIALIZER.write(out, start);
+            Serializers.INTEGER.write(out, limit);
+          }
+        },
+        NetworkCode.GET_USERS_PAGE_RESPONSE,
+        new AsyncCalls.Response<Page<User>>() {
+          @Override
+          public Page<User> read(InputStream in) throws IOException {
+            return Page.serializer(User.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  public Promise<Collection<ConversationHeader>> getConversations() {
+    return calls.call(
+        NetworkCode.GET_ALL_CONVERSATIONS_REQUEST,
+        AsyncCalls.EMPTY,
+        NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE,
+        new AsyncCalls.Response<Collection<ConversationHeader>>() {
+          @Override
+          public Collection<ConversationHeader> read(InputStream in) throws IOException {
+            return Serializers.collection(ConversationHeader.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  public Promise<Page<ConversationHeader>> getConversations(final Uuid start, final int limit) {
+    return calls.call(
+        NetworkCode.GET_CONVERSATIONS_PAGE_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Uuid.SERIALIZER.write(out, start);
+            Serializers.INTEGER.write(out, limit);
+          }
+        },
+        NetworkCode.GET_CONVERSATIONS_PAGE_RESPONSE,
+        new AsyncCalls.Response<Page<ConversationHeader>>() {
+          @Override
+          public Page<ConversationHeader> read(InputStream in) throws IOException {
+            return Page.serializer(ConversationHeader.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  public Promise<Collection<ConversationPayload>> getConversationPayloads(final Collection<Uuid> ids) {
+    return calls.call(
+        NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Serializers.collection(Uuid.SERIALIZER).write(out, ids);
+          }
+        },
+        NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE,
+        new AsyncCalls.Response<Collection<ConversationPayload>>() {
+          @Override
+          public Collection<ConversationPayload> read(InputStream in) throws IOException {
+            return Serializers.collection(ConversationPayload.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  public Promise<Collection<Message>> getMessages(final Collection<Uuid> ids) {
+    return calls.call(
+        NetworkCode.GET_MESSAGES_BY_ID_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Serializers.collection(Uuid.SERIALIZER).write(out, ids);
+          }
+        },
+        NetworkCode.GET_MESSAGES_BY_ID_RESPONSE,
+        MESSAGES);
+  }
+
+  public Promise<Collection<Message>> getConversationMessages(final Uuid conversation,
+                                                              final MessagePosition position,
+                                                              final Uuid after,
+                                                              final int limit) {
+    return calls.call(
+        NetworkCode.GET_CONVERSATION_MESSAGES_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Uuid.SERIALIZER.write(out, conversation);
+            MessagePosition.SERIALIZER.write(out, position);
+            Uuid.SERIALIZER.write(out, after);
+            Serializers.INTEGER.write(out, limit);
+          }
+        },
+        NetworkCode.GET_CONVERSATION_MESSAGES_RESPONSE,
+        MESSAGES);
+  }
+
+  public Promise<Changes> getChanges(final long since) {
+    return calls.call(
+        NetworkCode.GET_CHANGES_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Serializers.LONG.write(out, since);
+          }
+        },
+        NetworkCode.GET_CHANGES_RESPONSE,
+        new AsyncCalls.Response<Changes>() {
+          @Override
+          public Changes read(InputStream in) throws IOException {
+            return Changes.SERIALIZER.read(in);
+          }
+        });
+  }
+
+  public Promise<Collection<User>> getUsersByPrefix(final String prefix, final int limit) {
+    return calls.call(
+        NetworkCode.GET_USERS_BY_PREFIX_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Serializers.STRING.write(out, prefix);
+            Serializers.INTEGER.write(out, limit);
+          }
+        },
+        NetworkCode.GET_USERS_BY_PREFIX_RESPONSE,
+        new AsyncCalls.Response<Collection<User>>() {
+          @Override
+          public Collection<User> read(InputStream in) throws IOException {
+            return Serializers.collection(User.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  public Promise<Collection<ConversationHeader>> getConversationsByPrefix(final String prefix, final int limit) {
+    return calls.call(
+        NetworkCode.GET_CONVERSATIONS_BY_PREFIX_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Serializers.STRING.write(out, prefix);
+            Serializers.INTEGER.write(out, limit);
+          }
+        },
+        NetworkCode.GET_CONVERSATIONS_BY_PREFIX_RESPONSE,
+        new AsyncCalls.Response<Collection<ConversationHeader>>() {
+          @Override
+          public Collection<ConversationHeader> read(InputStream in) throws IOException {
+            return Serializers.collection(ConversationHeader.SERIALIZER).read(in);
+          }
+        });
+  }
+
+  public Promise<Collection<Message>> searchMessages(final String query,
+                                                     final Uuid conversation,
+                                                     final Uuid author,
+                                                     final int limit) {
+    return calls.call(
+        NetworkCode.SEARCH_MESSAGES_REQUEST,
+        new AsyncCalls.Request() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            Serializers.STRING.write(out, query);
+            Uuid.SERIALIZER.write(out, conversation);
+            Uuid.SERIALIZER.write(out, author);
+            Serializers.INTEGER.write(out, limit);
+          }
+        },
+        NetworkCode.SEARCH_MESSAGES_RESPONSE,
+        MESSAGES);
+  }
+
+  public Promise<ServerInfo> getInfo() {
+    return calls.call(
+        NetworkCode.SERVER_INFO_REQUEST,
+        AsyncCalls.EMPTY,
+        NetworkCode.SERVER_INFO_RESPONSE,
+        new AsyncCalls.Response<ServerInfo>() {
+          @Override
+          public ServerInfo read(InputStream in) throws IOException {
+            final Time startTime = Time.SERIALIZER.read(in);
+            final Uuid version = Uuid.SERIALIZER.read(in);
+            return new ServerInfo(version, startTime);
+          }
+        });
+  }
+
+  private static final AsyncCalls.Response<Collection<Message>> MESSAGES =
+      new AsyncCalls.Response<Collection<Message>>() {
+        @Override
+        public Collection<Message> read(InputStream in) throws IOException {
+          return Serializers.collection(Message.SERIALIZER).read(in);
+        }
+      };
+}
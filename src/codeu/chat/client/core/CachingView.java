@@ -0,0 +1,359 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.MessagePosition;
+import codeu.chat.common.Page;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+
+// CACHING VIEW
+//
+// A view that remembers what it has read from another view so that it does
+// not have to ask the server again:
+//
+//   + Users, conversations and conversation payloads are kept in full and
+//     brought up to date by asking the server for changes since the last
+//     version this view saw (see BasicView.getChanges). That is only done
+//     once the lists are older than a time-to-live or after invalidate() is
+//     called, for example when a new message is pushed or this client
+//     changed something itself. In between, reads are served from memory.
+//
+//   + Messages are kept in a bounded cache of the most recently used ones.
+//     A message only ever changes when a message is added after it, which
+//     also changes its conversation's payload. So whenever a payload changes
+//     the message it used to end with is dropped from the cache, and a
+//     message with no "next" is only cached if it is the last message that
+//     this view knows of.
+//
+// Everything else goes straight through. If the server cannot report changes
+// this view reads everything from the server, the same as the view it wraps.
+public final class CachingView implements BasicView {
+
+  private final static Logger.Log LOG = Logger.newLog(CachingView.class);
+
+  public static final int DEFAULT_MESSAGE_CAPACITY = 10000;
+  public static final long DEFAULT_TTL_MS = 1000;
+
+  private final BasicView view;
+  private final long ttlMs;
+
+  private final Map<Uuid, User> users = new LinkedHashMap<>();
+  private final Map<Uuid, ConversationHeader> conversations = new LinkedHashMap<>();
+  private final Map<Uuid, ConversationPayload> payloads = new LinkedHashMap<>();
+
+  // The last message of each conversation as of the last refresh. Kept apart
+  // from the payloads in case the payload objects are changed in place.
+  private final Map<Uuid, Uuid> lastMessages = new HashMap<>();
+  private final Map<Uuid, Message> messages;
+
+  // The model version that the maps above match. -1 means they have never
+  // been filled.
+  private long version = -1;
+
+  // When the server was last asked for changes, and whether something has
+  // happened since that means it should be asked again before the
+  // time-to-live is up.
+  private long checkedAt = 0;
+  private boolean stale = true;
+
+  public CachingView(BasicView view) {
+    this(view, DEFAULT_MESSAGE_CAPACITY);
+  }
+
+  public CachingView(BasicView view, int messageCapacity) {
+    this(view, messageCapacity, DEFAULT_TTL_MS);
+  }
+
+  public CachingView(BasicView view, final int messageCapacity, long ttlMs) {
+    this.view = view;
+    this.ttlMs = ttlMs;
+
+    // An access-ordered map that drops the least recently used message once
+    // it is full.
+    this.messages = new LinkedHashMap<Uuid, Message>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Uuid, Message> eldest) {
+        return size() > messageCapacity;
+      }
+    };
+  }
+
+  // Make the next read ask the server for changes rather than trust what is
+  // cached.
+  public synchronized void invalidate() {
+    stale = true;
+  }
+
+  @Override
+  public synchronized Collection<User> getUsers() {
+    return refresh() ? new ArrayList<>(users.values()) : view.getUsers();
+  }
+
+  @Override
+  public Page<User> getUsers(Uuid start, int limit) {
+    return view.getUsers(start, limit);
+  }
+
+  @Override
+  public ServerInfo getInfo() {
+    return view.getInfo();
+  }
+
+  @Override
+  public synchronized Collection<ConversationHeader> getConversations() {
+    return refresh() ? new ArrayList<>(conversations.values()) : view.getConversations();
+  }
+
+  @Override
+  public Page<ConversationHeader> getConversations(Uuid start, int limit) {
+    return view.getConversations(start, limit);
+  }
+
+  @Override
+  public synchronized Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
+
+    if (!refresh()) {
+      return view.getConversationPayloads(ids);
+    }
+
+    final Collection<ConversationPayload> found = new ArrayList<>();
+    for (final Uuid id : ids) {
+      final ConversationPayload payload = payloads.get(id);
+      if (payload == null) {
+        LOG.warning("Unmapped conversation %s", id);
+      } else {
+        found.add(payload);
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public synchronized Collection<Message> getMessages(Collection<Uuid> ids) {
+
+    final Collection<Message> found = new ArrayList<>();
+    final Collection<Uuid> missing = new ArrayList<>();
+
+    for (final Uuid id : ids) {
+      final Message message = messages.get(id);
+      if (message == null) {
+        missing.add(id);
+      } else {
+        found.add(message);
+      }
+    }
+
+    // Everything that was not cached is fetched in one request.
+    if (!missing.isEmpty()) {
+      for (final Message message : view.getMessages(missing)) {
+        cache(message);
+        found.add(message);
+      }
+    }
+
+    return found;
+  }
+
+  @Override
+  public synchronized Collection<Message> getConversationMessages(Uuid conversation,
+                                                                  MessagePosition position,
+                                                                  Uuid after,
+                                                                  int limit) {
+
+    if (refresh()) {
+      final Collection<Message> cached = cachedWindow(conversation, position, after, limit);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    final Collection<Message> window = view.getConversationMessages(conversation, position, after, limit);
+    for (final Message message : window) {
+      cache(message);
+    }
+    return window;
+  }
+
+  @Override
+  public Changes getChanges(long since) {
+    return view.getChanges(since);
+  }
+
+  @Override
+  public Collection<User> getUsersByPrefix(String prefix, int limit) {
+    return view.getUsersByPrefix(prefix, limit);
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit) {
+    return view.getConversationsByPrefix(prefix, limit);
+  }
+
+  @Override
+  public Collection<Message> searchMessages(String query, Uuid conversation, Uuid author, int limit) {
+    return view.searchMessages(query, conversation, author, limit);
+  }
+
+  @Override
+  public Collection<String> userStatusUpdate(String name, Uuid owner) {
+    return view.userStatusUpdate(name, owner);
+  }
+
+  @Override
+  public int conversationStatusUpdate(String title, Uuid owner) {
+    return view.conversationStatusUpdate(title, owner);
+  }
+
+  // A message is only cached once its conversation's payload is, as that is
+  // what tells this view when the message goes stale. A message that claims
+  // to be the last in its conversation when this view knows of a later one
+  // would never be dropped, so it is not cached at all.
+  private void cache(Message message) {
+    if (!payloads.containsKey(message.conversationName)) {
+      return;
+    }
+    if (isEnd(message.next) &&
+        !Uuid.equals(message.id, lastMessages.get(message.conversationName))) {
+      return;
+    }
+    messages.put(message.id, message);
+  }
+
+  // Bring the cached lists up to date with the server if they are stale or
+  // older than the time-to-live. Returns false if the server could not say
+  // what changed, in which case nothing cached but the messages can be
+  // trusted.
+  private boolean refresh() {
+
+    final long now = System.currentTimeMillis();
+
+    if (version >= 0 && !stale && now - checkedAt < ttlMs) {
+      return true;
+    }
+
+    final Changes changes = view.getChanges(Math.max(version, 0));
+
+    if (changes == null) {
+      return false;
+    }
+
+    if (changes.version < version) {
+      // The server lost state that this view has seen, start again.
+      LOG.info("Server version went back from %d to %d, clearing cache.", version, changes.version);
+      users.clear();
+      conversations.clear();
+      payloads.clear();
+      lastMessages.clear();
+      messages.clear();
+    }
+
+    for (final User user : changes.users) {
+      users.put(user.id, user);
+    }
+
+    for (final ConversationHeader conversation : changes.conversations) {
+      conversations.put(conversation.id, conversation);
+    }
+
+    for (final ConversationPayload payload : changes.payloads) {
+      payloads.put(payload.id, payload);
+      final Uuid oldLast = lastMessages.put(payload.id, payload.lastMessage);
+      if (oldLast != null && !Uuid.equals(oldLast, payload.lastMessage)) {
+        // The old last message now has a "next" that the cached copy lacks.
+        messages.remove(oldLast);
+      }
+    }
+
+    version = changes.version;
+    checkedAt = now;
+    stale = false;
+    return true;
+  }
+
+  // Walk the conversation through the message cache. Returns null if any
+  // message needed is not cached.
+  private Collection<Message> cachedWindow(Uuid conversation,
+                                           MessagePosition position,
+                                           Uuid after,
+                                           int limit) {
+
+    final ConversationPayload payload = payloads.get(conversation);
+
+    if (payload == null) {
+      return null;
+    }
+
+    final List<Message> window = new ArrayList<>();
+
+    if (position == MessagePosition.LAST) {
+
+      for (Uuid id = payload.lastMessage; window.size() < limit && !isEnd(id); ) {
+        final Message message = messages.get(id);
+        if (message == null) {
+          return null;
+        }
+        window.add(message);
+        id = message.previous;
+      }
+
+      Collections.reverse(window);
+      return window;
+    }
+
+    Uuid id;
+
+    if (position == MessagePosition.FIRST) {
+      id = payload.firstMessage;
+    } else {
+      final Message start = messages.get(after);
+      if (start == null || !Uuid.equals(start.conversationName, conversation)) {
+        return null;
+      }
+      id = start.next;
+    }
+
+    while (window.size() < limit && !isEnd(id)) {
+      final Message message = messages.get(id);
+      if (message == null) {
+        return null;
+      }
+      window.add(message);
+      id = message.next;
+    }
+
+    return window;
+  }
+
+  private static boolean isEnd(Uuid id) {
+    return id == null || Uuid.equals(id, Uuid.NULL);
+  }
+}
@@ -20,6 +20,7 @@ import java.util.Collection;
 
 import codeu.chat.common.ServerInfo;
 import codeu.chat.common.BasicView;
+import codeu.chat.common.Message;
 import codeu.chat.common.User;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.Uuid;
@@ -27,7 +28,9 @@ import codeu.chat.util.connections.ConnectionSource;
 
 public final class Context {
 
+  private final View remote;
   private final BasicView view;
+  private final CachingView cache;
   private final Controller controller;
 
   public ServerInfo getInfo() {
@@ -35,8 +38,25 @@ public final class Context {
   }
 
   public Context(ConnectionSource source) {
-    this.view = new View(source);
-    this.controller = new Controller(source);
+    this(source, false);
+  }
+
+  // With "cache" set, everything read through this context is kept in a
+  // CachingView so that reading it again does not go back to the server.
+  // Anything this context changes, and any message pushed to it, makes the
+  // cache check with the server on the next read.
+  public Context(ConnectionSource source, boolean cache) {
+    this.remote = new View(source);
+    this.cache = cache ? new CachingView(remote) : null;
+    this.view = cache ? this.cache : remote;
+    this.controller = cache ?
+        new Controller(source, new Runnable() {
+          @Override
+          public void run() {
+            Context.this.cache.invalidate();
+          }
+        }) :
+        new Controller(source);
   }
 
   public UserContext create(String name) {
@@ -46,6 +66,51 @@ public final class Context {
         new UserContext(user, view, controller);
   }
 
+  // Have every new message in "conversations" pushed to "listener". Returns
+  // null if the subscription could not be made, for example because the
+  // context was not made with a MultiplexedConnectionSource.
+  public Subscription subscribe(Collection<Uuid> conversations, final MessageListener listener) {
+    if (cache == null) {
+      return remote.subscribe(conversations, listener);
+    }
+    return remote.subscribe(conversations, new MessageListener() {
+      @Override
+      public void onMessage(Message message) {
+        cache.invalidate();
+        listener.onMessage(message);
+      }
+
+      @Override
+      public void onClose() {
+        // Pushes may have been missed, so the cache cannot rely on them.
+        cache.invalidate();
+        listener.onClose();
+      }
+    });
+  }
+
+  // At most "limit" users whose names start with "prefix", ignoring case, in
+  // name order. Only those users are sent by the server.
+  public Iterable<UserContext> usersStartingWith(String prefix, int limit) {
+    final Collection<UserContext> users = new ArrayList<>();
+    for (final User user : view.getUsersByPrefix(prefix, limit)) {
+      users.add(new UserContext(user, view, controller));
+    }
+    return users;
+  }
+
+  // The user named exactly "name", or null if there is none. Names are unique
+  // ignoring case, so if the user exists it is the first one whose name starts
+  // with "name".
+  public UserContext findUser(String name) {
+    for (final UserContext user : usersStartingWith(name, 1)) {
+      if (user.user.name.equals(name)) {
+        return user;
+      }
+    }
+    return null;
+  }
+
   public Iterable<UserContext> allUsers() {
     final Collection<UserContext> users = new ArrayList<>();
     for (final User user : view.getUsers()) {
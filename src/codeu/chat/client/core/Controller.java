@@ -17,10 +17,14 @@ package codeu.chat.client.core;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.Thread;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
+import codeu.chat.common.NewMessage;
 import codeu.chat.common.User;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializers;
@@ -36,8 +40,17 @@ final class Controller implements ClientController {
 
   private final ConnectionSource source;
 
+  // Run after every request that may have changed the server, so that
+  // anything cached from before it can be refreshed.
+  private final Runnable onChange;
+
   public Controller(ConnectionSource source) {
+    this(source, null);
+  }
+
+  public Controller(ConnectionSource source, Runnable onChange) {
     this.source = source;
+    this.onChange = onChange;
   }
 
   public boolean changeAccess(Uuid requestor, String userName, Access access, Uuid conversation) {
@@ -63,6 +76,8 @@ final class Controller implements ClientController {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
       LOG.error(ex, "Exception during call on server.");
       return false;
+    } finally {
+      changed();
     }
   }
 
@@ -108,6 +123,8 @@ final class Controller implements ClientController {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
       LOG.error(ex, "Exception during call on server.");
       return false;
+    } finally {
+      changed();
     }
   }
 
@@ -131,6 +148,39 @@ final class Controller implements ClientController {
     } catch (Exception ex) {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
       LOG.error(ex, "Exception during call on server.");
+    } finally {
+      changed();
+    }
+
+    return response;
+  }
+
+  @Override
+  public List<Message> newMessages(Collection<NewMessage> messages) {
+
+    final List<Message> response = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_MESSAGES_BATCH_REQUEST);
+      Serializers.collection(NewMessage.SERIALIZER).write(connection.out(), messages);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_MESSAGES_BATCH_RESPONSE) {
+        response.addAll(Serializers.collection(Serializers.nullable(Message.SERIALIZER)).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    } finally {
+      changed();
+    }
+
+    // Nothing was created if the call failed, so there is a null for each
+    // message.
+    while (response.size() < messages.size()) {
+      response.add(null);
     }
 
     return response;
@@ -156,6 +206,8 @@ final class Controller implements ClientController {
     } catch (Exception ex) {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
       LOG.error(ex, "Exception during call on server.");
+    } finally {
+      changed();
     }
 
     return response;
@@ -180,6 +232,8 @@ final class Controller implements ClientController {
     } catch (Exception ex) {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
       LOG.error(ex, "Exception during call on server.");
+    } finally {
+      changed();
     }
 
     return response;
@@ -279,4 +333,10 @@ final class Controller implements ClientController {
 
     return response;
   }
+
+  private void changed() {
+    if (onChange != null) {
+      onChange.run();
+    }
+  }
 }
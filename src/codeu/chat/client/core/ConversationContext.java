@@ -14,21 +14,25 @@
 
 package codeu.chat.client.core;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 
 import codeu.chat.common.ClientController;
 import codeu.chat.common.BasicView;
 import codeu.chat.common.ConversationHeader;
-import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
+import codeu.chat.common.MessagePosition;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
 import codeu.chat.common.Access;
 
 public final class ConversationContext {
 
+  // How many messages messages() asks for in each request.
+  private static final int MESSAGE_WINDOW = 100;
+
   public final User user;
   public final ConversationHeader conversation;
 
@@ -67,33 +71,55 @@ public final class ConversationContext {
   }
 
   public MessageContext firstMessage() {
-    // As it is possible for the conversation to have been updated, so fetch
-    // a new copy.
-    final ConversationPayload updated = getUpdated();
-
-    return updated == null ?
-        null :
-        getMessage(updated.firstMessage);
+    // As it is possible for the conversation to have been updated, ask the
+    // server for whatever is first now.
+    return getMessage(MessagePosition.FIRST);
   }
 
   public MessageContext lastMessage() {
-    // As it is possible for the conversation to have been updated, so fetch
-    // a new copy.
-    final ConversationPayload updated = getUpdated();
+    return getMessage(MessagePosition.LAST);
+  }
 
-    return updated == null ?
-        null :
-        getMessage(updated.lastMessage);
+  // Every message in the conversation, in order. The messages are fetched a
+  // window at a time rather than one request per message.
+  public Collection<MessageContext> messages() {
+
+    final Collection<MessageContext> all = new ArrayList<>();
+
+    Collection<Message> window = view.getConversationMessages(conversation.id,
+                                                              MessagePosition.FIRST,
+                                                              null,
+                                                              MESSAGE_WINDOW);
+
+    while (!window.isEmpty()) {
+
+      Message last = null;
+      for (final Message message : window) {
+        all.add(new MessageContext(message, view));
+        last = message;
+      }
+
+      window = window.size() < MESSAGE_WINDOW ?
+          Collections.<Message>emptyList() :
+          view.getConversationMessages(conversation.id, MessagePosition.AFTER, last.id, MESSAGE_WINDOW);
+    }
+
+    return all;
   }
 
-  private ConversationPayload getUpdated() {
-    final Collection<Uuid> ids = Arrays.asList(conversation.id);
-    final Iterator<ConversationPayload> payloads = view.getConversationPayloads(ids).iterator();
-    return payloads.hasNext() ? payloads.next() : null;
+  // The newest messages in the conversation, up to "limit", that contain
+  // every word in "query".
+  public Collection<MessageContext> search(String query, int limit) {
+    final Collection<MessageContext> found = new ArrayList<>();
+    for (final Message message : view.searchMessages(query, conversation.id, Uuid.NULL, limit)) {
+      found.add(new MessageContext(message, view));
+    }
+    return found;
   }
 
-  private MessageContext getMessage(Uuid id) {
-    final Iterator<Message> messages = view.getMessages(Arrays.asList(id)).iterator();
+  private MessageContext getMessage(MessagePosition position) {
+    final Iterator<Message> messages =
+        view.getConversationMessages(conversation.id, position, null, 1).iterator();
     return messages.hasNext() ? new MessageContext(messages.next(), view) : null;
   }
 }
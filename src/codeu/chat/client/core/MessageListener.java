@@ -0,0 +1,34 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import codeu.chat.common.Message;
+
+// MESSAGE LISTENER
+//
+// Told about each new message in the conversations it was subscribed to (see
+// Context.subscribe). It is called on the connection's reader thread, so it
+// should hand anything slow off to another thread.
+//
+// "onClose" is called once if the subscription ends without being
+// unsubscribed, because the connection was lost or the server gave up on it.
+// Nothing more is pushed after that and messages may have been missed, so a
+// listener that still wants them should read the conversation again and
+// subscribe again.
+public interface MessageListener {
+  void onMessage(Message message);
+  void onClose();
+}
@@ -0,0 +1,77 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.MultiplexedConnectionSource;
+
+// SUBSCRIPTION
+//
+// A subscription made with Context.subscribe. Its listener keeps being told
+// about new messages until "unsubscribe" is called or the subscription is
+// closed (see MessageListener.onClose).
+public final class Subscription {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscription.class);
+
+  private final MultiplexedConnectionSource source;
+  private final MultiplexedConnectionSource.Listener pushes;
+  private final Uuid id;
+
+  Subscription(MultiplexedConnectionSource source,
+               MultiplexedConnectionSource.Listener pushes,
+               Uuid id) {
+    this.source = source;
+    this.pushes = pushes;
+    this.id = id;
+  }
+
+  // UNSUBSCRIBE
+  //
+  // Ask the server to stop pushing to this subscription. The listener is not
+  // called again once this returns, even if the server could not be reached.
+  // Returns false if the server did not know of the subscription.
+  public boolean unsubscribe() {
+
+    boolean found = false;
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.UNSUBSCRIBE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), id);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.UNSUBSCRIBE_RESPONSE) {
+        found = Serializers.BOOLEAN.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    // The server sends everything it pushed for the subscription before the
+    // response, so nothing more arrives for the listener after this.
+    source.remove(pushes);
+
+    return found;
+  }
+}
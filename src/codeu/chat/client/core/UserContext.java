@@ -25,6 +25,9 @@ import codeu.chat.util.Uuid;
 
 public final class UserContext {
 
+  // How many conversations "findConversation" looks at.
+  private static final int TITLE_MATCHES = 100;
+
   public final User user;
   private final BasicView view;
   private final ClientController controller;
@@ -58,6 +61,28 @@ public final class UserContext {
     return all;
   }
 
+  // At most "limit" conversations whose titles start with "prefix", ignoring
+  // case, in title order. Only those conversations are sent by the server.
+  public Iterable<ConversationContext> conversationsStartingWith(String prefix, int limit) {
+    final Collection<ConversationContext> found = new ArrayList<>();
+    for (final ConversationHeader conversation : view.getConversationsByPrefix(prefix, limit)) {
+      found.add(new ConversationContext(user, conversation, view, controller));
+    }
+    return found;
+  }
+
+  // The first conversation titled exactly "title", or null if there is none.
+  // Titles that only differ by case sort together at the start of the
+  // prefix's conversations, so only the first few are needed.
+  public ConversationContext findConversation(String title) {
+    for (final ConversationContext conversation : conversationsStartingWith(title, TITLE_MATCHES)) {
+      if (conversation.conversation.title.equals(title)) {
+        return conversation;
+      }
+    }
+    return null;
+  }
+
   public boolean addConversationInterest(String title) {
     return controller.addConversationInterest(title, user.id);
   }
@@ -14,15 +14,19 @@
 
 package codeu.chat.client.core;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 
 import codeu.chat.common.ServerInfo;
 import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
+import codeu.chat.common.MessagePosition;
 import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Page;
 import codeu.chat.common.User;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializers;
@@ -31,6 +35,7 @@ import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.MultiplexedConnectionSource;
 
 // VIEW
 //
@@ -70,6 +75,29 @@ final class View implements BasicView {
     return users;
   }
 
+  @Override
+  public Page<User> getUsers(Uuid start, int limit) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_PAGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), start);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_PAGE_RESPONSE) {
+        return Page.serializer(User.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return new Page<User>(new ArrayList<User>(), null);
+  }
+
   @Override
   public Collection<ConversationHeader> getConversations() {
 
@@ -93,6 +121,77 @@ final class View implements BasicView {
     return summaries;
   }
 
+  @Override
+  public Page<ConversationHeader> getConversations(Uuid start, int limit) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_PAGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), start);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_PAGE_RESPONSE) {
+        return Page.serializer(ConversationHeader.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return new Page<ConversationHeader>(new ArrayList<ConversationHeader>(), null);
+  }
+
+  @Override
+  public Collection<User> getUsersByPrefix(String prefix, int limit) {
+
+    final Collection<User> users = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_BY_PREFIX_REQUEST);
+      Serializers.STRING.write(connection.out(), prefix);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_BY_PREFIX_RESPONSE) {
+        users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return users;
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit) {
+
+    final Collection<ConversationHeader> conversations = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_PREFIX_REQUEST);
+      Serializers.STRING.write(connection.out(), prefix);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_PREFIX_RESPONSE) {
+        conversations.addAll(Serializers.collection(ConversationHeader.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return conversations;
+  }
+
   @Override
   public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
 
@@ -138,6 +237,81 @@ final class View implements BasicView {
     return messages;
   }
 
+  @Override
+  public Collection<Message> getConversationMessages(Uuid conversation,
+                                                     MessagePosition position,
+                                                     Uuid after,
+                                                     int limit) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATION_MESSAGES_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      MessagePosition.SERIALIZER.write(connection.out(), position);
+      Uuid.SERIALIZER.write(connection.out(), after);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATION_MESSAGES_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+    return messages;
+  }
+
+  @Override
+  public Changes getChanges(long since) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CHANGES_REQUEST);
+      Serializers.LONG.write(connection.out(), since);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CHANGES_RESPONSE) {
+        return Changes.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
+
+  @Override
+  public Collection<Message> searchMessages(String query, Uuid conversation, Uuid author, int limit) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_MESSAGES_REQUEST);
+      Serializers.STRING.write(connection.out(), query);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Uuid.SERIALIZER.write(connection.out(), author);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SEARCH_MESSAGES_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
   @Override
   public Collection<String> userStatusUpdate(String name, Uuid owner) {
 
@@ -188,6 +362,111 @@ final class View implements BasicView {
     return newMessages;
   }
 
+  // SUBSCRIBE
+  //
+  // Ask the server to push new messages in "conversations" to "listener".
+  // Returns null if the server did not agree, which is always the case when
+  // the connection source cannot keep a connection open for pushes.
+  public Subscription subscribe(Collection<Uuid> conversations, MessageListener listener) {
+
+    if (!(source instanceof MultiplexedConnectionSource)) {
+      LOG.warning("Subscriptions need a multiplexed connection.");
+      return null;
+    }
+
+    final MultiplexedConnectionSource multiplexed = (MultiplexedConnectionSource) source;
+    final Pushes pushes = new Pushes(multiplexed, listener);
+
+    try (final Connection connection = multiplexed.connect(pushes)) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SUBSCRIBE_REQUEST);
+      Serializers.collection(Uuid.SERIALIZER).write(connection.out(), conversations);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SUBSCRIBE_RESPONSE) {
+        if (Serializers.BOOLEAN.read(connection.in())) {
+          final Subscription subscription =
+              new Subscription(multiplexed, pushes, Uuid.SERIALIZER.read(connection.in()));
+          pushes.subscribed();
+          return subscription;
+        }
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    // Nothing will be pushed, so the listener should not stay registered.
+    multiplexed.remove(pushes);
+    return null;
+  }
+
+  // PUSHES
+  //
+  // Decodes the frames pushed for a subscription and hands them to its
+  // listener. The listener is only told that the subscription closed if it
+  // was made in the first place.
+  private static final class Pushes implements MultiplexedConnectionSource.Listener {
+
+    private final MultiplexedConnectionSource source;
+    private final MessageListener listener;
+
+    private boolean subscribed = false;
+    private boolean closed = false;
+
+    public Pushes(MultiplexedConnectionSource source, MessageListener listener) {
+      this.source = source;
+      this.listener = listener;
+    }
+
+    @Override
+    public void onPush(InputStream in) {
+      try {
+        final int type = Serializers.INTEGER.read(in);
+        if (type == NetworkCode.NEW_MESSAGE_PUSH) {
+          listener.onMessage(Message.SERIALIZER.read(in));
+        } else if (type == NetworkCode.SUBSCRIPTION_ENDED_PUSH) {
+          LOG.warning("Server ended the subscription.");
+          source.remove(this);
+          onClose();
+        } else {
+          LOG.warning("Unexpected push from server.");
+        }
+      } catch (Exception ex) {
+        LOG.error(ex, "Failed to read push from server.");
+      }
+    }
+
+    @Override
+    public void onClose() {
+      final boolean tell;
+      synchronized (this) {
+        tell = subscribed && !closed;
+        closed = true;
+      }
+      if (tell) {
+        LOG.info("Subscription ended as the connection closed.");
+        listener.onClose();
+      }
+    }
+
+    // The server agreed to the subscription. If the connection was already
+    // lost by then, the listener is told straight away.
+    public void subscribed() {
+      final boolean tell;
+      synchronized (this) {
+        tell = closed && !subscribed;
+        subscribed = true;
+      }
+      if (tell) {
+        LOG.info("Subscription ended as the connection closed.");
+        listener.onClose();
+      }
+    }
+  }
+
   @Override
   public ServerInfo getInfo() {
     try (final Connection connection = this.source.connect()) {
@@ -1,10 +1,14 @@
 package codeu.chat.common;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
+import codeu.chat.util.Compact;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public enum Access {
   MEMBER {
@@ -47,12 +51,36 @@ public enum Access {
 
     @Override
     public void write(OutputStream out, Access value) throws IOException {
-      Serializers.STRING.write(out, value.toString());
+      if (Compact.isCompact(out)) {
+        Compact.writeEnum(out, value);
+      } else {
+        Serializers.STRING.write(out, value.toString());
+      }
     }
 
     @Override
     public Access read(InputStream in) throws IOException {
-      return getAccess(Serializers.STRING.read(in));
+      return Compact.isCompact(in) ?
+          Compact.readEnum(in, Access.class) :
+          getAccess(Serializers.STRING.read(in));
+    }
+  };
+
+  public static final BufferSerializer<Access> BUFFER_SERIALIZER = new BufferSerializer<Access>() {
+
+    @Override
+    public int size(Access value) {
+      return BufferSerializers.STRING.size(value.toString());
+    }
+
+    @Override
+    public void write(ByteBuffer out, Access value) throws IOException {
+      BufferSerializers.STRING.write(out, value.toString());
+    }
+
+    @Override
+    public Access read(ByteBuffer in) throws IOException {
+      return getAccess(BufferSerializers.STRING.read(in));
     }
   };
 }
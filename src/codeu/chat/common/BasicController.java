@@ -14,6 +14,9 @@
 
 package codeu.chat.common;
 
+import java.util.Collection;
+import java.util.List;
+
 import codeu.chat.util.Uuid;
 
 // BASIC CONTROLLER
@@ -33,6 +36,14 @@ public interface BasicController {
   //   state of the message on the server.
   Message newMessage(Uuid author, Uuid conversation, String body);
 
+  // NEW MESSAGES
+  //
+  //   Create many messages on the server at once, in the order given. The
+  //   returned list has one entry for each requested message, in the same
+  //   order: the Message that was created, or null if that one could not
+  //   be. A failed message does not stop the ones after it.
+  List<Message> newMessages(Collection<NewMessage> messages);
+
   // NEW USER
   //
   //   Create a new user on the server. All parameters must be provided
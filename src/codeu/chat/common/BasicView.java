@@ -38,6 +38,18 @@ public interface BasicView {
   //   Return all users whose id is found in the given collection.
   Collection<User> getUsers();
 
+  // GET USERS PAGE
+  //
+  //   Return at most "limit" users in id order, starting with the user whose
+  //   id is "start". A null start is the first user.
+  Page<User> getUsers(Uuid start, int limit);
+
+  // GET USERS BY PREFIX
+  //
+  //   Return at most "limit" users whose names start with "prefix", ignoring
+  //   case, in name order.
+  Collection<User> getUsersByPrefix(String prefix, int limit);
+
   //Get Info
   ServerInfo getInfo();
 
@@ -46,6 +58,18 @@ public interface BasicView {
   //   Return a summary of each converation.
   Collection<ConversationHeader> getConversations();
 
+  // GET CONVERSATIONS PAGE
+  //
+  //   Return at most "limit" conversation summaries in id order, starting with
+  //   the conversation whose id is "start". A null start is the first one.
+  Page<ConversationHeader> getConversations(Uuid start, int limit);
+
+  // GET CONVERSATIONS BY PREFIX
+  //
+  //   Return at most "limit" conversations whose titles start with "prefix",
+  //   ignoring case, in title order.
+  Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit);
+
   // GET CONVERSATIONS
   //
   //   Return all conversations whose id is found in the given collection.
@@ -56,6 +80,32 @@ public interface BasicView {
   //   Return all messages whose id is found in the given collection.
   Collection<Message> getMessages(Collection<Uuid> ids);
 
+  // GET CONVERSATION MESSAGES
+  //
+  //   Return at most "limit" messages from the given conversation, in
+  //   conversation order. The messages start at the first message, end at
+  //   the last message, or start right after the message "after", depending
+  //   on "position". "after" is only used with AFTER.
+  Collection<Message> getConversationMessages(Uuid conversation,
+                                              MessagePosition position,
+                                              Uuid after,
+                                              int limit);
+
+  // GET CHANGES
+  //
+  //   Return the users and conversations added, and the conversation payloads
+  //   added or changed, after the model's version was "since". A since of
+  //   zero returns everything.
+  Changes getChanges(long since);
+
+  // SEARCH MESSAGES
+  //
+  //   Return at most "limit" messages that contain every word in "query",
+  //   newest first. Words are matched without case. If "conversation" or
+  //   "author" is not NULL, only messages in that conversation or by that
+  //   author are returned.
+  Collection<Message> searchMessages(String query, Uuid conversation, Uuid author, int limit);
+
   // USER STATUS UPDATE
   //
   //   Return the conversations created by and contributed to by the specified user.
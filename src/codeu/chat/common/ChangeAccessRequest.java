@@ -3,9 +3,11 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
+import codeu.chat.util.BufferSerializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Uuid;
@@ -49,4 +51,25 @@ public class ChangeAccessRequest implements Writeable {
     }
   };
 
+  public static final BufferSerializer<ChangeAccessRequest> BUFFER_SERIALIZER = new BufferSerializer<ChangeAccessRequest>() {
+    @Override
+    public int size(ChangeAccessRequest value) {
+      return Uuid.BUFFER_SERIALIZER.size(value.user) +
+             Uuid.BUFFER_SERIALIZER.size(value.conversation) +
+             Access.BUFFER_SERIALIZER.size(value.access);
+    }
+
+    @Override
+    public void write(ByteBuffer out, ChangeAccessRequest value) throws IOException {
+      Uuid.BUFFER_SERIALIZER.write(out, value.user);
+      Uuid.BUFFER_SERIALIZER.write(out, value.conversation);
+      Access.BUFFER_SERIALIZER.write(out, value.access);
+    }
+
+    @Override
+    public ChangeAccessRequest read(ByteBuffer in) throws IOException {
+      return new ChangeAccessRequest(Uuid.BUFFER_SERIALIZER.read(in), Uuid.BUFFER_SERIALIZER.read(in), Access.BUFFER_SERIALIZER.read(in));
+    }
+  };
+
 }
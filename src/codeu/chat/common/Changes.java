@@ -0,0 +1,69 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// CHANGES
+//
+// Everything that was added to or changed in the server's model after some
+// version. "version" is the model's version when the changes were read, which
+// is what the client asks for changes since next time.
+public final class Changes {
+
+  public final long version;
+  public final Collection<User> users;
+  public final Collection<ConversationHeader> conversations;
+  public final Collection<ConversationPayload> payloads;
+
+  public Changes(long version,
+                 Collection<User> users,
+                 Collection<ConversationHeader> conversations,
+                 Collection<ConversationPayload> payloads) {
+
+    this.version = version;
+    this.users = users;
+    this.conversations = conversations;
+    this.payloads = payloads;
+  }
+
+  public static final Serializer<Changes> SERIALIZER = new Serializer<Changes>() {
+
+    @Override
+    public void write(OutputStream out, Changes value) throws IOException {
+      Serializers.LONG.write(out, value.version);
+      Serializers.collection(User.SERIALIZER).write(out, value.users);
+      Serializers.collection(ConversationHeader.SERIALIZER).write(out, value.conversations);
+      Serializers.collection(ConversationPayload.SERIALIZER).write(out, value.payloads);
+    }
+
+    @Override
+    public Changes read(InputStream in) throws IOException {
+      return new Changes(
+          Serializers.LONG.read(in),
+          Serializers.collection(User.SERIALIZER).read(in),
+          Serializers.collection(ConversationHeader.SERIALIZER).read(in),
+          Serializers.collection(ConversationPayload.SERIALIZER).read(in)
+      );
+    }
+  };
+}
@@ -17,7 +17,10 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -64,6 +67,40 @@ public final class ConversationHeader implements Writeable {
     }
   };
 
+  public static final BufferSerializer<ConversationHeader> BUFFER_SERIALIZER = new BufferSerializer<ConversationHeader>() {
+
+    @Override
+    public int size(ConversationHeader value) {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             Uuid.BUFFER_SERIALIZER.size(value.owner) +
+             Time.BUFFER_SERIALIZER.size(value.creation) +
+             BufferSerializers.STRING.size(value.title);
+    }
+
+    @Override
+    public void write(ByteBuffer out, ConversationHeader value) throws IOException {
+
+      Uuid.BUFFER_SERIALIZER.write(out, value.id);
+      Uuid.BUFFER_SERIALIZER.write(out, value.owner);
+      Time.BUFFER_SERIALIZER.write(out, value.creation);
+      BufferSerializers.STRING.write(out, value.title);
+
+    }
+
+    @Override
+    public ConversationHeader read(ByteBuffer in) throws IOException {
+
+      return new ConversationHeader(
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Time.BUFFER_SERIALIZER.read(in),
+          BufferSerializers.STRING.read(in)
+      );
+
+    }
+  };
+
   public final Uuid id;
   public final Uuid owner;
   public final Time creation;
@@ -17,7 +17,9 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import codeu.chat.util.BufferSerializer;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Uuid;
@@ -46,6 +48,36 @@ public final class ConversationPayload {
     }
   };
 
+  public static final BufferSerializer<ConversationPayload> BUFFER_SERIALIZER = new BufferSerializer<ConversationPayload>() {
+
+    @Override
+    public int size(ConversationPayload value) {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             Uuid.BUFFER_SERIALIZER.size(value.firstMessage) +
+             Uuid.BUFFER_SERIALIZER.size(value.lastMessage);
+    }
+
+    @Override
+    public void write(ByteBuffer out, ConversationPayload value) throws IOException {
+
+      Uuid.BUFFER_SERIALIZER.write(out, value.id);
+      Uuid.BUFFER_SERIALIZER.write(out, value.firstMessage);
+      Uuid.BUFFER_SERIALIZER.write(out, value.lastMessage);
+
+    }
+
+    @Override
+    public ConversationPayload read(ByteBuffer in) throws IOException {
+
+      return new ConversationPayload(
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in));
+
+    }
+  };
+
   public final Uuid id;
 
   // These are allowed to be updated and therefore are not marked final
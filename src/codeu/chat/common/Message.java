@@ -17,7 +17,10 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -69,6 +72,48 @@ public final class Message implements Writeable {
     }
   };
 
+  public static final BufferSerializer<Message> BUFFER_SERIALIZER = new BufferSerializer<Message>() {
+
+    @Override
+    public int size(Message value) {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             Uuid.BUFFER_SERIALIZER.size(value.next) +
+             Uuid.BUFFER_SERIALIZER.size(value.previous) +
+             Time.BUFFER_SERIALIZER.size(value.creation) +
+             Uuid.BUFFER_SERIALIZER.size(value.author) +
+             BufferSerializers.STRING.size(value.content) +
+             Uuid.BUFFER_SERIALIZER.size(value.conversationName);
+    }
+
+    @Override
+    public void write(ByteBuffer out, Message value) throws IOException {
+
+      Uuid.BUFFER_SERIALIZER.write(out, value.id);
+      Uuid.BUFFER_SERIALIZER.write(out, value.next);
+      Uuid.BUFFER_SERIALIZER.write(out, value.previous);
+      Time.BUFFER_SERIALIZER.write(out, value.creation);
+      Uuid.BUFFER_SERIALIZER.write(out, value.author);
+      BufferSerializers.STRING.write(out, value.content);
+      Uuid.BUFFER_SERIALIZER.write(out, value.conversationName);
+    }
+
+    @Override
+    public Message read(ByteBuffer in) throws IOException {
+
+      return new Message(
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Time.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in),
+          BufferSerializers.STRING.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in)
+      );
+
+    }
+  };
+
   public final Uuid id;
   public final Uuid previous;
   public final Time creation;
@@ -0,0 +1,63 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Compact;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// MESSAGE POSITION
+//
+// Where in a conversation a range of messages starts. FIRST and LAST are the
+// two ends of the conversation. AFTER starts with the message that follows a
+// given message.
+public enum MessagePosition {
+  FIRST,
+  LAST,
+  AFTER;
+
+  public static final Serializer<MessagePosition> SERIALIZER = new Serializer<MessagePosition>() {
+
+    @Override
+    public void write(OutputStream out, MessagePosition value) throws IOException {
+      if (Compact.isCompact(out)) {
+        Compact.writeEnum(out, value);
+      } else {
+        Serializers.INTEGER.write(out, value.ordinal());
+      }
+    }
+
+    @Override
+    public MessagePosition read(InputStream in) throws IOException {
+
+      if (Compact.isCompact(in)) {
+        return Compact.readEnum(in, MessagePosition.class);
+      }
+
+      final int ordinal = Serializers.INTEGER.read(in);
+
+      if (ordinal < 0 || ordinal >= values().length) {
+        throw new IOException(String.format("No message position %d", ordinal));
+      }
+
+      return values()[ordinal];
+    }
+  };
+}
@@ -57,6 +57,70 @@ public final class NetworkCode {
       USER_STATUS_UPDATE_REQUEST = 49,
       USER_STATUS_UPDATE_RESPONSE = 50,
       CONVERSATION_STATUS_UPDATE_REQUEST = 51,
-      CONVERSATION_STATUS_UPDATE_RESPONSE = 52;
+      CONVERSATION_STATUS_UPDATE_RESPONSE = 52,
+      // Sent as the only request on a connection to keep it open for framed,
+      // id-tagged requests. See MultiplexedConnectionSource.
+      MULTIPLEX_REQUEST = 53,
+      MULTIPLEX_RESPONSE = 54,
+      // Paginated reads. Each request is a start id (null for the first page)
+      // and a page size, each response is a Page.
+      GET_USERS_PAGE_REQUEST = 55,
+      GET_USERS_PAGE_RESPONSE = 56,
+      GET_CONVERSATIONS_PAGE_REQUEST = 57,
+      GET_CONVERSATIONS_PAGE_RESPONSE = 58,
+      // A window of a conversation's messages, in conversation order. The
+      // request is a conversation id, a MessagePosition, the message id that
+      // AFTER starts from, and the most messages to return.
+      GET_CONVERSATION_MESSAGES_REQUEST = 59,
+      GET_CONVERSATION_MESSAGES_RESPONSE = 60,
+      // Asks for new messages in a collection of conversations to be pushed
+      // to the client. Only works on a multiplexed connection. The response
+      // says whether the subscription was made and, if it was, is followed
+      // by the subscription's id. Each new message is then sent as a
+      // NEW_MESSAGE_PUSH frame tagged with the subscribe request's id, for as
+      // long as the connection stays open. If the server gives up on the
+      // subscription, for example because the client fell too far behind,
+      // it sends a SUBSCRIPTION_ENDED_PUSH frame and nothing after it.
+      SUBSCRIBE_REQUEST = 61,
+      SUBSCRIBE_RESPONSE = 62,
+      NEW_MESSAGE_PUSH = 63,
+      // The users, conversations and payloads that changed after a model
+      // version. The request is the version, the response is a Changes.
+      GET_CHANGES_REQUEST = 64,
+      GET_CHANGES_RESPONSE = 65,
+      // Many NEW_MESSAGE requests in one. The response has one nullable
+      // message for each one asked for.
+      NEW_MESSAGES_BATCH_REQUEST = 66,
+      NEW_MESSAGES_BATCH_RESPONSE = 67,
+      // Messages containing every word of a query, newest first. The request
+      // is the query, a conversation and an author to filter by (NULL for
+      // any), and a limit. The response is a collection of messages.
+      SEARCH_MESSAGES_REQUEST = 68,
+      SEARCH_MESSAGES_RESPONSE = 69,
+      // Users whose names, or conversations whose titles, start with a
+      // prefix, ignoring case. The request is the prefix and a limit. The
+      // response is a collection in name or title order.
+      GET_USERS_BY_PREFIX_REQUEST = 70,
+      GET_USERS_BY_PREFIX_RESPONSE = 71,
+      GET_CONVERSATIONS_BY_PREFIX_REQUEST = 72,
+      GET_CONVERSATIONS_BY_PREFIX_RESPONSE = 73,
+      SUBSCRIPTION_ENDED_PUSH = 74,
+      // Ends a subscription. The request is the subscription's id and the
+      // response says whether there was such a subscription. Anything pushed
+      // for the subscription is sent before the response.
+      UNSUBSCRIBE_REQUEST = 75,
+      UNSUBSCRIBE_RESPONSE = 76;
+
+  // Protocol versions. A client may follow MULTIPLEX_REQUEST with the newest
+  // version it speaks and the server answers MULTIPLEX_RESPONSE with the
+  // version both will use. Clients that do not ask get the fixed-width
+  // encoding. Requests in any later version start with their version as a
+  // single byte, which can never be the first byte of a fixed-width request
+  // type, and are answered in the same version.
+  public static final int
+      PROTOCOL_FIXED_WIDTH = 1,
+      // See codeu.chat.util.Compact.
+      PROTOCOL_COMPACT = 2,
+      LATEST_PROTOCOL = PROTOCOL_COMPACT;
 
 }
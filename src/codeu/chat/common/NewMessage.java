@@ -0,0 +1,61 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// NEW MESSAGE
+//
+// What a client sends to ask for one message to be created: who wrote it,
+// which conversation it goes in, and what it says. Used to send many
+// messages in one request (see BasicController.newMessages).
+public final class NewMessage {
+
+  public final Uuid author;
+  public final Uuid conversation;
+  public final String content;
+
+  public NewMessage(Uuid author, Uuid conversation, String content) {
+    this.author = author;
+    this.conversation = conversation;
+    this.content = content;
+  }
+
+  public static final Serializer<NewMessage> SERIALIZER = new Serializer<NewMessage>() {
+
+    @Override
+    public void write(OutputStream out, NewMessage value) throws IOException {
+      Uuid.SERIALIZER.write(out, value.author);
+      Uuid.SERIALIZER.write(out, value.conversation);
+      Serializers.STRING.write(out, value.content);
+    }
+
+    @Override
+    public NewMessage read(InputStream in) throws IOException {
+      return new NewMessage(
+          Uuid.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in),
+          Serializers.STRING.read(in)
+      );
+    }
+  };
+}
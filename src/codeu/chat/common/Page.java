@@ -0,0 +1,64 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// PAGE
+//
+// One page of a paginated read. "values" are the entries on this page in the
+// order the server stores them. "next" is the id of the first entry of the
+// following page, which is sent back as the start of the next request, or
+// null when this is the last page.
+public final class Page<T> {
+
+  public final Collection<T> values;
+  public final Uuid next;
+
+  public Page(Collection<T> values, Uuid next) {
+    this.values = values;
+    this.next = next;
+  }
+
+  public static <T> Serializer<Page<T>> serializer(final Serializer<T> serializer) {
+
+    final Serializer<Collection<T>> values = Serializers.collection(serializer);
+
+    return new Serializer<Page<T>>() {
+
+      @Override
+      public void write(OutputStream out, Page<T> value) throws IOException {
+        values.write(out, value.values);
+        Uuid.SERIALIZER.write(out, value.next);
+      }
+
+      @Override
+      public Page<T> read(InputStream in) throws IOException {
+        return new Page<T>(
+            values.read(in),
+            Uuid.SERIALIZER.read(in)
+        );
+      }
+    };
+  }
+}
@@ -17,11 +17,14 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -30,11 +33,14 @@ import codeu.chat.util.Uuid;
 import java.lang.String;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class User implements Writeable {
 
-  public HashMap<Uuid, Time> UserUpdateMap = new HashMap<Uuid, Time>();
-  public HashMap<Uuid, Time> ConvoUpdateMap = new HashMap<Uuid, Time>();
+  // These are updated by status update requests, which the server runs in
+  // parallel, so they need to be safe to share between threads.
+  public Map<Uuid, Time> UserUpdateMap = new ConcurrentHashMap<Uuid, Time>();
+  public Map<Uuid, Time> ConvoUpdateMap = new ConcurrentHashMap<Uuid, Time>();
   public final Uuid id;
   public final String name;
   public final Time creation;
@@ -80,6 +86,32 @@ public final class User implements Writeable {
     }
   };
 
+  public static final BufferSerializer<User> BUFFER_SERIALIZER = new BufferSerializer<User>() {
+
+    @Override
+    public int size(User value) {
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             BufferSerializers.STRING.size(value.name) +
+             Time.BUFFER_SERIALIZER.size(value.creation);
+    }
+
+    @Override
+    public void write(ByteBuffer out, User value) throws IOException {
+      Uuid.BUFFER_SERIALIZER.write(out, value.id);
+      BufferSerializers.STRING.write(out, value.name);
+      Time.BUFFER_SERIALIZER.write(out, value.creation);
+    }
+
+    @Override
+    public User read(ByteBuffer in) throws IOException {
+      return new User(
+          Uuid.BUFFER_SERIALIZER.read(in),
+          BufferSerializers.STRING.read(in),
+          Time.BUFFER_SERIALIZER.read(in)
+      );
+    }
+  };
+
   public void addConversationAccess(Uuid conversation, Access access) {
       conversationAccessMap.put(conversation, access);
   }
@@ -95,4 +127,9 @@ public final class User implements Writeable {
   public Access getConversationAccess(Uuid conversation) {
     return conversationAccessMap.get(conversation);
   }
+
+  // a copy of every conversation this user has access to, and what access
+  public Map<Uuid, Access> copyConversationAccess() {
+    return new HashMap<>(conversationAccessMap);
+  }
 }
@@ -17,11 +17,14 @@ package codeu.chat.relay;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
@@ -43,16 +46,7 @@ public final class ServerFrontEnd {
       final String text = Serializers.STRING.read(in);
       final Time time = Time.SERIALIZER.read(in);
 
-      // I could have passed the relay and use its "pack" method but that would
-      // have been more work than just building an object here.
-      return new Relay.Bundle.Component() {
-        @Override
-        public Uuid id() { return id; }
-        @Override
-        public String text() { return text; }
-        @Override
-        public Time time() { return time; }
-      };
+      return component(id, text, time);
     }
 
     @Override
@@ -63,46 +57,108 @@ public final class ServerFrontEnd {
     }
   };
 
-  private static final Serializer<Relay.Bundle> BUNDLE_SERIALIZER =
-      new Serializer<Relay.Bundle>() {
+  private static final BufferSerializer<Relay.Bundle.Component> COMPONENT_BUFFER_SERIALIZER =
+      new BufferSerializer<Relay.Bundle.Component>() {
 
     @Override
-    public Relay.Bundle read(InputStream in) throws IOException {
+    public int size(Relay.Bundle.Component value) {
+      return Uuid.BUFFER_SERIALIZER.size(value.id()) +
+             BufferSerializers.STRING.size(value.text()) +
+             Time.BUFFER_SERIALIZER.size(value.time());
+    }
 
-      final Uuid id = Uuid.SERIALIZER.read(in);
-      final Time time = Time.SERIALIZER.read(in);
-      final Uuid team = Uuid.SERIALIZER.read(in);
-      final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(in);
-      final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(in);
-      final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(in);
-
-      return new Relay.Bundle() {
-        @Override
-        public Uuid id() { return id; }
-        @Override
-        public Time time() { return time; }
-        @Override
-        public Uuid team() { return team; }
-        @Override
-        public Relay.Bundle.Component user() { return user; }
-        @Override
-        public Relay.Bundle.Component conversation() { return conversation; }
-        @Override
-        public Relay.Bundle.Component message() { return message; }
-      };
+    @Override
+    public Relay.Bundle.Component read(ByteBuffer in) throws IOException {
+
+      final Uuid id = Uuid.BUFFER_SERIALIZER.read(in);
+      final String text = BufferSerializers.STRING.read(in);
+      final Time time = Time.BUFFER_SERIALIZER.read(in);
+
+      return component(id, text, time);
     }
 
     @Override
-    public void write(OutputStream out, Relay.Bundle value) throws IOException {
-      Uuid.SERIALIZER.write(out, value.id());
-      Time.SERIALIZER.write(out, value.time());
-      Uuid.SERIALIZER.write(out, value.team());
-      COMPONENT_SERIALIZER.write(out, value.user());
-      COMPONENT_SERIALIZER.write(out, value.conversation());
-      COMPONENT_SERIALIZER.write(out, value.message());
+    public void write(ByteBuffer out, Relay.Bundle.Component value) throws IOException {
+      Uuid.BUFFER_SERIALIZER.write(out, value.id());
+      BufferSerializers.STRING.write(out, value.text());
+      Time.BUFFER_SERIALIZER.write(out, value.time());
     }
   };
 
+  private static final BufferSerializer<Relay.Bundle> BUNDLE_BUFFER_SERIALIZER =
+      new BufferSerializer<Relay.Bundle>() {
+
+    @Override
+    public int size(Relay.Bundle value) {
+      return Uuid.BUFFER_SERIALIZER.size(value.id()) +
+             Time.BUFFER_SERIALIZER.size(value.time()) +
+             Uuid.BUFFER_SERIALIZER.size(value.team()) +
+             COMPONENT_BUFFER_SERIALIZER.size(value.user()) +
+             COMPONENT_BUFFER_SERIALIZER.size(value.conversation()) +
+             COMPONENT_BUFFER_SERIALIZER.size(value.message());
+    }
+
+    @Override
+    public Relay.Bundle read(ByteBuffer in) throws IOException {
+
+      final Uuid id = Uuid.BUFFER_SERIALIZER.read(in);
+      final Time time = Time.BUFFER_SERIALIZER.read(in);
+      final Uuid team = Uuid.BUFFER_SERIALIZER.read(in);
+      final Relay.Bundle.Component user = COMPONENT_BUFFER_SERIALIZER.read(in);
+      final Relay.Bundle.Component conversation = COMPONENT_BUFFER_SERIALIZER.read(in);
+      final Relay.Bundle.Component message = COMPONENT_BUFFER_SERIALIZER.read(in);
+
+      return bundle(id, time, team, user, conversation, message);
+    }
+
+    @Override
+    public void write(ByteBuffer out, Relay.Bundle value) throws IOException {
+      Uuid.BUFFER_SERIALIZER.write(out, value.id());
+      Time.BUFFER_SERIALIZER.write(out, value.time());
+      Uuid.BUFFER_SERIALIZER.write(out, value.team());
+      COMPONENT_BUFFER_SERIALIZER.write(out, value.user());
+      COMPONENT_BUFFER_SERIALIZER.write(out, value.conversation());
+      COMPONENT_BUFFER_SERIALIZER.write(out, value.message());
+    }
+  };
+
+  // I could have passed the relay and use its "pack" method but that would
+  // have been more work than just building an object here.
+  private static Relay.Bundle.Component component(final Uuid id,
+                                                  final String text,
+                                                  final Time time) {
+    return new Relay.Bundle.Component() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public String text() { return text; }
+      @Override
+      public Time time() { return time; }
+    };
+  }
+
+  private static Relay.Bundle bundle(final Uuid id,
+                                     final Time time,
+                                     final Uuid team,
+                                     final Relay.Bundle.Component user,
+                                     final Relay.Bundle.Component conversation,
+                                     final Relay.Bundle.Component message) {
+    return new Relay.Bundle() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public Time time() { return time; }
+      @Override
+      public Uuid team() { return team; }
+      @Override
+      public Relay.Bundle.Component user() { return user; }
+      @Override
+      public Relay.Bundle.Component conversation() { return conversation; }
+      @Override
+      public Relay.Bundle.Component message() { return message; }
+    };
+  }
+
   private final Relay backEnd;
 
   public ServerFrontEnd(Relay backEnd) {
@@ -140,8 +196,17 @@ public final class ServerFrontEnd {
 
     LOG.info("Reading result.size=%d", result.size());
 
-    Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_RESPONSE);
-    Serializers.collection(BUNDLE_SERIALIZER).write(connection.out(), result);
+    // A read can return many bundles, so encode the whole response in one
+    // pass and hand it to the connection as a single write.
+    final BufferSerializer<Collection<Relay.Bundle>> bundles =
+        BufferSerializers.collection(BUNDLE_BUFFER_SERIALIZER);
+    final ByteBuffer response = ByteBuffer.allocate(
+        BufferSerializers.INTEGER.size(NetworkCode.RELAY_READ_RESPONSE) + bundles.size(result));
+
+    BufferSerializers.INTEGER.write(response, NetworkCode.RELAY_READ_RESPONSE);
+    bundles.write(response, result);
+
+    connection.out().write(response.array(), 0, response.position());
 
     LOG.info("Handling Read Message - end");
   }
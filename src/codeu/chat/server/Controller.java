@@ -14,7 +14,9 @@
 
 package codeu.chat.server;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.lang.NullPointerException;
 import java.lang.String;
 
@@ -22,6 +24,7 @@ import codeu.chat.common.BasicController;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
+import codeu.chat.common.NewMessage;
 import codeu.chat.common.RandomUuidGenerator;
 import codeu.chat.common.RawController;
 import codeu.chat.common.User;
@@ -42,20 +45,43 @@ public final class Controller implements RawController, BasicController {
   private FileWriter fileWriter;
   private boolean loading;
 
+  // while a batch is being applied, records are collected here instead of
+  // going to the file writer one at a time
+  private List<Writeable> batch;
+
+  // new messages are pushed to these subscribers once they are in the model
+  private final Subscriptions subscriptions;
+
   public Controller(Uuid serverId, Model model, FileWriter fileWriter) {
+    this(serverId, model, fileWriter, new Subscriptions());
+  }
+
+  public Controller(Uuid serverId, Model model, FileWriter fileWriter, Subscriptions subscriptions) {
     this.model = model;
+    this.subscriptions = subscriptions;
     this.uuidGenerator = new RandomUuidGenerator(serverId, System.currentTimeMillis());
 
     // store the FileWriter to user
     this.fileWriter = fileWriter;
-    this.loading = true;
     startUp();
-    this.loading = false;
+  }
+
+  // set while the log is being replayed (see FileLoader). replayed records are
+  // not saved again, published, or logged one by one.
+  void setLoading(boolean loading) {
+    this.loading = loading;
+  }
+
+  // the model this controller changes, for loading a snapshot into
+  Model model() {
+    return model;
   }
 
   public void startUp() {
-    FileLoader fileLoader = new FileLoader(this);
-    fileLoader.loadState();
+    if (fileWriter != null) {
+      FileLoader fileLoader = new FileLoader(this);
+      fileWriter.startAt(fileLoader.loadState(fileWriter.directory()));
+    }
     new Thread(fileWriter).start();
   }
 
@@ -63,6 +89,10 @@ public final class Controller implements RawController, BasicController {
   private void save(Writeable x) {
     if(fileWriter == null)
       return;
+    if(batch != null) {
+      batch.add(x);
+      return;
+    }
     try {
       if(!loading)
         fileWriter.insert(x);
@@ -141,6 +171,34 @@ public final class Controller implements RawController, BasicController {
     return newMessage(createId(), author, conversation, body, Time.now());
   }
 
+  @Override
+  public List<Message> newMessages(Collection<NewMessage> messages) {
+
+    final List<Message> created = new ArrayList<>(messages.size());
+
+    // Everything the batch saves is written to the log together once all of
+    // the messages are in the model.
+    batch = new ArrayList<>(messages.size());
+
+    try {
+      for (final NewMessage message : messages) {
+        created.add(newMessage(message.author, message.conversation, message.content));
+      }
+    } finally {
+      final List<Writeable> records = batch;
+      batch = null;
+      try {
+        if (fileWriter != null && !loading) {
+          fileWriter.insert(records);
+        }
+      } catch (InterruptedException e) {
+        System.err.println("fail to insert to queue");
+      }
+    }
+
+    return created;
+  }
+
   @Override
   public User newUser(String name) {
     return newUser(createId(), name, Time.now());
@@ -161,13 +219,19 @@ public final class Controller implements RawController, BasicController {
 
     if (foundUser != null && foundConversation != null && isIdFree(id)) {
 
-      message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body, conversation);
+      // The new message goes after the conversation's current last message, so
+      // that is its "previous" value. It is NULL for the first message.
+      message = new Message(id, Uuid.NULL, foundConversation.lastMessage, creationTime, author, body, conversation);
       model.add(message);
 
       // save this current Message object to log file
       save(message);
 
-      LOG.info("Message added: %s", message.id);
+      // Replayed records were logged when they were first added, and
+      // logging millions of them again would slow down every restart.
+      if (!loading) {
+        LOG.info("Message added: %s", message.id);
+      }
 
       // Find and update the previous "last" message so that it's "next" value
       // will point to the new message.
@@ -195,6 +259,13 @@ public final class Controller implements RawController, BasicController {
       // Update the conversation to point to the new last message as it has changed.
 
       foundConversation.lastMessage = message.id;
+      model.update(foundConversation);
+
+      // Messages replayed from the log are not new, so nobody is told about
+      // them.
+      if (!loading) {
+        subscriptions.publish(message);
+      }
     }
 
     return message;
@@ -218,11 +289,13 @@ public final class Controller implements RawController, BasicController {
       // save this current User object to log file
       save(user);
 
-      LOG.info(
-          "newUser success (user.id=%s user.name=%s user.time=%s)",
-          id,
-          name,
-          creationTime);
+      if (!loading) {
+        LOG.info(
+            "newUser success (user.id=%s user.name=%s user.time=%s)",
+            id,
+            name,
+            creationTime);
+      }
     } else {
       LOG.info(
           "newUser fail - id in use (user.id=%s user.name=%s user.time=%s)",
@@ -250,7 +323,9 @@ public final class Controller implements RawController, BasicController {
       // save this current Conversationheader object to log file
       save(conversation);
 
-      LOG.info("Conversation added: " + id);
+      if (!loading) {
+        LOG.info("Conversation added: " + id);
+      }
     }
 
     return conversation;
@@ -0,0 +1,175 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// CONVERSATION INDEX
+//
+// The messages of one conversation in the order they were added, held in an
+// append-only array. The Nth message is one array read away, and any window
+// of messages is a copy of part of the array, instead of a walk along the
+// messages' "next" links.
+//
+// Beside each message is the latest creation time of it and every message
+// before it. Those times never go down, so a binary search over them finds
+// where the messages after a time start, even if a message (for example one
+// from the relay) was created before one that was added ahead of it.
+//
+// Reads do not lock. Each read works on the Entries that were published when
+// it started, and appends only write past what published Entries count.
+final class ConversationIndex {
+
+  private static final int INITIAL_CAPACITY = 8;
+
+  private static final class Entries {
+
+    public final Message[] messages;
+    public final long[] latest;
+    public final int count;
+
+    public Entries(Message[] messages, long[] latest, int count) {
+      this.messages = messages;
+      this.latest = latest;
+      this.count = count;
+    }
+
+    // The first position where the latest time so far is after "ms". No
+    // message before it was created after "ms".
+    public int after(long ms) {
+      int low = 0;
+      int high = count;
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+        if (latest[middle] <= ms) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+
+  private volatile Entries entries =
+      new Entries(new Message[INITIAL_CAPACITY], new long[INITIAL_CAPACITY], 0);
+
+  public synchronized void add(Message message) {
+
+    final Entries current = entries;
+    final int count = current.count;
+
+    Message[] messages = current.messages;
+    long[] latest = current.latest;
+
+    if (count == messages.length) {
+      messages = Arrays.copyOf(messages, 2 * count);
+      latest = Arrays.copyOf(latest, 2 * count);
+    }
+
+    final long created = message.creation.inMs();
+    messages[count] = message;
+    latest[count] = count == 0 ? created : Math.max(latest[count - 1], created);
+
+    entries = new Entries(messages, latest, count + 1);
+  }
+
+  public int size() {
+    return entries.count;
+  }
+
+  // The message at "position", or null if there is none.
+  public Message get(int position) {
+    final Entries current = entries;
+    return position >= 0 && position < current.count ? current.messages[position] : null;
+  }
+
+  // The position of "message" in the conversation, or -1 if it is not in it.
+  // The search starts where the message's creation time puts it, so it only
+  // has to pass messages created in the same millisecond or out of order.
+  public int positionOf(Message message) {
+
+    final Entries current = entries;
+
+    for (int i = current.after(message.creation.inMs() - 1); i < current.count; i++) {
+      if (Uuid.equals(current.messages[i].id, message.id)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  // Up to "limit" messages starting at "start", in conversation order.
+  public List<Message> window(int start, int limit) {
+    return window(entries, start, limit);
+  }
+
+  // The last "limit" messages, in conversation order.
+  public List<Message> tail(int limit) {
+    final Entries current = entries;
+    return window(current, current.count - Math.max(0, limit), limit);
+  }
+
+  private static List<Message> window(Entries current, int start, int limit) {
+
+    final int from = Math.max(0, start);
+    final int to = (int) Math.min((long) current.count, (long) from + Math.max(0, limit));
+
+    final List<Message> window = new ArrayList<>(Math.max(0, to - from));
+    for (int i = from; i < to; i++) {
+      window.add(current.messages[i]);
+    }
+    return window;
+  }
+
+  // The messages created after "time", in conversation order.
+  public List<Message> createdAfter(Time time) {
+
+    final Entries current = entries;
+    final long ms = time.inMs();
+
+    final List<Message> found = new ArrayList<>();
+    for (int i = current.after(ms); i < current.count; i++) {
+      if (current.messages[i].creation.inMs() > ms) {
+        found.add(current.messages[i]);
+      }
+    }
+    return found;
+  }
+
+  // How many messages were created after "time". Only the messages from
+  // where the time puts them to the end are looked at.
+  public int countCreatedAfter(Time time) {
+
+    final Entries current = entries;
+    final long ms = time.inMs();
+
+    int count = 0;
+    for (int i = current.after(ms); i < current.count; i++) {
+      if (current.messages[i].creation.inMs() > ms) {
+        count += 1;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import codeu.chat.util.Logger;
+
+// DISPATCHER
+//
+// Runs work against the model on one of two lanes. Reads run in parallel on a
+// fixed pool of workers. Writes run one at a time, in the order they were
+// given, on a single writer thread. A read-write lock keeps readers off the
+// model while the writer is changing it, so readers always see the model
+// between two writes and never part way through one.
+public final class Dispatcher {
+
+  private final static Logger.Log LOG = Logger.newLog(Dispatcher.class);
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final ExecutorService readers;
+  private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+  public Dispatcher(int workers) {
+    this.readers = Executors.newFixedThreadPool(Math.max(1, workers));
+  }
+
+  // READ
+  //
+  // Run work that only reads from the model. It may run at the same time as
+  // other reads but never at the same time as a write.
+  public void read(final Runnable work) {
+    readers.execute(new Runnable() {
+      @Override
+      public void run() {
+        lock.readLock().lock();
+        try {
+          work.run();
+        } catch (Exception ex) {
+          LOG.error(ex, "Exception in read lane.");
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    });
+  }
+
+  // WRITE
+  //
+  // Run work that changes the model. Writes run one at a time in the order
+  // they were given.
+  public void write(final Runnable work) {
+    writer.execute(new Runnable() {
+      @Override
+      public void run() {
+        lock.writeLock().lock();
+        try {
+          work.run();
+        } catch (Exception ex) {
+          LOG.error(ex, "Exception in write lane.");
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+    });
+  }
+
+  // STOP
+  //
+  // Stop taking new work and wait for the work already given to finish.
+  public void stop() {
+    readers.shutdown();
+    writer.shutdown();
+    try {
+      readers.awaitTermination(1, TimeUnit.MINUTES);
+      writer.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException ex) {
+      LOG.warning("Interrupted while waiting for dispatcher to stop.");
+    }
+  }
+}
@@ -0,0 +1,45 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+// DURABILITY
+//
+// When records written to the transaction log are forced to disk, and
+// whether a client's write is answered before that happens.
+//
+//   ASYNC    Records are written when the log writer gets to them and never
+//            forced. Writes are answered straight away. A crash can lose
+//            anything the operating system had not yet written out.
+//   BATCHED  As ASYNC, but the log is forced at most every interval while
+//            there is anything new in it, so at most about one interval of
+//            acknowledged writes can be lost.
+//   SYNC     A write is only answered once the log has been forced with its
+//            records in it. Writes that arrive together share one force
+//            (group commit), so this costs latency rather than throughput.
+public enum Durability {
+  ASYNC,
+  BATCHED,
+  SYNC;
+
+  public static Durability parse(String name) {
+    for (final Durability durability : values()) {
+      if (durability.name().equalsIgnoreCase(name)) {
+        return durability;
+      }
+    }
+    throw new IllegalArgumentException("Unknown durability " + name);
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+// ENGINE
+//
+// A connection engine accepts connections for the server and moves bytes
+// between sockets and the server's request handler. Engines differ in how
+// they use threads but all of them speak the same protocol, in which all
+// bytes are sent as frames (see codeu.chat.util.connections.Frames):
+//
+//   A connection starts out carrying exactly one request frame. Once the
+//   whole frame has arrived the engine hands it to the handler and writes the
+//   handler's response back as one frame. Then the connection is closed.
+//
+//   The handler may instead answer by upgrading the connection to multiplexed
+//   mode. From then on the connection stays open and carries any number of
+//   frames, each starting with a request id followed by the request. Every
+//   frame is handed to the handler as soon as it arrives and each response is
+//   written back as a frame starting with the same id, in whatever order the
+//   responses are ready. The handler may keep sending frames with a request's
+//   id after its response, which is how the server pushes to a client.
+public interface Engine extends Closeable {
+
+  // The size of the request id at the start of a frame on a multiplexed
+  // connection.
+  int REQUEST_ID_SIZE = 4;
+
+  // HANDLER
+  //
+  // Called with each request read from a connection. Implementations may run
+  // on any thread but must eventually call exactly one method on "reply".
+  // After that, "send" may be called again for as long as "canPush" is true.
+  interface Handler {
+    void onRequest(byte[] request, Reply reply);
+  }
+
+  // REPLY
+  //
+  // The way a handler answers a request. "send" queues the response for
+  // writing. "multiplex" sends the response and then keeps the connection
+  // open for multiplexed requests. Calling "multiplex" on a connection that is
+  // already multiplexed is treated as an empty response.
+  //
+  // The response is everything between the buffer's position and limit. The
+  // engine takes ownership of the buffer, so a direct buffer can go out to the
+  // socket without being copied.
+  //
+  // "canPush" is true while more frames can be sent for the request, which is
+  // only the case for requests on a multiplexed connection that is still
+  // open. "whenClosed" runs "action" once that stops being true, or at once
+  // if it already has, so that whoever was pushing can forget the reply.
+  interface Reply {
+    void send(ByteBuffer response);
+    void multiplex(ByteBuffer response);
+    boolean canPush();
+    void whenClosed(Runnable action);
+  }
+
+  // RUN
+  //
+  // Accept and serve connections on the calling thread. This call only returns
+  // once "close" has been called.
+  void run();
+
+}
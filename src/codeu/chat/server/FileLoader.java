@@ -1,16 +1,24 @@
 package codeu.chat.server;
 
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.RandomAccessFile;
 import java.lang.Thread;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
 
 import codeu.chat.common.Writeable;
 import codeu.chat.common.Message;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.server.FileWriter;
+import codeu.chat.util.Compact;
+import codeu.chat.util.Crc32c;
 import codeu.chat.util.Serializers;
 import codeu.chat.common.User;
 import codeu.chat.common.Access;
@@ -18,78 +26,388 @@ import codeu.chat.common.ChangeAccessRequest;
 
 public class FileLoader {
 
+  // segments set aside after a damaged record get this added to their name
+  public static final String DISCARDED_SUFFIX = ".discarded";
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
   private Controller controller;
 
   public FileLoader(Controller controller) {
     this.controller = controller;
   }
 
-  public void loadState() {
-    File file = new File(FileWriter.TRANSACTION_FILE);
+  // LOAD STATE
+  //
+  // Load the newest snapshot in "directory" (see Snapshot), replay every
+  // record of the log after it, oldest first, and return the sequence number
+  // of the next record to be written. Without a snapshot the whole log is
+  // replayed. Records before the snapshot are still checked but not applied.
+  //
+  // Records are checked as they are read. The first one that is cut short or
+  // does not match its checksum ends the log: its segment is truncated just
+  // before it, so that new records follow the last good one, and any later
+  // segments are set aside, renamed rather than deleted. A segment whose
+  // header cannot be read is set aside along with every segment after it.
+  public long loadState(File directory) {
+    controller.setLoading(true);
+    try {
+      return replayAll(directory);
+    } finally {
+      controller.setLoading(false);
+    }
+  }
+
+  private long replayAll(File directory) {
 
-    // check if can't load transaction state from the log file
-    if(!file.exists())
-      return;
-    FileInputStream fin = null;
+    migrate(directory);
+
+    final long snapshot;
     try {
-      fin = new FileInputStream(file);
-    } catch (FileNotFoundException e) {
-      System.err.println("couldn't find transaction log file");
-    } catch (SecurityException e) {
-      System.err.println("can't access read transaction log file");
+      snapshot = Snapshot.load(directory, controller.model());
+    } catch (IOException e) {
+      // part of the snapshot may already be in the model, replaying the log
+      // on top of it would not give back what was there
+      throw new IllegalStateException("couldn't load snapshot: " + e.getMessage(), e);
     }
 
-    // each count has a type first then data right after
-    String type;
-    Object value;
+    final List<LogSegment> segments = LogSegment.list(directory);
+    long next = snapshot;
+
+    for (int i = 0; i < segments.size(); i++) {
+
+      final LogSegment segment = segments.get(i);
+
+      // the snapshot holds everything in this segment
+      if (i + 1 < segments.size() && segments.get(i + 1).first <= snapshot) {
+        continue;
+      }
+
+      if (segment.first > next && next != 0) {
+        System.err.println("transaction log is missing records " + next + " to " + segment.first);
+      }
+
+      // how many records at the start of this segment the snapshot holds
+      final long skip = Math.max(0, snapshot - segment.first);
+
+      final Replay replay;
+
+      try (final InputStream fin = new BufferedInputStream(new FileInputStream(segment.file), READ_BUFFER_SIZE)) {
+        replay = segment.readHeader(fin) == LogSegment.SEPARATED_VERSION ?
+            new Replay(readRecords(fin, skip), -1) :
+            replay(segment, fin, skip);
+      } catch (IOException e) {
+        if (i == segments.size() - 1 && segment.file.length() < LogSegment.HEADER_SIZE) {
+          // the server stopped while starting this segment, before it held
+          // any records
+          System.err.println("removing incomplete transaction log segment " + segment.file);
+          segment.file.delete();
+        } else {
+          // nothing in or after this segment can be trusted to follow on
+          // from the records before it. set them aside, as after a damaged
+          // record, so that new records follow the last good one.
+          System.err.println("error reading transaction log: " + e.getMessage());
+          discard(segments.subList(i, segments.size()));
+        }
+        break;
+      }
+
+      next = segment.first + replay.records;
+
+      if (replay.damagedAt >= 0) {
+        truncate(segment, replay.damagedAt);
+        discard(segments.subList(i + 1, segments.size()));
+        break;
+      }
+    }
+
+    // the log ends before the snapshot, for example because the last records
+    // were never forced. the records that follow it go in a segment of
+    // their own, starting where the snapshot does.
+    if (next < snapshot) {
+      startSegment(directory, snapshot);
+      next = snapshot;
+    }
+
+    return next;
+  }
+
+  private static void startSegment(File directory, long first) {
+    final LogSegment segment = LogSegment.create(directory, first);
+    try (final FileChannel channel = new FileOutputStream(segment.file).getChannel()) {
+      segment.writeHeader(channel);
+      channel.force(false);
+    } catch (IOException e) {
+      System.err.println("couldn't start transaction log segment " + segment.file);
+    }
+  }
+
+  // how many records a segment held and where the first damaged one starts,
+  // or -1 if there was none
+  private static final class Replay {
+
+    final long records;
+    final long damagedAt;
+
+    Replay(long records, long damagedAt) {
+      this.records = records;
+      this.damagedAt = damagedAt;
+    }
+  }
+
+  // read framed records (see LogSegment) until the end of the stream, in one
+  // pass, checking each before it is applied. the first "skip" records are
+  // only checked.
+  private Replay replay(LogSegment segment, InputStream fin, long skip) {
+
+    final byte[] header = new byte[LogSegment.RECORD_HEADER_SIZE];
+    byte[] payload = new byte[4096];
+
+    long position = LogSegment.HEADER_SIZE;
+    long records = 0;
+
     try {
+      while (true) {
+
+        final int read = readFully(fin, header, header.length);
+
+        if (read == 0) {
+          return new Replay(records, -1);
+        }
+        if (read < header.length) {
+          return damaged(segment, records, position, "record header cut short");
+        }
 
-      // each object is in the format: 0x00 then type then data
-      while(fin.read() != -1) {
-
-          // read the type of the data
-          type = Serializers.STRING.read(fin);
-
-          // check cases for user message or conversationheader types
-          switch(type) {
-            case Writeable.USER_STR:
-              value = User.SERIALIZER.read(fin);
-              User user = (User)value;
-
-              // add new user to restore state
-              this.controller.newUser(user.id, user.name, user.creation);
-              break;
-            case Writeable.MESSAGE_STR:
-              value = Message.SERIALIZER.read(fin);
-              Message message = (Message)value;
-
-              // add new message to restore state
-              this.controller.newMessage(message.id, message.author, message.conversationName, message.content, message.creation);
-              break;
-            case Writeable.CONVERSATION_STR:
-              value = ConversationHeader.SERIALIZER.read(fin);
-              ConversationHeader conversationheader = (ConversationHeader)value;
-
-              // add new conversation to restore state
-              this.controller.newConversation(conversationheader.id, conversationheader.title, conversationheader.owner, conversationheader.creation);
-              break;
-            case Writeable.CHANGE_ACCESS_REQUEST_STR:
-              value = ChangeAccessRequest.SERIALIZER.read(fin);
-              ChangeAccessRequest request = (ChangeAccessRequest)value;
-
-              // load access for the user
-              this.controller.loadChangeAccess(request.user, request.conversation, request.access);
-              break;
-            }
+        final int length = ByteBuffer.wrap(header).getInt(0);
+        final int checksum = ByteBuffer.wrap(header).getInt(4);
+
+        if (length < 0 || length > LogSegment.MAX_RECORD_SIZE) {
+          return damaged(segment, records, position, "bad record length " + length);
+        }
+
+        if (payload.length < length) {
+          payload = new byte[Math.max(length, 2 * payload.length)];
+        }
+
+        if (readFully(fin, payload, length) < length) {
+          return damaged(segment, records, position, "record cut short");
+        }
+
+        if (Crc32c.compute(payload, 0, length) != checksum) {
+          return damaged(segment, records, position, "checksum mismatch");
+        }
+
+        if (records >= skip) {
+
+          final RecordStream in = new RecordStream(payload, length);
+
+          try {
+            apply(new Compact.Input(in), true);
+          } catch (IOException e) {
+            return damaged(segment, records, position, "record does not match its type");
+          }
+
+          if (in.available() > 0) {
+            return damaged(segment, records, position, "record longer than its type");
+          }
+        }
+
+        records++;
+        position += LogSegment.RECORD_HEADER_SIZE + length;
       }
     } catch (IOException e) {
-        System.err.println("error reading transaction log");
+      return damaged(segment, records, position, e.getMessage());
+    }
+  }
+
+  private static Replay damaged(LogSegment segment, long records, long position, String reason) {
+    System.err.println(String.format("damaged record in %s at byte %d (%s), %d records recovered",
+                                     segment.file, position, reason, records));
+    return new Replay(records, position);
+  }
+
+  // read up to "length" bytes, stopping early only at the end of the stream,
+  // and return how many were read
+  private static int readFully(InputStream in, byte[] bytes, int length) throws IOException {
+    int read = 0;
+    while (read < length) {
+      final int count = in.read(bytes, read, length - read);
+      if (count < 0) {
+        break;
       }
+      read += count;
+    }
+    return read;
+  }
+
+  // read records in the format older servers wrote, each starting with a
+  // separator, until the end of the stream and return how many there were. a
+  // record cut short, by a crash part way through a write, ends the stream.
+  // the first "skip" records are read but not applied.
+  private int readRecords(InputStream fin, long skip) {
+
+    int count = 0;
 
     try {
-      fin.close();
+
+      // each object is in the format: separator then type then data. the
+      // separator says whether the rest of the record is compact.
+      int separator;
+      while((separator = fin.read()) != -1) {
+
+          final InputStream in = separator == FileWriter.COMPACT_SEPARATOR ?
+              new Compact.Input(fin) :
+              fin;
+
+          apply(in, count >= skip);
+          count++;
+      }
     } catch (IOException e) {
+        System.err.println("error reading transaction log");
+      }
+
+    return count;
+  }
+
+  // read one record's type and value and, if "apply" is set, apply it to the
+  // controller
+  private void apply(InputStream in, boolean apply) throws IOException {
+
+    // each count has a type first then data right after
+    String type;
+    Object value;
+
+    // read the type of the data
+    type = Serializers.STRING.read(in);
+
+    // check cases for user message or conversationheader types
+    switch(type) {
+      case Writeable.USER_STR:
+        value = User.SERIALIZER.read(in);
+        User user = (User)value;
+
+        // add new user to restore state
+        if (apply)
+          this.controller.newUser(user.id, user.name, user.creation);
+        break;
+      case Writeable.MESSAGE_STR:
+        value = Message.SERIALIZER.read(in);
+        Message message = (Message)value;
+
+        // add new message to restore state
+        if (apply)
+          this.controller.newMessage(message.id, message.author, message.conversationName, message.content, message.creation);
+        break;
+      case Writeable.CONVERSATION_STR:
+        value = ConversationHeader.SERIALIZER.read(in);
+        ConversationHeader conversationheader = (ConversationHeader)value;
+
+        // add new conversation to restore state
+        if (apply)
+          this.controller.newConversation(conversationheader.id, conversationheader.title, conversationheader.owner, conversationheader.creation);
+        break;
+      case Writeable.CHANGE_ACCESS_REQUEST_STR:
+        value = ChangeAccessRequest.SERIALIZER.read(in);
+        ChangeAccessRequest request = (ChangeAccessRequest)value;
+
+        // load access for the user
+        if (apply)
+          this.controller.loadChangeAccess(request.user, request.conversation, request.access);
+        break;
+      }
+  }
+
+  // cut a segment off just before its first damaged record
+  private static void truncate(LogSegment segment, long position) {
+    try (final FileChannel channel = new RandomAccessFile(segment.file, "rw").getChannel()) {
+      channel.truncate(position);
+      channel.force(false);
+    } catch (IOException e) {
+      System.err.println("couldn't truncate transaction log segment " + segment.file);
+    }
+  }
+
+  // take segments out of the log without losing them
+  private static void discard(List<LogSegment> segments) {
+    for (final LogSegment segment : segments) {
+      final File discarded = new File(segment.file.getPath() + DISCARDED_SUFFIX);
+      System.err.println("setting aside transaction log segment " + segment.file + " as " + discarded);
+      if (!segment.file.renameTo(discarded)) {
+        System.err.println("couldn't set aside transaction log segment " + segment.file);
+      }
     }
   }
 
+  // a record's payload. reading past its end throws, rather than returning -1
+  // for the serializers to turn into values.
+  private static final class RecordStream extends InputStream {
+
+    private final byte[] bytes;
+    private final int length;
+    private int position = 0;
+
+    public RecordStream(byte[] bytes, int length) {
+      this.bytes = bytes;
+      this.length = length;
+    }
+
+    @Override
+    public int available() {
+      return length - position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (position >= length) {
+        throw new EOFException("Record is incomplete");
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      if (count == 0) {
+        return 0;
+      }
+      if (position >= length) {
+        throw new EOFException("Record is incomplete");
+      }
+      final int read = Math.min(count, length - position);
+      System.arraycopy(bytes, position, buffer, offset, read);
+      position += read;
+      return read;
+    }
+  }
+
+  // older servers kept the whole log in one file in the working directory,
+  // without a header. it becomes the first segment, in the version 1 format,
+  // the first time a server with an empty log directory starts.
+  private void migrate(File directory) {
+
+    final File legacy = new File(FileWriter.TRANSACTION_FILE);
+
+    if (!legacy.isFile() || !LogSegment.list(directory).isEmpty()) {
+      return;
+    }
+
+    final LogSegment segment = LogSegment.create(directory, 0);
+
+    try (
+        final FileChannel in = new FileInputStream(legacy).getChannel();
+        final FileChannel out = new FileOutputStream(segment.file).getChannel()
+    ) {
+      segment.writeHeader(out, LogSegment.SEPARATED_VERSION);
+      long position = 0;
+      while (position < in.size()) {
+        position += in.transferTo(position, in.size() - position, out);
+      }
+      out.force(false);
+    } catch (IOException e) {
+      System.err.println("couldn't move transaction log into " + directory);
+      segment.file.delete();
+      return;
+    }
+
+    legacy.delete();
+  }
 }
@@ -1,73 +1,423 @@
 package codeu.chat.server;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.lang.Runnable;
 
 import codeu.chat.common.Writeable;
+import codeu.chat.util.Compact;
+import codeu.chat.util.Crc32c;
 import codeu.chat.util.Serializers;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.FileInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import codeu.chat.common.User;
 
 // class to store current queued transactions and write to log file
 public class FileWriter implements Runnable {
 
-    private BlockingQueue<Writeable> queue;
+    // ENTRY
+    //
+    // What goes through the queue: a group of records that is written to the
+    // file at once, or something to run once everything queued before it is
+    // as durable as the writer's Durability makes it, or, if writing or
+    // forcing it failed, something to run instead.
+    public static final class Entry {
+
+      final List<Writeable> records;
+      final Runnable onDurable;
+      final Runnable onFailure;
+
+      private Entry(List<Writeable> records, Runnable onDurable, Runnable onFailure) {
+        this.records = records;
+        this.onDurable = onDurable;
+        this.onFailure = onFailure;
+      }
+    }
+
+    private BlockingQueue<Entry> queue;
+
+    // the single log file older servers kept in the working directory. it is
+    // moved into the segmented log the first time it is loaded.
     public static final String TRANSACTION_FILE = "transaction.log";
 
-    public FileWriter(BlockingQueue<Writeable> q) {
+    // segments are started once the next write would take the newest one past
+    // this size (see LogSegment)
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    // how often the log is forced in BATCHED mode, unless told otherwise
+    public static final long DEFAULT_FORCE_INTERVAL_MS = 100;
+
+    // how long to wait before writing records again after a failed write,
+    // when nothing new arrives in the meantime
+    public static final long RETRY_INTERVAL_MS = 1000;
+
+    private final File directory;
+    private final long segmentSize;
+    private final Durability durability;
+    private final long forceIntervalMs;
+
+    // whether anything was written since the log was last forced, and when
+    // that was
+    private boolean dirty = false;
+    private long lastForce = System.currentTimeMillis();
+
+    // older servers wrote one of these before every saved object to separate
+    // them, and version 1 segments still hold records like that. records that
+    // start with SEPARATOR use the fixed-width encoding. records that start
+    // with COMPACT_SEPARATOR use the compact encoding (see
+    // codeu.chat.util.Compact).
+    public static final int SEPARATOR = 0x00;
+    public static final int COMPACT_SEPARATOR = 0x01;
+
+    // records are encoded here first, as the compact encoding only works on
+    // streams, and then copied into the direct buffer for the channel. both
+    // are reused for every write.
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+      // leave room for a record's length and checksum and return where the
+      // record starts
+      public int begin() {
+        final int start = count;
+        for (int i = 0; i < LogSegment.RECORD_HEADER_SIZE; i++) {
+          write(0);
+        }
+        return start;
+      }
+
+      // fill in the length and checksum of the record that starts at "start"
+      public void end(int start) {
+        final int length = count - start - LogSegment.RECORD_HEADER_SIZE;
+        final ByteBuffer header = ByteBuffer.wrap(buf, start, LogSegment.RECORD_HEADER_SIZE);
+        header.putInt(length);
+        header.putInt(Crc32c.compute(buf, start + LogSegment.RECORD_HEADER_SIZE, length));
+      }
+
+      public void copyTo(ByteBuffer out) {
+        out.put(buf, 0, count);
+      }
+    }
+
+    private final RecordBuffer record = new RecordBuffer();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+
+    // the newest segment, kept open between writes so that a write is one
+    // system call rather than an open, a write, and a close. opened on the
+    // first write and again after a failed one.
+    private LogSegment segment;
+    private FileChannel channel;
+    private long segmentBytes;
+
+    // set when a failed write could not be cut back out of the newest
+    // segment, so that the next write starts a segment of its own instead of
+    // following the damaged record
+    private boolean startFresh = false;
+
+    // the sequence number the next record written will have. only the writer
+    // thread changes it, but it can be read from any thread.
+    private volatile long nextSequence = 0;
+
+    // records that could not be written. they are already in the model, so
+    // they are written again, ahead of anything newer, until a write works.
+    private final List<Writeable> unwritten = new ArrayList<>();
+    private volatile int unwrittenCount = 0;
+
+    public FileWriter(BlockingQueue<Entry> q) {
+      this(q, new File("."), DEFAULT_SEGMENT_SIZE, Durability.ASYNC, DEFAULT_FORCE_INTERVAL_MS);
+    }
+
+    public FileWriter(BlockingQueue<Entry> q,
+                      File directory,
+                      long segmentSize,
+                      Durability durability,
+                      long forceIntervalMs) {
       queue = q;
+      this.directory = directory;
+      this.segmentSize = segmentSize;
+      this.durability = durability;
+      this.forceIntervalMs = forceIntervalMs;
+    }
+
+    // the directory holding the log's segments
+    public File directory() {
+      return directory;
+    }
+
+    // tell the writer how many records are already in the log, once it has
+    // been loaded. must be called before the writer is started.
+    public void startAt(long sequence) {
+      nextSequence = sequence;
+    }
+
+    // how many records are in the log, as far as the writer has got,
+    // counting those it is still trying to write
+    public long sequence() {
+      return nextSequence + unwrittenCount;
     }
 
     // function to constantly take from queue and write to file
     public void run() {
+      final List<Entry> waiting = new ArrayList<>();
       try {
         while (true) {
 
-          // use take() to wait for completed operations before taking from queue
-          write(queue.take());
+          // use take() to wait for completed operations before taking from queue.
+          // anything else queued by then goes out in the same write. in
+          // BATCHED mode, stop waiting when the next force is due, and after
+          // a failed write, when it is time to try again.
+          final long wait = waitMs();
+          final Entry first = wait < 0 ?
+              queue.take() :
+              queue.poll(wait, TimeUnit.MILLISECONDS);
+
+          if (first != null) {
+            waiting.add(first);
+            queue.drainTo(waiting);
+          }
+
+          final List<Writeable> records = new ArrayList<>(unwritten);
+          for (final Entry entry : waiting) {
+            if (entry.records != null) {
+              records.addAll(entry.records);
+            }
+          }
+
+          boolean durable = true;
+
+          if (!records.isEmpty()) {
+            unwritten.clear();
+            if (!write(records)) {
+              unwritten.addAll(records);
+              durable = false;
+            }
+            unwrittenCount = unwritten.size();
+          }
+
+          if (durability == Durability.SYNC ||
+              (durability == Durability.BATCHED && System.currentTimeMillis() >= lastForce + forceIntervalMs)) {
+            durable &= force();
+          }
+
+          // the records ahead of these are now as durable as they will get,
+          // or did not make it to the file
+          for (final Entry entry : waiting) {
+            final Runnable action = durable ? entry.onDurable : entry.onFailure;
+            if (action != null) {
+              action.run();
+            }
+          }
+
+          waiting.clear();
         }
       } catch (InterruptedException ex) {
 
+      } finally {
+        close();
+      }
+    }
+
+    // how long the writer can wait for new entries before it has something
+    // to do, or -1 if it can wait for as long as it takes
+    private long waitMs() {
+      long wait = -1;
+      if (!unwritten.isEmpty()) {
+        wait = RETRY_INTERVAL_MS;
       }
+      if (durability == Durability.BATCHED && dirty) {
+        final long force = Math.max(0, lastForce + forceIntervalMs - System.currentTimeMillis());
+        wait = wait < 0 ? force : Math.min(wait, force);
+      }
+      return wait;
     }
 
     public void insert(Writeable x) throws InterruptedException {
       // adding to the common queue
-      queue.put(x);
+      queue.put(new Entry(Collections.singletonList(x), null, null));
     }
 
-    public void write(Writeable x) {
+    // queue records that must reach the file together, with one write
+    public void insert(List<Writeable> records) throws InterruptedException {
+      if (!records.isEmpty()) {
+        queue.put(new Entry(records, null, null));
+      }
+    }
 
-      File file = new File(TRANSACTION_FILE);
+    // WHEN DURABLE
+    //
+    // Run "onDurable" once every record inserted so far has been forced to
+    // disk, in SYNC mode, or "onFailure" if writing or forcing them failed.
+    // Records that failed to be written are tried again later, but whoever
+    // was waiting for them is not told when that works. In the other modes
+    // nothing waits for the disk, so "onDurable" runs straight away. In SYNC
+    // mode both run on the writer thread, so they should be quick.
+    public void whenDurable(Runnable onDurable, Runnable onFailure) throws InterruptedException {
+      if (durability == Durability.SYNC) {
+        queue.put(new Entry(null, onDurable, onFailure));
+      } else {
+        onDurable.run();
+      }
+    }
+
+    // WHEN WRITTEN
+    //
+    // Run "action" on the writer thread once every record inserted so far has
+    // been written, or has failed to be and is waiting to be written again,
+    // whatever the writer's Durability, so that sequence() is the position in
+    // the log just after them.
+    public void whenWritten(Runnable action) throws InterruptedException {
+      queue.put(new Entry(null, action, action));
+    }
+
+    public boolean write(Writeable x) {
+      return write(Collections.singletonList(x));
+    }
+
+    // write records to the newest segment and return whether it worked. if
+    // it did not, none of them are left in the file.
+    public boolean write(List<Writeable> records) {
 
-      FileOutputStream fout = null;
       try {
-        fout = new FileOutputStream(file, true);
+
+        // for each record the type and then the object itself, framed as
+        // LogSegment describes. a new compact stream is used for every record
+        // so that each record can be read without the ones before it.
+        record.reset();
+        for (final Writeable x : records) {
+          final int start = record.begin();
+          final OutputStream out = new Compact.Output(record);
+          Serializers.STRING.write(out, x.getType());
+          x.write(out, x);
+          record.end(start);
+        }
+
+        if (buffer.capacity() < record.size()) {
+          buffer = ByteBuffer.allocateDirect(Math.max(record.size(), 2 * buffer.capacity()));
+        }
+
+        buffer.clear();
+        record.copyTo(buffer);
+        buffer.flip();
+
+        FileChannel channel = channel();
+
+        // a group of records always goes in one segment, so only start a new
+        // one if the current one already holds something
+        if (segmentBytes > LogSegment.HEADER_SIZE && segmentBytes + record.size() > segmentSize) {
+          channel = rotate();
+        }
+
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+
+        dirty = true;
+        segmentBytes += record.size();
+        nextSequence += records.size();
+
+        return true;
+
       } catch (FileNotFoundException e) {
         System.err.println("couldn't find transaction log file");
       } catch (SecurityException e) {
         System.err.println("can't access write to transaction log file");
+      } catch (IOException e) {
+        System.err.println("couldn't write to transaction log file");
+        // drop whatever part of the records made it into the file, so that
+        // the next write does not follow a damaged record, and start again
+        // with a fresh channel next time
+        if (channel != null) {
+          try {
+            channel.truncate(segmentBytes);
+          } catch (IOException ex) {
+            System.err.println("couldn't truncate transaction log file");
+            startFresh = true;
+          }
+        }
+        close();
       }
 
+      return false;
+   }
+
+    // make everything written so far durable and return whether it worked.
+    // only the data is forced, the file's metadata (other than its length)
+    // can follow later. if it fails the file is forced again next time, with
+    // a new channel.
+    private boolean force() {
+      lastForce = System.currentTimeMillis();
+      if (!dirty) {
+        return true;
+      }
       try {
+        channel().force(false);
+        dirty = false;
+        return true;
+      } catch (IOException e) {
+        System.err.println("couldn't force transaction log file to disk");
+        close();
+        return false;
+      }
+    }
+
+    // close the log file. the next write opens it again.
+    public void close() {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          System.err.println("couldn't close transaction log file");
+        }
+        channel = null;
+        segment = null;
+      }
+    }
 
-        // writing the saved state into transaction file
-        byte[] separator = new byte[1];
-        separator[0] = 0x00;
+    // the newest segment's channel. after a restart or a failed write that
+    // is the last segment on disk, appended to, unless it is in an older
+    // format or a failed write left it damaged.
+    private FileChannel channel() throws IOException {
+      if (channel == null) {
+        final List<LogSegment> segments = LogSegment.list(directory);
+        if (startFresh ||
+            segments.isEmpty() ||
+            segments.get(segments.size() - 1).version() != LogSegment.VERSION) {
+          startSegment();
+          startFresh = false;
+        } else {
+          segment = segments.get(segments.size() - 1);
+          channel = new FileOutputStream(segment.file, true).getChannel();
+          segmentBytes = channel.size();
+        }
+      }
+      return channel;
+    }
 
-        // write the separator to separate between saved objects
-        fout.write(separator);
-        Serializers.STRING.write(fout, x.getType());
-        x.write(fout, x);
-        fout.close();
-      } catch (IOException e) {
-        System.err.println("couldn't write to transaction log file");
+    // finish the current segment and start the next one. what was written to
+    // the finished segment is forced first, unless nothing is ever forced,
+    // as it will not be forced later.
+    private FileChannel rotate() throws IOException {
+      if (durability != Durability.ASYNC && !force()) {
+        throw new IOException("couldn't force transaction log segment before starting the next");
       }
+      close();
+      startSegment();
+      return channel;
+    }
 
-   }
+    private void startSegment() throws IOException {
+      segment = LogSegment.create(directory, nextSequence);
+      channel = new FileOutputStream(segment.file).getChannel();
+      segment.writeHeader(channel);
+      segmentBytes = LogSegment.HEADER_SIZE;
+    }
 }
@@ -0,0 +1,193 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// LOG SEGMENT
+//
+// The transaction log is a directory of segment files. Records are written to
+// the newest segment until the next write would take it past the segment size,
+// and then a new segment is started. Every record has a sequence number, its
+// position in the log counting from zero, and every segment starts with a
+// header:
+//
+//   MAGIC     4 bytes  "CCLG"
+//   VERSION   4 bytes  the format of the records that follow
+//   FIRST     8 bytes  the sequence number of the segment's first record
+//
+// In the current version every record after the header is framed as:
+//
+//   LENGTH    4 bytes  the size of the payload
+//   CHECKSUM  4 bytes  the CRC-32C of the payload (see Crc32c)
+//   PAYLOAD            the record's type and value, compact encoded
+//
+// so a record cut short by a crash, or damaged on disk, is caught before any
+// of it is applied. Version 1 segments hold records as FileWriter used to
+// write them, each starting with a separator byte, with nothing to check them
+// against. They are still read but never written to.
+//
+// Segment files are named after their first sequence number, zero padded so
+// that they sort in log order, which means a segment can be found, replayed,
+// or removed without reading any of the others.
+public final class LogSegment {
+
+  public static final int MAGIC = 0x43434C47;  // "CCLG"
+  public static final int SEPARATED_VERSION = 1;
+  public static final int VERSION = 2;
+  public static final int HEADER_SIZE = 16;
+
+  public static final int RECORD_HEADER_SIZE = 8;
+
+  // Records claiming to be larger than this are treated as damaged rather
+  // than something to allocate memory for.
+  public static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+  private static final String PREFIX = "transaction-";
+  private static final String SUFFIX = ".log";
+
+  public final File file;
+  public final long first;
+
+  private LogSegment(File file, long first) {
+    this.file = file;
+    this.first = first;
+  }
+
+  public static LogSegment create(File directory, long first) {
+    return new LogSegment(new File(directory, String.format("%s%020d%s", PREFIX, first, SUFFIX)), first);
+  }
+
+  // LIST
+  //
+  // All the segments in "directory", oldest first. Files that do not look like
+  // segments are left alone.
+  public static List<LogSegment> list(File directory) {
+
+    final File[] files = directory.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return parse(file.getName()) >= 0;
+      }
+    });
+
+    if (files == null) {
+      return Collections.emptyList();
+    }
+
+    final List<LogSegment> segments = new ArrayList<>();
+    for (final File file : files) {
+      segments.add(new LogSegment(file, parse(file.getName())));
+    }
+
+    Collections.sort(segments, new Comparator<LogSegment>() {
+      @Override
+      public int compare(LogSegment a, LogSegment b) {
+        return Long.compare(a.first, b.first);
+      }
+    });
+
+    return segments;
+  }
+
+  // The first sequence number in a segment's file name, or -1 if the name is
+  // not a segment's.
+  private static long parse(String name) {
+    if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  public static ByteBuffer header(long first, int version) {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC);
+    header.putInt(version);
+    header.putLong(first);
+    header.flip();
+    return header;
+  }
+
+  public void writeHeader(FileChannel channel) throws IOException {
+    writeHeader(channel, VERSION);
+  }
+
+  public void writeHeader(FileChannel channel, int version) throws IOException {
+    final ByteBuffer header = header(first, version);
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+  }
+
+  // READ HEADER
+  //
+  // Read and check the header at the start of this segment's file and return
+  // its format version. Throws if the file is not a segment, was written in a
+  // format this server does not know, or does not start where its name says
+  // it does.
+  public int readHeader(InputStream in) throws IOException {
+
+    final DataInputStream data = new DataInputStream(in);
+    final int magic;
+    final int version;
+    final long start;
+
+    try {
+      magic = data.readInt();
+      version = data.readInt();
+      start = data.readLong();
+    } catch (EOFException ex) {
+      throw new IOException(String.format("%s is too short to hold a header", file));
+    }
+
+    if (magic != MAGIC) {
+      throw new IOException(String.format("%s is not a log segment", file));
+    }
+    if (version < SEPARATED_VERSION || version > VERSION) {
+      throw new IOException(String.format("%s has unknown format version %d", file, version));
+    }
+    if (start != first) {
+      throw new IOException(String.format("%s starts at %d, not %d", file, start, first));
+    }
+
+    return version;
+  }
+
+  // The format version of this segment, or -1 if its header cannot be read.
+  public int version() {
+    try (final InputStream in = new FileInputStream(file)) {
+      return readHeader(in);
+    } catch (IOException ex) {
+      return -1;
+    }
+  }
+}
@@ -15,6 +15,8 @@
 package codeu.chat.server;
 
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
@@ -23,9 +25,15 @@ import codeu.chat.common.Message;
 import codeu.chat.common.User;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
-import codeu.chat.util.store.Store;
+import codeu.chat.util.store.ConcurrentStore;
 import codeu.chat.util.store.StoreAccessor;
+import codeu.chat.util.store.TimeStore;
 
+// MODEL
+//
+// Everything the server knows, indexed for the View's queries. The stores are
+// ConcurrentStores, or TimeStores for the time indexes, so reading them never
+// blocks or sees a half-finished insert, whichever thread the read is on.
 public final class Model {
 
   private static final Comparator<Uuid> UUID_COMPARE = new Comparator<Uuid>() {
@@ -44,33 +52,57 @@ public final class Model {
     }
   };
 
-  private static final Comparator<Time> TIME_COMPARE = new Comparator<Time>() {
+  private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
+
+  private static final Comparator<Long> VERSION_COMPARE = new Comparator<Long>() {
     @Override
-    public int compare(Time a, Time b) {
+    public int compare(Long a, Long b) {
       return a.compareTo(b);
     }
   };
 
-  private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
+  // CHANGE VERSION
+  //
+  // Goes up by one with every change to the model. Each change is also put in
+  // a "byVersion" store under the version it was given, so everything that
+  // changed after a version can be found with "after". Replaying the log
+  // makes the same changes in the same order, so versions survive a restart.
+  private long version = 0;
 
-  private final Store<Uuid, User> userById = new Store<>(UUID_COMPARE);
-  private final Store<Time, User> userByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, User> userByText = new Store<>(STRING_COMPARE);
+  private final ConcurrentStore<Uuid, User> userById = new ConcurrentStore<>(UUID_COMPARE);
+  private final TimeStore<User> userByTime = new TimeStore<>();
+  private final ConcurrentStore<String, User> userByText = new ConcurrentStore<>(STRING_COMPARE);
+  private final ConcurrentStore<Long, User> userByVersion = new ConcurrentStore<>(VERSION_COMPARE);
 
-  private final Store<Uuid, ConversationHeader> conversationById = new Store<>(UUID_COMPARE);
-  private final Store<Time, ConversationHeader> conversationByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, ConversationHeader> conversationByText = new Store<>(STRING_COMPARE);
+  private final ConcurrentStore<Uuid, ConversationHeader> conversationById = new ConcurrentStore<>(UUID_COMPARE);
+  private final TimeStore<ConversationHeader> conversationByTime = new TimeStore<>();
+  private final ConcurrentStore<String, ConversationHeader> conversationByText = new ConcurrentStore<>(STRING_COMPARE);
+  private final ConcurrentStore<Long, ConversationHeader> conversationByVersion = new ConcurrentStore<>(VERSION_COMPARE);
 
-  private final Store<Uuid, ConversationPayload> conversationPayloadById = new Store<>(UUID_COMPARE);
+  private final ConcurrentStore<Uuid, ConversationPayload> conversationPayloadById = new ConcurrentStore<>(UUID_COMPARE);
 
-  private final Store<Uuid, Message> messageById = new Store<>(UUID_COMPARE);
-  private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
+  // A payload changes every time a message is added to its conversation. Only
+  // its latest version is kept, so there is one entry per conversation, and
+  // "payloadVersions" says which one that is.
+  private final ConcurrentStore<Long, ConversationPayload> conversationPayloadByVersion = new ConcurrentStore<>(VERSION_COMPARE);
+  private final Map<Uuid, Long> payloadVersions = new HashMap<>();
+
+  // Each conversation's messages in order, for positional reads (see
+  // ConversationIndex). Made when the conversation is added.
+  private final ConcurrentStore<Uuid, ConversationIndex> messagesByConversation = new ConcurrentStore<>(UUID_COMPARE);
+
+  // Message content by word, for search.
+  private final SearchIndex messageSearch = new SearchIndex();
+
+  private final ConcurrentStore<Uuid, Message> messageById = new ConcurrentStore<>(UUID_COMPARE);
+  private final TimeStore<Message> messageByTime = new TimeStore<>();
+  private final ConcurrentStore<String, Message> messageByText = new ConcurrentStore<>(STRING_COMPARE);
 
   public void add(User user) {
     userById.insert(user.id, user);
     userByTime.insert(user.creation, user);
     userByText.insert(user.name, user);
+    userByVersion.insert(++version, user);
   }
 
   public StoreAccessor<Uuid, User> userById() {
@@ -85,11 +117,21 @@ public final class Model {
     return userByText;
   }
 
+  public StoreAccessor<Long, User> userByVersion() {
+    return userByVersion;
+  }
+
   public void add(ConversationHeader conversation) {
     conversationById.insert(conversation.id, conversation);
     conversationByTime.insert(conversation.creation, conversation);
     conversationByText.insert(conversation.title, conversation);
-    conversationPayloadById.insert(conversation.id, new ConversationPayload(conversation.id));
+    conversationByVersion.insert(++version, conversation);
+
+    messagesByConversation.insert(conversation.id, new ConversationIndex());
+
+    final ConversationPayload payload = new ConversationPayload(conversation.id);
+    conversationPayloadById.insert(conversation.id, payload);
+    setPayloadVersion(payload, version);
   }
 
   public StoreAccessor<Uuid, ConversationHeader> conversationById() {
@@ -104,14 +146,63 @@ public final class Model {
     return conversationByText;
   }
 
+  public StoreAccessor<Long, ConversationHeader> conversationByVersion() {
+    return conversationByVersion;
+  }
+
   public StoreAccessor<Uuid, ConversationPayload> conversationPayloadById() {
     return conversationPayloadById;
   }
 
+  // Record that "payload" was changed in place.
+  public void update(ConversationPayload payload) {
+    setPayloadVersion(payload, ++version);
+  }
+
+  // The new version is added before the old one is removed, so that anyone
+  // reading changes always finds the payload.
+  private void setPayloadVersion(ConversationPayload payload, long payloadVersion) {
+    conversationPayloadByVersion.insert(payloadVersion, payload);
+    final Long previous = payloadVersions.put(payload.id, payloadVersion);
+    if (previous != null) {
+      conversationPayloadByVersion.remove(previous);
+    }
+  }
+
+  // The version of the last change to the payload of "conversation", or -1 if
+  // there is no such conversation.
+  long payloadVersionOf(Uuid conversation) {
+    final Long payloadVersion = payloadVersions.get(conversation);
+    return payloadVersion == null ? -1 : payloadVersion;
+  }
+
+  public StoreAccessor<Long, ConversationPayload> conversationPayloadByVersion() {
+    return conversationPayloadByVersion;
+  }
+
   public void add(Message message) {
     messageById.insert(message.id, message);
     messageByTime.insert(message.creation, message);
     messageByText.insert(message.content, message);
+
+    messageSearch.add(message);
+
+    final ConversationIndex conversation = messagesByConversation.first(message.conversationName);
+    if (conversation != null) {
+      conversation.add(message);
+    }
+
+    version += 1;
+  }
+
+  SearchIndex messageSearch() {
+    return messageSearch;
+  }
+
+  // The messages of "conversation" in order, or null if there is no such
+  // conversation.
+  ConversationIndex messagesOf(Uuid conversation) {
+    return messagesByConversation.first(conversation);
   }
 
   public StoreAccessor<Uuid, Message> messageById() {
@@ -125,4 +216,59 @@ public final class Model {
   public StoreAccessor<String, Message> messageByText() {
     return messageByText;
   }
+
+  // RESTORE
+  //
+  // Put back what a snapshot (see Snapshot) holds, with the versions things
+  // had when it was taken, so that clients keeping track of changes by
+  // version are not affected by a restart. Restored messages are not added to
+  // their conversation's index, which is left to the caller, and the model's
+  // own version is restored last of all with restoreVersion().
+  void restore(User user, long version) {
+    userById.insert(user.id, user);
+    userByTime.insert(user.creation, user);
+    userByText.insert(user.name, user);
+    userByVersion.insert(version, user);
+  }
+
+  void restore(ConversationHeader conversation,
+               long version,
+               ConversationPayload payload,
+               long payloadVersion) {
+
+    conversationById.insert(conversation.id, conversation);
+    conversationByTime.insert(conversation.creation, conversation);
+    conversationByText.insert(conversation.title, conversation);
+    conversationByVersion.insert(version, conversation);
+
+    messagesByConversation.insert(conversation.id, new ConversationIndex());
+
+    conversationPayloadById.insert(conversation.id, payload);
+    setPayloadVersion(payload, payloadVersion);
+  }
+
+  void restore(Message message) {
+    messageById.insert(message.id, message);
+    messageByTime.insert(message.creation, message);
+    messageByText.insert(message.content, message);
+
+    messageSearch.add(message);
+  }
+
+  void restoreVersion(long version) {
+    this.version = version;
+  }
+
+  // The version stores with their keys, for taking a snapshot.
+  Iterable<Map.Entry<Long, User>> userVersions() {
+    return userByVersion.entries();
+  }
+
+  Iterable<Map.Entry<Long, ConversationHeader>> conversationVersions() {
+    return conversationByVersion.entries();
+  }
+
+  public long version() {
+    return version;
+  }
 }
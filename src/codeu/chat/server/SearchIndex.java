@@ -0,0 +1,196 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Uuid;
+
+// SEARCH INDEX
+//
+// An inverted index over message content. Every message is given the next
+// sequence number and each word in it gets that number added to its posting
+// list. Words are runs of letters and digits, compared without case.
+//
+// Posting lists only ever grow at the end, so they are always sorted. A
+// search starts from the shortest list of the query's words and walks it
+// from the newest message back, checking the other lists with a binary
+// search, until it has found "limit" messages that pass the filters. The
+// cost depends on how many candidates are looked at, not on how many
+// messages there are.
+//
+// Like the rest of the model, one thread adds at a time and reads do not
+// lock: lists and the message array are published as immutable snapshots
+// (see Postings), and a message is published before any list points at it.
+final class SearchIndex {
+
+  private static final int INITIAL_CAPACITY = 4;
+
+  // The first "count" entries of "values" never change once published.
+  private static final class Postings {
+
+    public final int[] values;
+    public final int count;
+
+    public Postings(int[] values, int count) {
+      this.values = values;
+      this.count = count;
+    }
+
+    public Postings append(int value) {
+      final int[] grown = count == values.length ?
+          Arrays.copyOf(values, Math.max(INITIAL_CAPACITY, 2 * count)) :
+          values;
+      grown[count] = value;
+      return new Postings(grown, count + 1);
+    }
+
+    public boolean contains(int value) {
+      return Arrays.binarySearch(values, 0, count, value) >= 0;
+    }
+  }
+
+  private static final class Messages {
+
+    public final Message[] values;
+    public final int count;
+
+    public Messages(Message[] values, int count) {
+      this.values = values;
+      this.count = count;
+    }
+  }
+
+  private static final Postings EMPTY = new Postings(new int[0], 0);
+
+  private final ConcurrentMap<String, Postings> postings = new ConcurrentHashMap<>();
+
+  private volatile Messages messages = new Messages(new Message[INITIAL_CAPACITY], 0);
+
+  public synchronized void add(Message message) {
+
+    final Messages current = messages;
+    final int sequence = current.count;
+
+    final Message[] values = sequence == current.values.length ?
+        Arrays.copyOf(current.values, 2 * sequence) :
+        current.values;
+    values[sequence] = message;
+    messages = new Messages(values, sequence + 1);
+
+    // A word that appears twice in a message is only posted once.
+    for (final String token : tokenize(message.content)) {
+      final Postings list = postings.get(token);
+      postings.put(token, (list == null ? EMPTY : list).append(sequence));
+    }
+  }
+
+  // SEARCH
+  //
+  // Up to "limit" messages, newest first, that contain every word in "query".
+  // If "conversation" or "author" is not null (or NULL) only messages in that
+  // conversation or by that author are returned. A query with no words finds
+  // nothing.
+  public List<Message> search(String query, Uuid conversation, Uuid author, int limit) {
+
+    final List<Message> found = new ArrayList<>();
+
+    final Set<String> tokens = tokenize(query);
+
+    if (tokens.isEmpty() || limit <= 0) {
+      return found;
+    }
+
+    // Take the snapshot of every list before the messages, so every number
+    // in them is in the messages snapshot.
+    final List<Postings> lists = new ArrayList<>();
+    Postings shortest = null;
+
+    for (final String token : tokens) {
+      final Postings list = postings.get(token);
+      if (list == null) {
+        return found;
+      }
+      lists.add(list);
+      if (shortest == null || list.count < shortest.count) {
+        shortest = list;
+      }
+    }
+
+    final Messages current = messages;
+    final boolean anyConversation = conversation == null || Uuid.equals(conversation, Uuid.NULL);
+    final boolean anyAuthor = author == null || Uuid.equals(author, Uuid.NULL);
+
+    for (int i = shortest.count - 1; i >= 0 && found.size() < limit; i--) {
+
+      final int sequence = shortest.values[i];
+      final Message message = current.values[sequence];
+
+      if ((anyConversation || Uuid.equals(conversation, message.conversationName)) &&
+          (anyAuthor || Uuid.equals(author, message.author)) &&
+          inAll(lists, shortest, sequence)) {
+        found.add(message);
+      }
+    }
+
+    return found;
+  }
+
+  public int size() {
+    return messages.count;
+  }
+
+  private static boolean inAll(List<Postings> lists, Postings skip, int sequence) {
+    for (final Postings list : lists) {
+      if (list != skip && !list.contains(sequence)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The distinct words in "text", lower case, in the order they first appear.
+  static Set<String> tokenize(String text) {
+
+    final Set<String> tokens = new LinkedHashSet<>();
+
+    if (text == null) {
+      return tokens;
+    }
+
+    int start = -1;
+
+    for (int i = 0; i <= text.length(); i++) {
+      final boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (inWord && start < 0) {
+        start = i;
+      } else if (!inWord && start >= 0) {
+        tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+
+    return tokens;
+  }
+}
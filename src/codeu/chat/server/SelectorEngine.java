@@ -0,0 +1,497 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.connections.Frames;
+
+// SELECTOR ENGINE
+//
+// A non-blocking connection engine built on a single java.nio Selector. The
+// engine accepts, reads, and writes any number of sockets at once and only
+// hands a request to its handler once its whole frame has arrived. A slow or
+// half-open socket therefore only costs a registered key and never blocks
+// the other connections. See Engine for the protocol.
+public final class SelectorEngine implements Engine {
+
+  private final static Logger.Log LOG = Logger.newLog(SelectorEngine.class);
+
+  // Connections that have not made progress for this long are dropped so
+  // that half-open sockets do not collect forever.
+  private static final long IDLE_TIMEOUT_MS = 30000;  // 30 seconds
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  // Requests are small, so a frame longer than this is a broken or hostile
+  // client and is rejected as soon as its header arrives, before any of it is
+  // buffered.
+  private static final int MAX_REQUEST_SIZE = 4 * 1024 * 1024;  // 4 MB
+
+  // A multiplexed client that stops reading would otherwise have responses
+  // and pushes pile up for it without limit. Once this much is waiting to be
+  // written the connection is dropped. A single response is always queued,
+  // however large, so long as nothing is waiting in front of it.
+  private static final long MAX_QUEUED_OUTPUT = 16 * 1024 * 1024;  // 16 MB
+
+  private static final class Session {
+
+    public final SocketChannel channel;
+    public final Queue<ByteBuffer> output = new ArrayDeque<>();
+    public long queued = 0;
+
+    // Run when the connection closes (see Reply.whenClosed).
+    public final Collection<Runnable> onClose = new ArrayList<>();
+
+    public byte[] input = new byte[256];
+    public int inputSize = 0;
+
+    public boolean multiplexed;
+    public boolean closeWhenWritten;
+    public boolean pending;
+    public long lastActive = System.currentTimeMillis();
+
+    public Session(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    public void append(ByteBuffer bytes) {
+      final int needed = inputSize + bytes.remaining();
+      if (needed > input.length) {
+        input = Arrays.copyOf(input, Math.max(needed, input.length * 2));
+      }
+      final int count = bytes.remaining();
+      bytes.get(input, inputSize, count);
+      inputSize += count;
+    }
+
+    public void consume(int count) {
+      System.arraycopy(input, count, input, 0, inputSize - count);
+      inputSize -= count;
+    }
+  }
+
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final Handler handler;
+
+  // Work that other threads need done on the selector thread. The selector
+  // owns all session state so replies are funneled through here.
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+  private volatile boolean running = true;
+
+  // The thread in "run", if any, and a latch that opens once it has closed
+  // every connection on its way out.
+  private volatile Thread loop;
+  private final CountDownLatch stopped = new CountDownLatch(1);
+
+  public SelectorEngine(int port, Handler handler) throws IOException {
+    this.handler = handler;
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    this.serverChannel.configureBlocking(false);
+    this.serverChannel.bind(new InetSocketAddress(port));
+    this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  @Override
+  public void run() {
+
+    loop = Thread.currentThread();
+
+    try {
+      serve();
+    } finally {
+      closeAll();
+      stopped.countDown();
+    }
+  }
+
+  private void serve() {
+
+    while (running) {
+
+      try {
+        selector.select(IDLE_TIMEOUT_MS / 2);
+      } catch (IOException ex) {
+        LOG.error(ex, "Selector failed.");
+        break;
+      }
+
+      for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+        task.run();
+      }
+
+      final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+      while (keys.hasNext()) {
+
+        final SelectionKey key = keys.next();
+        keys.remove();
+
+        try {
+          if (key.isValid() && key.isAcceptable()) {
+            onAccept();
+          }
+          if (key.isValid() && key.isReadable()) {
+            onRead(key);
+          }
+          if (key.isValid() && key.isWritable()) {
+            onWrite(key);
+          }
+        } catch (IOException ex) {
+          LOG.error(ex, "Exception while handling connection.");
+          close(key);
+        }
+      }
+
+      closeIdle();
+    }
+  }
+
+  // Stop accepting, close every connection and the selector, and wait for
+  // "run" to return. The selector thread owns the keys, so when it is running
+  // it is woken to do the closing itself.
+  @Override
+  public void close() throws IOException {
+
+    running = false;
+    serverChannel.close();
+
+    final Thread thread = loop;
+
+    if (thread == null) {
+      closeAll();
+      return;
+    }
+
+    selector.wakeup();
+
+    if (thread != Thread.currentThread()) {
+      try {
+        stopped.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private synchronized void closeAll() {
+
+    if (!selector.isOpen()) {
+      return;
+    }
+
+    for (final SelectionKey key : selector.keys()) {
+      close(key);
+    }
+
+    try {
+      selector.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while closing selector.");
+    }
+  }
+
+  private void onAccept() throws IOException {
+
+    final SocketChannel channel = serverChannel.accept();
+
+    if (channel != null) {
+      LOG.info("Connection established.");
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ, new Session(channel));
+    }
+  }
+
+  private void onRead(SelectionKey key) throws IOException {
+
+    final Session session = (Session) key.attachment();
+
+    readBuffer.clear();
+    final int read = session.channel.read(readBuffer);
+
+    if (read < 0) {
+      // The client went away before we could answer it.
+      close(key);
+      return;
+    }
+
+    readBuffer.flip();
+    session.append(readBuffer);
+
+    session.lastActive = System.currentTimeMillis();
+
+    if (session.multiplexed) {
+      dispatchFrames(key, session);
+    } else if (!session.pending) {
+      dispatch(key, session);
+    }
+  }
+
+  private void onWrite(SelectionKey key) throws IOException {
+
+    final Session session = (Session) key.attachment();
+
+    // Hand everything that is queued to the socket in one gathering write.
+    // Whatever does not fit stays queued until the socket can take more.
+    session.queued -= session.channel.write(session.output.toArray(new ByteBuffer[session.output.size()]));
+
+    while (!session.output.isEmpty() && !session.output.peek().hasRemaining()) {
+      session.output.remove();
+    }
+
+    session.lastActive = System.currentTimeMillis();
+
+    if (session.output.isEmpty()) {
+      if (session.closeWhenWritten) {
+        LOG.info("Connection accepted");
+        close(key);
+      } else {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+  }
+
+  private void dispatch(final SelectionKey key, final Session session) {
+
+    final byte[] request = nextFrame(key, session);
+
+    if (request == null) {
+      return;
+    }
+
+    session.pending = true;
+
+    handler.onRequest(request, new Reply() {
+
+      @Override
+      public void send(final ByteBuffer response) {
+        submit(new Runnable() {
+          @Override
+          public void run() {
+            session.closeWhenWritten = true;
+            queue(key, session, header(response), response);
+          }
+        });
+      }
+
+      @Override
+      public void multiplex(final ByteBuffer response) {
+        submit(new Runnable() {
+          @Override
+          public void run() {
+            LOG.info("Connection multiplexed.");
+            session.multiplexed = true;
+            session.pending = false;
+            try {
+              session.channel.socket().setKeepAlive(true);
+            } catch (IOException ex) {
+              LOG.warning("Failed to enable keep alive (%s)", ex.toString());
+            }
+            queue(key, session, header(response), response);
+
+            // The client may not have waited for the upgrade to be confirmed
+            // before sending its first frames.
+            if (key.isValid()) {
+              dispatchFrames(key, session);
+            }
+          }
+        });
+      }
+
+      @Override
+      public boolean canPush() {
+        return false;
+      }
+
+      @Override
+      public void whenClosed(Runnable action) {
+        action.run();
+      }
+    });
+  }
+
+  private void dispatchFrames(final SelectionKey key, final Session session) {
+
+    for (byte[] frame = nextFrame(key, session); frame != null; frame = nextFrame(key, session)) {
+
+      if (frame.length < REQUEST_ID_SIZE) {
+        LOG.error("Frame of %d bytes has no request id, dropping connection.", frame.length);
+        close(key);
+        return;
+      }
+
+      final int id = Frames.getInt(frame, 0);
+      final byte[] request = Arrays.copyOfRange(frame, REQUEST_ID_SIZE, frame.length);
+
+      handler.onRequest(request, new Reply() {
+
+        @Override
+        public void send(final ByteBuffer response) {
+          final ByteBuffer header = ByteBuffer.allocate(Frames.HEADER_SIZE + REQUEST_ID_SIZE);
+          header.putInt(REQUEST_ID_SIZE + response.remaining()).putInt(id);
+          header.flip();
+          submit(new Runnable() {
+            @Override
+            public void run() {
+              queue(key, session, header, response);
+            }
+          });
+        }
+
+        @Override
+        public void multiplex(ByteBuffer response) {
+          send(ByteBuffer.allocate(0));
+        }
+
+        @Override
+        public boolean canPush() {
+          return key.isValid();
+        }
+
+        @Override
+        public void whenClosed(final Runnable action) {
+          submit(new Runnable() {
+            @Override
+            public void run() {
+              if (key.isValid()) {
+                session.onClose.add(action);
+              } else {
+                action.run();
+              }
+            }
+          });
+        }
+      });
+    }
+  }
+
+  // Take the next whole frame out of the session's input. Returns null if the
+  // frame has not fully arrived yet or if the connection had to be dropped.
+  private static byte[] nextFrame(SelectionKey key, Session session) {
+
+    if (!key.isValid() || session.inputSize < Frames.HEADER_SIZE) {
+      return null;
+    }
+
+    final int length = Frames.getInt(session.input, 0);
+
+    if (length < 0 || length > MAX_REQUEST_SIZE) {
+      LOG.error("Bad frame length %d, dropping connection.", length);
+      close(key);
+      return null;
+    }
+
+    if (session.inputSize < Frames.HEADER_SIZE + length) {
+      // Wait for the rest of the frame.
+      return null;
+    }
+
+    final byte[] frame = Arrays.copyOfRange(session.input,
+                                            Frames.HEADER_SIZE,
+                                            Frames.HEADER_SIZE + length);
+    session.consume(Frames.HEADER_SIZE + length);
+    return frame;
+  }
+
+  // The frame header is queued as its own buffer in front of the response so
+  // that the response never has to be copied to make room for it.
+  private static ByteBuffer header(ByteBuffer response) {
+    final ByteBuffer header = ByteBuffer.allocate(Frames.HEADER_SIZE);
+    header.putInt(response.remaining());
+    header.flip();
+    return header;
+  }
+
+  private static void queue(SelectionKey key, Session session, ByteBuffer header, ByteBuffer body) {
+    if (key.isValid()) {
+      final long size = header.remaining() + body.remaining();
+      if (!session.output.isEmpty() && session.queued + size > MAX_QUEUED_OUTPUT) {
+        LOG.error("%d bytes of output are waiting for a client that is not reading, dropping connection.",
+                  session.queued);
+        close(key);
+        return;
+      }
+      session.queued += size;
+      session.output.add(header);
+      session.output.add(body);
+      // Keep reading from multiplexed connections while writing to them, as
+      // the client can have more requests on their way.
+      key.interestOps(session.multiplexed ?
+                      SelectionKey.OP_READ | SelectionKey.OP_WRITE :
+                      SelectionKey.OP_WRITE);
+    }
+  }
+
+  private void submit(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  private void closeIdle() {
+
+    final long now = System.currentTimeMillis();
+
+    for (final SelectionKey key : selector.keys()) {
+      final Object attachment = key.attachment();
+
+      // Multiplexed connections are expected to sit idle between requests.
+      // They rely on keep alive to notice that the other side has gone.
+      if (attachment instanceof Session &&
+          !((Session) attachment).multiplexed &&
+          now - ((Session) attachment).lastActive > IDLE_TIMEOUT_MS) {
+        LOG.info("Closing idle connection.");
+        close(key);
+      }
+    }
+  }
+
+  private static void close(SelectionKey key) {
+
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while closing connection.");
+    }
+
+    if (key.attachment() instanceof Session) {
+      final Collection<Runnable> onClose = ((Session) key.attachment()).onClose;
+      for (final Runnable action : onClose) {
+        action.run();
+      }
+      onClose.clear();
+    }
+  }
+}
@@ -15,31 +15,45 @@
 
 package codeu.chat.server;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.Changes;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Message;
+import codeu.chat.common.MessagePosition;
 import codeu.chat.common.NetworkCode;
+import codeu.chat.common.NewMessage;
+import codeu.chat.common.Page;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
 import codeu.chat.common.User;
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
+import codeu.chat.util.Compact;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
-import codeu.chat.util.connections.Connection;
 import codeu.chat.common.Access;
 
 import codeu.chat.server.FileWriter;
@@ -58,15 +72,63 @@ public final class Server {
     void onMessage(InputStream in, OutputStream out) throws IOException;
   }
 
+  // BUFFER COMMAND
+  //
+  // A command that returns its whole response already encoded. The bulk reads
+  // use this to write model objects straight into a buffer, which is direct
+  // when large, rather than going through an output stream and a copy. Only
+  // fixed-width requests use these as the buffer serializers do not speak the
+  // compact encoding.
+  private interface BufferCommand {
+    ByteBuffer onMessage(InputStream in) throws IOException;
+  }
+
+  // LOOKUP
+  //
+  // Reads a bulk read's arguments and finds the values to send back.
+  private interface Lookup<T> {
+    Collection<T> find(InputStream in) throws IOException;
+  }
+
   private static final ServerInfo info = new ServerInfo();
 
   private static final Logger.Log LOG = Logger.newLog(Server.class);
 
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
 
+  // How often the server checks whether a snapshot is due.
+  private static final int SNAPSHOT_CHECK_MS = 10000;  // 10 seconds
+
+  // Paginated reads never return more than this many entries, whatever size
+  // the client asks for.
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  // Commands that only read from the model. These are run in parallel on the
+  // dispatcher's read lane. Every other command goes through the write lane,
+  // including the status updates, which record when the owner last asked.
+  private static final Set<Integer> READ_ONLY_COMMANDS = new HashSet<>(Arrays.asList(
+      NetworkCode.GET_USERS_REQUEST,
+      NetworkCode.GET_ALL_CONVERSATIONS_REQUEST,
+      NetworkCode.GET_USERS_PAGE_REQUEST,
+      NetworkCode.GET_CONVERSATIONS_PAGE_REQUEST,
+      NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST,
+      NetworkCode.GET_MESSAGES_BY_ID_REQUEST,
+      NetworkCode.GET_CONVERSATION_MESSAGES_REQUEST,
+      NetworkCode.GET_CHANGES_REQUEST,
+      NetworkCode.SEARCH_MESSAGES_REQUEST,
+      NetworkCode.GET_USERS_BY_PREFIX_REQUEST,
+      NetworkCode.GET_CONVERSATIONS_BY_PREFIX_REQUEST,
+      NetworkCode.SERVER_INFO_REQUEST,
+      // Despite its name, joining only checks that the user already has
+      // access to the conversation. Nothing is changed.
+      NetworkCode.JOIN_CONVERSATION_REQUEST,
+      NetworkCode.GET_ACCESS_REQUEST));
+
   private final Timeline timeline = new Timeline();
+  private final Dispatcher dispatcher;
 
   private final Map<Integer, Command> commands = new HashMap<>();
+  private final Map<Integer, BufferCommand> bufferCommands = new HashMap<>();
 
   private final Uuid id;
   private final Secret secret;
@@ -74,22 +136,70 @@ public final class Server {
   private final Model model = new Model();
   private final View view = new View(model);
   private final Controller controller;
+  private final FileWriter fileWriter;
+
+  private final Subscriptions subscriptions = new Subscriptions();
 
   private final Relay relay;
   private Uuid lastSeen = Uuid.NULL;
 
   public Server(final Uuid id, final Secret secret, final Relay relay) {
+    this(id, secret, relay, Runtime.getRuntime().availableProcessors());
+  }
+
+  public Server(final Uuid id, final Secret secret, final Relay relay, int workers) {
+    this(id,
+         secret,
+         relay,
+         workers,
+         new File("."),
+         FileWriter.DEFAULT_SEGMENT_SIZE,
+         Durability.ASYNC,
+         FileWriter.DEFAULT_FORCE_INTERVAL_MS,
+         Snapshotter.DEFAULT_EVERY);
+  }
+
+  // The transaction log is kept in "logDirectory", which is created if it
+  // does not exist yet. See FileWriter and LogSegment. A snapshot of the
+  // model is taken, and the log compacted, every "snapshotEvery" records, or
+  // never if it is zero. See Snapshotter.
+  public Server(final Uuid id,
+                final Secret secret,
+                final Relay relay,
+                int workers,
+                File logDirectory,
+                long segmentSize,
+                Durability durability,
+                long forceIntervalMs,
+                long snapshotEvery) {
 
     this.id = id;
     this.secret = secret;
+    this.dispatcher = new Dispatcher(workers);
 
-    BlockingQueue<Writeable> blockq = new LinkedBlockingQueue<Writeable>();
-    FileWriter fileWriter = new FileWriter(blockq);
+    BlockingQueue<FileWriter.Entry> blockq = new LinkedBlockingQueue<FileWriter.Entry>();
+    logDirectory.mkdirs();
+    this.fileWriter = new FileWriter(blockq,
+                                     logDirectory,
+                                     segmentSize,
+                                     durability,
+                                     forceIntervalMs);
 
     this.relay = relay;
 
     // constructs and starts up the controller loading and writing thread
-    this.controller = new Controller(id, model, fileWriter);
+    this.controller = new Controller(id, model, fileWriter, subscriptions);
+
+    if (snapshotEvery > 0) {
+      final Snapshotter snapshotter = new Snapshotter(dispatcher, model, fileWriter, snapshotEvery);
+      this.timeline.scheduleIn(SNAPSHOT_CHECK_MS, new Runnable() {
+        @Override
+        public void run() {
+          snapshotter.check();
+          timeline.scheduleIn(SNAPSHOT_CHECK_MS, this);
+        }
+      });
+    }
 
     // New Message - A client wants to add a new message to the back end.
     this.commands.put(NetworkCode.NEW_MESSAGE_REQUEST, new Command(){
@@ -105,10 +215,49 @@ public final class Server {
         Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
         Serializers.nullable(Message.SERIALIZER).write(out, message);
 
-        timeline.scheduleNow(createSendToRelayEvent(
-            author,
-            conversation,
-            message.id));
+        if (message != null) {
+          timeline.scheduleNow(createSendToRelayEvent(
+              view.findUser(author),
+              view.findConversation(conversation),
+              message));
+        }
+      }
+    });
+
+    // New Messages Batch - A client wants to add many messages at once. They are
+    // all applied by one command, logged with one write, and sent to the relay
+    // by one event.
+    this.commands.put(NetworkCode.NEW_MESSAGES_BATCH_REQUEST, new Command(){
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Collection<NewMessage> requested = Serializers.collection(NewMessage.SERIALIZER).read(in);
+
+        final List<Message> messages = controller.newMessages(requested);
+
+        Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGES_BATCH_RESPONSE);
+        Serializers.collection(Serializers.nullable(Message.SERIALIZER)).write(out, messages);
+
+        final List<Runnable> sends = new ArrayList<>();
+        for (final Message message : messages) {
+          if (message != null) {
+            sends.add(createSendToRelayEvent(
+                view.findUser(message.author),
+                view.findConversation(message.conversationName),
+                message));
+          }
+        }
+
+        if (!sends.isEmpty()) {
+          timeline.scheduleNow(new Runnable() {
+            @Override
+            public void run() {
+              for (final Runnable send : sends) {
+                send.run();
+              }
+            }
+          });
+        }
       }
     });
 
@@ -140,26 +289,53 @@ public final class Server {
     });
 
     // Get Users - A client wants to get all the users from the back end.
-    this.commands.put(NetworkCode.GET_USERS_REQUEST, new Command(){
+    addBulkRead(NetworkCode.GET_USERS_REQUEST,
+                NetworkCode.GET_USERS_RESPONSE,
+                User.SERIALIZER,
+                User.BUFFER_SERIALIZER,
+                new Lookup<User>() {
+      @Override
+      public Collection<User> find(InputStream in) {
+        return view.getUsers();
+      }
+    });
+
+    // Get Conversations - A client wants to get all the conversations from the back end.
+    addBulkRead(NetworkCode.GET_ALL_CONVERSATIONS_REQUEST,
+                NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE,
+                ConversationHeader.SERIALIZER,
+                ConversationHeader.BUFFER_SERIALIZER,
+                new Lookup<ConversationHeader>() {
+      @Override
+      public Collection<ConversationHeader> find(InputStream in) {
+        return view.getConversations();
+      }
+    });
+
+    // Get Users Page - A client wants the next page of users, starting at the
+    //                  id the previous page said was next.
+    this.commands.put(NetworkCode.GET_USERS_PAGE_REQUEST, new Command() {
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
-        final Collection<User> users = view.getUsers();
+        final Uuid start = Uuid.SERIALIZER.read(in);
+        final int limit = pageSize(Serializers.INTEGER.read(in));
 
-        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_RESPONSE);
-        Serializers.collection(User.SERIALIZER).write(out, users);
+        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_PAGE_RESPONSE);
+        Page.serializer(User.SERIALIZER).write(out, view.getUsers(start, limit));
       }
     });
 
-    // Get Conversations - A client wants to get all the conversations from the back end.
-    this.commands.put(NetworkCode.GET_ALL_CONVERSATIONS_REQUEST, new Command(){
+    // Get Conversations Page - A client wants the next page of conversation summaries.
+    this.commands.put(NetworkCode.GET_CONVERSATIONS_PAGE_REQUEST, new Command() {
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
-        final Collection<ConversationHeader> conversations = view.getConversations();
+        final Uuid start = Uuid.SERIALIZER.read(in);
+        final int limit = pageSize(Serializers.INTEGER.read(in));
 
-        Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
-        Serializers.collection(ConversationHeader.SERIALIZER).write(out, conversations);
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_PAGE_RESPONSE);
+        Page.serializer(ConversationHeader.SERIALIZER).write(out, view.getConversations(start, limit));
       }
     });
 
@@ -167,28 +343,100 @@ public final class Server {
     //                           the back end. Normally this will be done after calling
     //                           Get Conversations to get all the headers and now the client
     //                           wants to get a subset of the payloads.
-    this.commands.put(NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST, new Command(){
+    addBulkRead(NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST,
+                NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE,
+                ConversationPayload.SERIALIZER,
+                ConversationPayload.BUFFER_SERIALIZER,
+                new Lookup<ConversationPayload>() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Collection<ConversationPayload> find(InputStream in) throws IOException {
+        final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+        return view.getConversationPayloads(ids);
+      }
+    });
 
+    // Get Messages By Id - A client wants to get a subset of the messages from the back end.
+    addBulkRead(NetworkCode.GET_MESSAGES_BY_ID_REQUEST,
+                NetworkCode.GET_MESSAGES_BY_ID_RESPONSE,
+                Message.SERIALIZER,
+                Message.BUFFER_SERIALIZER,
+                new Lookup<Message>() {
+      @Override
+      public Collection<Message> find(InputStream in) throws IOException {
         final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
-        final Collection<ConversationPayload> conversations = view.getConversationPayloads(ids);
+        return view.getMessages(ids);
+      }
+    });
 
-        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
-        Serializers.collection(ConversationPayload.SERIALIZER).write(out, conversations);
+    // Get Conversation Messages - A client wants a window of a conversation's messages
+    //                             in one request rather than following the chain
+    //                             one message at a time.
+    addBulkRead(NetworkCode.GET_CONVERSATION_MESSAGES_REQUEST,
+                NetworkCode.GET_CONVERSATION_MESSAGES_RESPONSE,
+                Message.SERIALIZER,
+                Message.BUFFER_SERIALIZER,
+                new Lookup<Message>() {
+      @Override
+      public Collection<Message> find(InputStream in) throws IOException {
+        final Uuid conversation = Uuid.SERIALIZER.read(in);
+        final MessagePosition position = MessagePosition.SERIALIZER.read(in);
+        final Uuid after = Uuid.SERIALIZER.read(in);
+        final int limit = pageSize(Serializers.INTEGER.read(in));
+        return view.getConversationMessages(conversation, position, after, limit);
       }
     });
 
-    // Get Messages By Id - A client wants to get a subset of the messages from the back end.
-    this.commands.put(NetworkCode.GET_MESSAGES_BY_ID_REQUEST, new Command(){
+    // Get Changes - A client wants everything that changed since it last looked.
+    this.commands.put(NetworkCode.GET_CHANGES_REQUEST, new Command() {
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
-        final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
-        final Collection<Message> messages = view.getMessages(ids);
+        final long since = Serializers.LONG.read(in);
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_CHANGES_RESPONSE);
+        Changes.SERIALIZER.write(out, view.getChanges(since));
+      }
+    });
+
+    // Get Users By Prefix - A client wants the users whose names start with some text.
+    this.commands.put(NetworkCode.GET_USERS_BY_PREFIX_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final String prefix = Serializers.STRING.read(in);
+        final int limit = pageSize(Serializers.INTEGER.read(in));
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_PREFIX_RESPONSE);
+        Serializers.collection(User.SERIALIZER).write(out, view.getUsersByPrefix(prefix, limit));
+      }
+    });
+
+    // Get Conversations By Prefix - A client wants the conversations whose titles start with some text.
+    this.commands.put(NetworkCode.GET_CONVERSATIONS_BY_PREFIX_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final String prefix = Serializers.STRING.read(in);
+        final int limit = pageSize(Serializers.INTEGER.read(in));
 
-        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
-        Serializers.collection(Message.SERIALIZER).write(out, messages);
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_PREFIX_RESPONSE);
+        Serializers.collection(ConversationHeader.SERIALIZER).write(out, view.getConversationsByPrefix(prefix, limit));
+      }
+    });
+
+    // Search Messages - A client wants the newest messages containing some words.
+    this.commands.put(NetworkCode.SEARCH_MESSAGES_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final String query = Serializers.STRING.read(in);
+        final Uuid conversation = Uuid.SERIALIZER.read(in);
+        final Uuid author = Uuid.SERIALIZER.read(in);
+        final int limit = pageSize(Serializers.INTEGER.read(in));
+
+        Serializers.INTEGER.write(out, NetworkCode.SEARCH_MESSAGES_RESPONSE);
+        Serializers.collection(Message.SERIALIZER).write(out,
+            view.searchMessages(query, conversation, author, limit));
       }
     });
 
@@ -341,7 +589,12 @@ public final class Server {
           LOG.info("Reading update from relay...");
 
           for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
+            dispatcher.write(new Runnable() {
+              @Override
+              public void run() {
+                onBundle(bundle);
+              }
+            });
             lastSeen = bundle.id();
           }
 
@@ -356,41 +609,320 @@ public final class Server {
     });
   }
 
-  public void handleConnection(final Connection connection){
-    timeline.scheduleNow(new Runnable() {
+  // HANDLE REQUEST
+  //
+  // Handle a request that was read by a connection engine. The engine only
+  // hands over whole frames, so a request that runs out of bytes part way
+  // through its arguments is malformed and gets an empty response.
+  public void handleRequest(final byte[] request, final Engine.Reply reply) {
+
+    // Fixed-width requests start with a four byte type, which always starts
+    // with a zero byte. Anything else is the protocol version.
+    final int version = request.length > 0 && request[0] != 0 ?
+        request[0] :
+        NetworkCode.PROTOCOL_FIXED_WIDTH;
+
+    if (version != NetworkCode.PROTOCOL_FIXED_WIDTH && version != NetworkCode.PROTOCOL_COMPACT) {
+      LOG.warning("Request in unknown protocol version %d.", version);
+      reply.send(ByteBuffer.allocate(0));
+      return;
+    }
+
+    final boolean compact = version == NetworkCode.PROTOCOL_COMPACT;
+    final InputStream in = compact ?
+        new Compact.Input(new RequestStream(request, 1)) :
+        new RequestStream(request, 0);
+    final int type;
+
+    try {
+      type = Serializers.INTEGER.read(in);
+    } catch (IOException ex) {
+      LOG.warning("Request too short to hold a type.");
+      reply.send(ByteBuffer.allocate(0));
+      return;
+    }
+
+    if (type == NetworkCode.MULTIPLEX_REQUEST) {
+      multiplex(in, reply);
+      return;
+    }
+
+    if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+      subscribe(in, reply, compact);
+      return;
+    }
+
+    if (type == NetworkCode.UNSUBSCRIBE_REQUEST) {
+      unsubscribe(in, reply, compact);
+      return;
+    }
+
+    final Runnable work = new Runnable() {
       @Override
       public void run() {
-        try {
 
-          LOG.info("Handling connection...");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream out = compact ? new Compact.Output(bytes) : bytes;
 
-          final int type = Serializers.INTEGER.read(connection.in());
+        try {
+
+          final BufferCommand bufferCommand = compact ? null : bufferCommands.get(type);
           final Command command = commands.get(type);
 
+          if (bufferCommand != null) {
+            reply.send(bufferCommand.onMessage(in));
+            return;
+          }
+
           if (command == null) {
             // The message type cannot be handled so return a dummy message.
-            Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
+            Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
             LOG.info("Connection rejected");
           } else {
-            command.onMessage(connection.in(), connection.out());
-            LOG.info("Connection accepted");
+            command.onMessage(in, out);
           }
 
+          final ByteBuffer response = ByteBuffer.wrap(bytes.toByteArray());
+
+          if (READ_ONLY_COMMANDS.contains(type)) {
+            reply.send(response);
+          } else {
+            // Whatever the command changed has been queued for the log. Hold
+            // the response back until the log is as durable as the server was
+            // asked to make it. If the log could not be written, the client
+            // gets the same empty response as for any other failed request,
+            // as the change may not survive a restart.
+            fileWriter.whenDurable(new Runnable() {
+              @Override
+              public void run() {
+                reply.send(response);
+              }
+            }, new Runnable() {
+              @Override
+              public void run() {
+                LOG.warning("Request %d was not made durable.", type);
+                reply.send(ByteBuffer.allocate(0));
+              }
+            });
+          }
+
+        } catch (EOFException ex) {
+
+          LOG.warning("Request %d ended before all of its arguments.", type);
+          reply.send(ByteBuffer.allocate(0));
+
         } catch (Exception ex) {
 
-          LOG.error(ex, "Exception while handling connection.");
+          LOG.error(ex, "Exception while handling request.");
+          reply.send(ByteBuffer.allocate(0));
 
         }
+      }
+    };
+
+    dispatch(dispatcher, type, work);
+  }
+
+  // Run the work for a request on the lane its command needs.
+  static void dispatch(Dispatcher dispatcher, int type, Runnable work) {
+    if (READ_ONLY_COMMANDS.contains(type)) {
+      dispatcher.read(work);
+    } else {
+      dispatcher.write(work);
+    }
+  }
+
+  // Register a bulk read as both a buffer command, for fixed-width requests,
+  // and a stream command, for everything else.
+  private <T> void addBulkRead(int request,
+                               final int response,
+                               final Serializer<T> serializer,
+                               final BufferSerializer<T> bufferSerializer,
+                               final Lookup<T> lookup) {
+
+    commands.put(request, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+        final Collection<T> values = lookup.find(in);
+        Serializers.INTEGER.write(out, response);
+        Serializers.collection(serializer).write(out, values);
+      }
+    });
+
+    bufferCommands.put(request, new BufferCommand() {
+      @Override
+      public ByteBuffer onMessage(InputStream in) throws IOException {
+        return encodeResponse(response,
+                              BufferSerializers.collection(bufferSerializer),
+                              lookup.find(in));
+      }
+    });
+  }
+
+  private static int pageSize(int requested) {
+    return Math.max(1, Math.min(requested, MAX_PAGE_SIZE));
+  }
+
+  // The client wants to keep this connection open and send multiplexed
+  // requests over it. Newer clients follow the request with the newest
+  // protocol version they speak. Older clients do not, and expect a response
+  // of exactly four bytes.
+  private static void multiplex(InputStream in, Engine.Reply reply) {
+
+    int version = NetworkCode.PROTOCOL_FIXED_WIDTH;
+
+    try {
+      if (in.available() > 0) {
+        version = Math.min(Serializers.INTEGER.read(in), NetworkCode.LATEST_PROTOCOL);
+      }
+    } catch (IOException ex) {
+      LOG.warning("Ignoring malformed protocol version (%s).", ex.toString());
+    }
+
+    final boolean versioned = version > NetworkCode.PROTOCOL_FIXED_WIDTH;
+    final ByteBuffer response = ByteBuffer.allocate(versioned ? 8 : 4);
+
+    response.putInt(NetworkCode.MULTIPLEX_RESPONSE);
+    if (versioned) {
+      response.putInt(version);
+    }
+    response.flip();
+
+    reply.multiplex(response);
+  }
+
+  // The client wants new messages in some conversations pushed to it. This
+  // needs the reply itself rather than an output stream, so it does not go
+  // through the lanes. Subscriptions are thread safe and do not touch the
+  // model.
+  private void subscribe(InputStream in, Engine.Reply reply, boolean compact) {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = compact ? new Compact.Output(bytes) : bytes;
+
+    try {
+
+      final Collection<Uuid> conversations = Serializers.collection(Uuid.SERIALIZER).read(in);
+
+      // Only a multiplexed connection stays open to carry the pushes.
+      final boolean subscribed = reply.canPush();
+
+      Serializers.INTEGER.write(out, NetworkCode.SUBSCRIBE_RESPONSE);
+      Serializers.BOOLEAN.write(out, subscribed);
+
+      final Uuid id = subscriptions.newId();
+      if (subscribed) {
+        Uuid.SERIALIZER.write(out, id);
+      }
+
+      // The response goes out before anything can be pushed, so the client
+      // always sees it first.
+      reply.send(ByteBuffer.wrap(bytes.toByteArray()));
+
+      if (subscribed) {
+        subscriptions.subscribe(id, conversations, reply, compact);
+      } else {
+        LOG.warning("Subscribe request on a connection that cannot carry pushes.");
+      }
+
+    } catch (IOException ex) {
+      LOG.warning("Malformed subscribe request (%s).", ex.toString());
+      reply.send(ByteBuffer.allocate(0));
+    }
+  }
+
+  // The client is done with a subscription. Like subscribing, this does not
+  // go through the lanes.
+  private void unsubscribe(InputStream in, final Engine.Reply reply, final boolean compact) {
+
+    final Uuid id;
+
+    try {
+      id = Uuid.SERIALIZER.read(in);
+    } catch (IOException ex) {
+      LOG.warning("Malformed unsubscribe request (%s).", ex.toString());
+      reply.send(ByteBuffer.allocate(0));
+      return;
+    }
+
+    subscriptions.unsubscribe(id, new Subscriptions.Callback() {
+      @Override
+      public void done(boolean found) {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream out = compact ? new Compact.Output(bytes) : bytes;
 
         try {
-          connection.close();
-        } catch (Exception ex) {
-          LOG.error(ex, "Exception while closing connection.");
+          Serializers.INTEGER.write(out, NetworkCode.UNSUBSCRIBE_RESPONSE);
+          Serializers.BOOLEAN.write(out, found);
+          reply.send(ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IOException ex) {
+          LOG.error(ex, "Failed to encode unsubscribe response.");
+          reply.send(ByteBuffer.allocate(0));
         }
       }
     });
   }
 
+  // Encode a response code followed by "value" into one buffer, which is
+  // handed to the engine as is.
+  private static <T> ByteBuffer encodeResponse(int type,
+                                               BufferSerializer<T> serializer,
+                                               T value) throws IOException {
+
+    final ByteBuffer response = BufferSerializers.allocate(
+        BufferSerializers.INTEGER.size(type) + serializer.size(value));
+
+    BufferSerializers.INTEGER.write(response, type);
+    serializer.write(response, value);
+    response.flip();
+
+    return response;
+  }
+
+  // REQUEST STREAM
+  //
+  // An input stream over a received request. Unlike a normal byte array
+  // stream, reading past the end throws rather than returning -1 so that a
+  // truncated request fails instead of being read as garbage.
+  private static final class RequestStream extends InputStream {
+
+    private final byte[] bytes;
+    private int position;
+
+    public RequestStream(byte[] bytes, int start) {
+      this.bytes = bytes;
+      this.position = start;
+    }
+
+    @Override
+    public int available() {
+      return bytes.length - position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (position >= bytes.length) {
+        throw new EOFException("Request is incomplete");
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (position >= bytes.length) {
+        throw new EOFException("Request is incomplete");
+      }
+      final int count = Math.min(length, bytes.length - position);
+      System.arraycopy(bytes, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+  }
+
   private void onBundle(Relay.Bundle bundle) {
 
     final Relay.Bundle.Component relayUser = bundle.user();
@@ -427,15 +959,14 @@ public final class Server {
     }
   }
 
-  private Runnable createSendToRelayEvent(final Uuid userId,
-                                          final Uuid conversationId,
-                                          final Uuid messageId) {
+  // The user, conversation, and message are looked up by the caller, while it
+  // still has the model, so that the relay write can happen off the lanes.
+  private Runnable createSendToRelayEvent(final User user,
+                                          final ConversationHeader conversation,
+                                          final Message message) {
     return new Runnable() {
       @Override
       public void run() {
-        final User user = view.findUser(userId);
-        final ConversationHeader conversation = view.findConversation(conversationId);
-        final Message message = view.findMessage(messageId);
         relay.write(id,
                     secret,
                     relay.pack(user.id, user.name, user.creation),
@@ -0,0 +1,461 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import codeu.chat.common.Access;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Compact;
+import codeu.chat.util.Crc32c;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// SNAPSHOT
+//
+// An image of the whole model as it was once a number of records had been
+// written to the log, that number being the snapshot's sequence number. A
+// server with a snapshot loads it and then replays only the records from its
+// sequence number on, and the segments before it can be deleted (see
+// Snapshotter).
+//
+// Taking a snapshot has two steps. capture() runs while the model cannot
+// change, holding the dispatcher's read lock so that reads carry on but
+// writes wait. It only copies what is changed in place later: each user's
+// access, and each conversation's first and last message and how many
+// messages it has. The stores' iterators see the stores as they were when
+// the iterators were made, so the rest is read afterwards by write(), while
+// the server carries on.
+//
+// Snapshot files are written under a temporary name, forced, and then
+// renamed, so a snapshot file is always complete. The file is:
+//
+//   MAGIC     4 bytes  "CCSN"
+//   VERSION   4 bytes  the format of what follows
+//   SEQUENCE  8 bytes  how many log records the snapshot covers
+//   MODEL     8 bytes  the model's version
+//
+// then, compact encoded, every user, every conversation, and every message
+// with its position in its conversation, each preceded by true and each list
+// ended by false, and last of all the CRC-32C of everything before it (see
+// Crc32c).
+//
+// Messages are in the order of their creation time, which is the order the
+// model's time store takes them in without copying. Their positions put each
+// conversation back in order without looking any message up by id.
+public final class Snapshot {
+
+  public static final int MAGIC = 0x4343534E;  // "CCSN"
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 24;
+  public static final int CHECKSUM_SIZE = 4;
+
+  private static final String PREFIX = "snapshot-";
+  private static final String SUFFIX = ".snap";
+
+  // snapshots are written under their name with this added until they are
+  // complete
+  public static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  public final File file;
+  public final long sequence;
+
+  private Snapshot(File file, long sequence) {
+    this.file = file;
+    this.sequence = sequence;
+  }
+
+  public static Snapshot create(File directory, long sequence) {
+    return new Snapshot(new File(directory, String.format("%s%020d%s", PREFIX, sequence, SUFFIX)), sequence);
+  }
+
+  // LIST
+  //
+  // All the snapshots in "directory", oldest first. Snapshots still being
+  // written, and anything else, are left out.
+  public static List<Snapshot> list(File directory) {
+
+    final File[] files = directory.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return parse(file.getName()) >= 0;
+      }
+    });
+
+    if (files == null) {
+      return Collections.emptyList();
+    }
+
+    final List<Snapshot> snapshots = new ArrayList<>();
+    for (final File file : files) {
+      snapshots.add(new Snapshot(file, parse(file.getName())));
+    }
+
+    Collections.sort(snapshots, new Comparator<Snapshot>() {
+      @Override
+      public int compare(Snapshot a, Snapshot b) {
+        return Long.compare(a.sequence, b.sequence);
+      }
+    });
+
+    return snapshots;
+  }
+
+  // The sequence number in a snapshot's file name, or -1 if the name is not a
+  // snapshot's.
+  private static long parse(String name) {
+    if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  // CAPTURE
+  //
+  // What capture() takes from the model, for write() to use later.
+  public static final class Capture {
+
+    private final long version;
+    private final List<UserState> users = new ArrayList<>();
+    private final List<ConversationState> conversations = new ArrayList<>();
+    private final Iterator<Message> messages;
+
+    private Capture(Model model) {
+      this.version = model.version();
+      this.messages = model.messageByTime().all().iterator();
+    }
+  }
+
+  private static final class UserState {
+
+    final User user;
+    final long version;
+    final Map<Uuid, Access> access;
+
+    UserState(User user, long version, Map<Uuid, Access> access) {
+      this.user = user;
+      this.version = version;
+      this.access = access;
+    }
+  }
+
+  private static final class ConversationState {
+
+    final ConversationHeader conversation;
+    final long version;
+    final long payloadVersion;
+    final Uuid firstMessage;
+    final Uuid lastMessage;
+    final ConversationIndex messages;
+    final int count;
+
+    ConversationState(ConversationHeader conversation,
+                      long version,
+                      long payloadVersion,
+                      ConversationPayload payload,
+                      ConversationIndex messages) {
+      this.conversation = conversation;
+      this.version = version;
+      this.payloadVersion = payloadVersion < 0 ? version : payloadVersion;
+      this.firstMessage = payload == null ? Uuid.NULL : payload.firstMessage;
+      this.lastMessage = payload == null ? Uuid.NULL : payload.lastMessage;
+      this.messages = messages;
+      this.count = messages == null ? 0 : messages.size();
+    }
+  }
+
+  // Must be called while nothing changes the model, for example on the
+  // dispatcher's read lane. It takes time in proportion to the number of
+  // users and conversations, not messages.
+  public static Capture capture(Model model) {
+
+    final Capture capture = new Capture(model);
+
+    for (final Map.Entry<Long, User> entry : model.userVersions()) {
+      final User user = entry.getValue();
+      capture.users.add(new UserState(user, entry.getKey(), user.copyConversationAccess()));
+    }
+
+    for (final Map.Entry<Long, ConversationHeader> entry : model.conversationVersions()) {
+      final ConversationHeader conversation = entry.getValue();
+      capture.conversations.add(new ConversationState(
+          conversation,
+          entry.getKey(),
+          model.payloadVersionOf(conversation.id),
+          model.conversationPayloadById().first(conversation.id),
+          model.messagesOf(conversation.id)));
+    }
+
+    return capture;
+  }
+
+  // WRITE
+  //
+  // Write what "capture" took as the snapshot with the given sequence number.
+  // Returns the snapshot once it is complete and forced to disk.
+  public static Snapshot write(Capture capture, File directory, long sequence) throws IOException {
+
+    final Snapshot snapshot = create(directory, sequence);
+    final File temporary = new File(snapshot.file.getPath() + TEMPORARY_SUFFIX);
+
+    try (final FileOutputStream file = new FileOutputStream(temporary)) {
+
+      final Crc32c checksum = new Crc32c();
+      final OutputStream buffered = new BufferedOutputStream(file, BUFFER_SIZE);
+      final OutputStream checked = new CheckedOutputStream(buffered, checksum);
+
+      final DataOutputStream header = new DataOutputStream(checked);
+      header.writeInt(MAGIC);
+      header.writeInt(VERSION);
+      header.writeLong(sequence);
+      header.writeLong(capture.version);
+
+      final OutputStream out = new Compact.Output(checked);
+
+      for (final UserState state : capture.users) {
+        Serializers.BOOLEAN.write(out, true);
+        Serializers.LONG.write(out, state.version);
+        User.SERIALIZER.write(out, state.user);
+        Serializers.INTEGER.write(out, state.access.size());
+        for (final Map.Entry<Uuid, Access> access : state.access.entrySet()) {
+          Uuid.SERIALIZER.write(out, access.getKey());
+          Access.SERIALIZER.write(out, access.getValue());
+        }
+      }
+      Serializers.BOOLEAN.write(out, false);
+
+      final Map<Uuid, ConversationIndex> conversations = new HashMap<>();
+
+      for (final ConversationState state : capture.conversations) {
+
+        Serializers.BOOLEAN.write(out, true);
+        Serializers.LONG.write(out, state.version);
+        ConversationHeader.SERIALIZER.write(out, state.conversation);
+        Serializers.LONG.write(out, state.payloadVersion);
+        Uuid.SERIALIZER.write(out, state.firstMessage);
+        Uuid.SERIALIZER.write(out, state.lastMessage);
+        Serializers.INTEGER.write(out, state.count);
+
+        if (state.messages != null) {
+          conversations.put(state.conversation.id, state.messages);
+        }
+      }
+      Serializers.BOOLEAN.write(out, false);
+
+      // a message's "next" link can change once it is captured, so it is
+      // rebuilt from the positions when the messages are loaded
+      while (capture.messages.hasNext()) {
+        final Message message = capture.messages.next();
+        final ConversationIndex messages = conversations.get(message.conversationName);
+        final int position = messages == null ? -1 : messages.positionOf(message);
+        if (position < 0) {
+          throw new IOException(String.format("message %s is not in its conversation", message.id));
+        }
+        Serializers.BOOLEAN.write(out, true);
+        Message.SERIALIZER.write(out, message);
+        Serializers.INTEGER.write(out, position);
+      }
+      Serializers.BOOLEAN.write(out, false);
+
+      new DataOutputStream(buffered).writeInt((int) checksum.getValue());
+
+      buffered.flush();
+      file.getChannel().force(true);
+    } catch (IOException ex) {
+      temporary.delete();
+      throw ex;
+    }
+
+    if (!temporary.renameTo(snapshot.file)) {
+      temporary.delete();
+      throw new IOException("couldn't rename " + temporary + " to " + snapshot.file);
+    }
+
+    return snapshot;
+  }
+
+  // LOAD
+  //
+  // Load the newest snapshot in "directory" that is intact into "model",
+  // which must be empty, and return its sequence number. Older snapshots are
+  // only tried if the newer ones are damaged. Returns 0 if there are none.
+  public static long load(File directory, Model model) throws IOException {
+
+    final List<Snapshot> snapshots = list(directory);
+
+    for (int i = snapshots.size() - 1; i >= 0; i--) {
+      final Snapshot snapshot = snapshots.get(i);
+      if (snapshot.intact()) {
+        snapshot.apply(model);
+        return snapshot.sequence;
+      }
+      System.err.println("snapshot " + snapshot.file + " is damaged, trying an older one");
+    }
+
+    return 0;
+  }
+
+  // Whether the file is long enough and matches its checksum. This reads the
+  // whole file, so that nothing is put in the model from a damaged one.
+  public boolean intact() {
+
+    final long length = file.length();
+
+    if (length < HEADER_SIZE + CHECKSUM_SIZE) {
+      return false;
+    }
+
+    try (final InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+
+      final Crc32c checksum = new Crc32c();
+      final InputStream checked = new CheckedInputStream(in, checksum);
+      final byte[] buffer = new byte[BUFFER_SIZE];
+
+      long remaining = length - CHECKSUM_SIZE;
+      while (remaining > 0) {
+        final int read = checked.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read < 0) {
+          return false;
+        }
+        remaining -= read;
+      }
+
+      return new DataInputStream(in).readInt() == (int) checksum.getValue();
+
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  private void apply(Model model) throws IOException {
+
+    try (final InputStream file = new BufferedInputStream(new FileInputStream(this.file), BUFFER_SIZE)) {
+
+      final DataInputStream header = new DataInputStream(file);
+      final int magic = header.readInt();
+      final int version = header.readInt();
+      final long start = header.readLong();
+      final long modelVersion = header.readLong();
+
+      if (magic != MAGIC) {
+        throw new IOException(String.format("%s is not a snapshot", this.file));
+      }
+      if (version != VERSION) {
+        throw new IOException(String.format("%s has unknown format version %d", this.file, version));
+      }
+      if (start != sequence) {
+        throw new IOException(String.format("%s is at %d, not %d", this.file, start, sequence));
+      }
+
+      final InputStream in = new Compact.Input(file);
+
+      while (Serializers.BOOLEAN.read(in)) {
+        final long userVersion = Serializers.LONG.read(in);
+        final User user = User.SERIALIZER.read(in);
+        final int access = Serializers.INTEGER.read(in);
+        for (int i = 0; i < access; i++) {
+          user.addConversationAccess(Uuid.SERIALIZER.read(in), Access.SERIALIZER.read(in));
+        }
+        model.restore(user, userVersion);
+      }
+
+      // each conversation's messages, in order, as they are read
+      final Map<Uuid, Message[]> conversations = new HashMap<>();
+      final List<Uuid> order = new ArrayList<>();
+
+      while (Serializers.BOOLEAN.read(in)) {
+
+        final long conversationVersion = Serializers.LONG.read(in);
+        final ConversationHeader conversation = ConversationHeader.SERIALIZER.read(in);
+        final long payloadVersion = Serializers.LONG.read(in);
+        final ConversationPayload payload = new ConversationPayload(
+            conversation.id,
+            Uuid.SERIALIZER.read(in),
+            Uuid.SERIALIZER.read(in));
+
+        model.restore(conversation, conversationVersion, payload, payloadVersion);
+
+        conversations.put(conversation.id, new Message[Serializers.INTEGER.read(in)]);
+        order.add(conversation.id);
+      }
+
+      while (Serializers.BOOLEAN.read(in)) {
+
+        final Message message = Message.SERIALIZER.read(in);
+        final int position = Serializers.INTEGER.read(in);
+        final Message[] messages = conversations.get(message.conversationName);
+
+        if (messages == null || position < 0 || position >= messages.length || messages[position] != null) {
+          throw new IOException(String.format("%s has message %s out of place", this.file, message.id));
+        }
+
+        messages[position] = message;
+        model.restore(message);
+      }
+
+      for (final Uuid conversation : order) {
+
+        final ConversationIndex index = model.messagesOf(conversation);
+        Message previous = null;
+
+        for (final Message message : conversations.get(conversation)) {
+          if (message == null) {
+            throw new IOException(String.format("%s is missing messages of %s", this.file, conversation));
+          }
+          message.next = Uuid.NULL;
+          if (previous != null) {
+            previous.next = message.id;
+          }
+          index.add(message);
+          previous = message;
+        }
+      }
+
+      model.restoreVersion(modelVersion);
+
+    } catch (EOFException ex) {
+      throw new IOException(String.format("%s ends too soon", this.file));
+    }
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import codeu.chat.util.Logger;
+
+// SNAPSHOTTER
+//
+// Takes a snapshot of the model (see Snapshot) once enough records have been
+// written to the log since the last one, and then compacts the log. Only the
+// newest KEEP snapshots are kept, the older ones in case the newest is
+// damaged, along with every segment holding records after the oldest of them.
+// Older segments and snapshots are deleted.
+//
+// The model is captured on the dispatcher's read lane. While it is held no
+// writes run, so nothing is added to the log between the capture and the
+// marker queued behind the writer's records, and once the writer reaches the
+// marker its sequence number is where the snapshot belongs in the log. The
+// snapshot itself is written on a thread of its own.
+public final class Snapshotter {
+
+  private final static Logger.Log LOG = Logger.newLog(Snapshotter.class);
+
+  // take a snapshot every this many records, unless told otherwise
+  public static final long DEFAULT_EVERY = 100000;
+
+  public static final int KEEP = 2;
+
+  private final Dispatcher dispatcher;
+  private final Model model;
+  private final FileWriter fileWriter;
+  private final long every;
+
+  // A daemon thread, so that a snapshot being written never keeps the server
+  // alive. A snapshot is written under a temporary name, so one cut short is
+  // never loaded.
+  private final ExecutorService writing = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "snapshots");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  // the sequence number of the newest snapshot, and whether one is being
+  // taken
+  private volatile long last;
+  private volatile boolean running = false;
+
+  public Snapshotter(Dispatcher dispatcher, Model model, FileWriter fileWriter, long every) {
+    this.dispatcher = dispatcher;
+    this.model = model;
+    this.fileWriter = fileWriter;
+    this.every = every;
+
+    final List<Snapshot> snapshots = Snapshot.list(fileWriter.directory());
+    this.last = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1).sequence;
+  }
+
+  // Take a snapshot if enough records were written since the last one, and
+  // none is being taken already.
+  public void check() {
+    if (!running && fileWriter.sequence() - last >= every) {
+      take();
+    }
+  }
+
+  public void take() {
+
+    running = true;
+
+    dispatcher.read(new Runnable() {
+      @Override
+      public void run() {
+
+        final Snapshot.Capture capture;
+        try {
+          capture = Snapshot.capture(model);
+          fileWriter.whenWritten(new Runnable() {
+            @Override
+            public void run() {
+              write(capture, fileWriter.sequence());
+            }
+          });
+        } catch (InterruptedException | RuntimeException ex) {
+          LOG.error(ex, "Failed to capture the model for a snapshot.");
+          running = false;
+        }
+      }
+    });
+  }
+
+  private void write(final Snapshot.Capture capture, final long sequence) {
+    writing.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+
+          final long start = System.currentTimeMillis();
+          Snapshot.write(capture, fileWriter.directory(), sequence);
+          last = sequence;
+
+          LOG.info("Snapshot at record %d written in %d ms.", sequence, System.currentTimeMillis() - start);
+
+          compact(fileWriter.directory());
+
+        } catch (IOException | RuntimeException ex) {
+          LOG.error(ex, "Failed to write a snapshot at record %d.", sequence);
+        } finally {
+          running = false;
+        }
+      }
+    });
+  }
+
+  // COMPACT
+  //
+  // Delete all but the newest KEEP snapshots in "directory", and every segment
+  // that only holds records from before the oldest snapshot kept. The newest
+  // segment is never deleted, as the writer appends to it.
+  public static void compact(File directory) {
+
+    final List<Snapshot> snapshots = Snapshot.list(directory);
+
+    if (snapshots.size() < KEEP) {
+      return;
+    }
+
+    final int oldest = snapshots.size() - KEEP;
+    final long covered = snapshots.get(oldest).sequence;
+
+    final List<LogSegment> segments = LogSegment.list(directory);
+    for (int i = 0; i + 1 < segments.size() && segments.get(i + 1).first <= covered; i++) {
+      delete(segments.get(i).file);
+    }
+
+    for (int i = 0; i < oldest; i++) {
+      delete(snapshots.get(i).file);
+    }
+  }
+
+  private static void delete(File file) {
+    if (!file.delete()) {
+      LOG.warning("Couldn't delete %s.", file);
+    }
+  }
+}
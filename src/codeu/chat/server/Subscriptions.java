@@ -0,0 +1,279 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.RandomUuidGenerator;
+import codeu.chat.util.Compact;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// SUBSCRIPTIONS
+//
+// Keeps track of which connections want to hear about new messages in which
+// conversations and pushes each new message to them. A subscriber is the
+// reply of the subscribe request, which on a multiplexed connection can keep
+// sending frames tagged with that request's id (see Engine.Reply).
+//
+// Publishing encodes the message on the caller's thread, while the message
+// cannot change, and then hands the bytes to a delivery thread. A subscriber
+// with a full socket never holds up the caller. A subscriber is dropped when
+// its connection closes, when it unsubscribes, or once it has fallen so far
+// behind that more than MAX_BACKLOG pushes are waiting to be handed to it. In
+// that last case it is told with a SUBSCRIPTION_ENDED_PUSH.
+public final class Subscriptions {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscriptions.class);
+
+  private static final int MAX_BACKLOG = 1000;
+
+  // CALLBACK
+  //
+  // Told whether an unsubscribe found its subscription (see "unsubscribe").
+  public interface Callback {
+    void done(boolean found);
+  }
+
+  private static final class Subscriber {
+
+    public final Uuid id;
+    public final Collection<Uuid> conversations;
+    public final Engine.Reply reply;
+    public final boolean compact;
+
+    // Pushes queued for the delivery thread that it has not sent yet.
+    public final AtomicInteger backlog = new AtomicInteger(0);
+
+    public Subscriber(Uuid id, Collection<Uuid> conversations, Engine.Reply reply, boolean compact) {
+      this.id = id;
+      this.conversations = conversations;
+      this.reply = reply;
+      this.compact = compact;
+    }
+  }
+
+  private final ConcurrentHashMap<Uuid, Set<Subscriber>> byConversation = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Uuid, Subscriber> byId = new ConcurrentHashMap<>();
+
+  // Subscription ids are random so that one client cannot easily guess and
+  // end another client's subscription.
+  private final Uuid.Generator ids = new RandomUuidGenerator(Uuid.NULL, System.nanoTime());
+  // A daemon thread, so that pending deliveries never keep the server alive.
+  private final ExecutorService delivery = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "subscriptions");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  // NEW ID
+  //
+  // An id for a new subscription. It is handed out before subscribing so that
+  // it can go in the subscribe response, which has to be sent before anything
+  // is pushed.
+  public Uuid newId() {
+    Uuid id;
+    for (id = ids.make(); byId.containsKey(id); id = ids.make()) {
+      // Ids are random, so this should never repeat.
+    }
+    return id;
+  }
+
+  // SUBSCRIBE
+  //
+  // Push every new message in "conversations" to "reply" in the given encoding
+  // until its connection closes or it unsubscribes with "id".
+  public void subscribe(Uuid id, Collection<Uuid> conversations, Engine.Reply reply, boolean compact) {
+
+    final Subscriber subscriber = new Subscriber(id, conversations, reply, compact);
+    byId.put(id, subscriber);
+
+    for (final Uuid conversation : conversations) {
+      while (!add(conversation, subscriber)) {
+        // The set was dropped as empty before the subscriber went in. The
+        // next try finds or makes the one that replaced it.
+      }
+    }
+
+    reply.whenClosed(new Runnable() {
+      @Override
+      public void run() {
+        remove(subscriber);
+      }
+    });
+  }
+
+  // UNSUBSCRIBE
+  //
+  // Stop pushing to the subscription "id". "then" is given whether there was
+  // such a subscription. It runs after everything already queued for the
+  // subscription has been sent, so nothing is pushed for it afterwards.
+  public void unsubscribe(Uuid id, final Callback then) {
+
+    final Subscriber subscriber = byId.get(id);
+
+    if (subscriber != null) {
+      remove(subscriber);
+    }
+
+    delivery.execute(new Runnable() {
+      @Override
+      public void run() {
+        then.done(subscriber != null);
+      }
+    });
+  }
+
+  // PUBLISH
+  //
+  // Send "message" to everyone subscribed to its conversation.
+  public void publish(Message message) {
+
+    final Set<Subscriber> subscribers = byConversation.get(message.conversationName);
+
+    if (subscribers == null || subscribers.isEmpty()) {
+      return;
+    }
+
+    final byte[] fixed;
+    final byte[] compact;
+
+    try {
+      fixed = encode(message, false);
+      compact = encode(message, true);
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to encode message %s for subscribers.", message.id);
+      return;
+    }
+
+    for (final Subscriber subscriber : subscribers) {
+
+      if (!subscriber.reply.canPush()) {
+        remove(subscriber);
+        continue;
+      }
+
+      if (subscriber.backlog.incrementAndGet() > MAX_BACKLOG) {
+        LOG.warning("Subscriber is %d pushes behind, dropping it.", MAX_BACKLOG);
+        remove(subscriber);
+        end(subscriber);
+        continue;
+      }
+
+      delivery.execute(new Runnable() {
+        @Override
+        public void run() {
+          // Each send gets its own buffer as the engine takes ownership of it.
+          try {
+            subscriber.reply.send(ByteBuffer.wrap(subscriber.compact ? compact : fixed));
+          } finally {
+            subscriber.backlog.decrementAndGet();
+          }
+        }
+      });
+    }
+  }
+
+  // Sets are only changed while holding them, and a set is dropped from the
+  // map when it becomes empty. Adding to a set that is no longer in the map
+  // fails, as nothing would ever publish to it.
+  private boolean add(Uuid conversation, Subscriber subscriber) {
+
+    Set<Subscriber> subscribers = byConversation.get(conversation);
+    if (subscribers == null) {
+      subscribers = new CopyOnWriteArraySet<>();
+      final Set<Subscriber> existing = byConversation.putIfAbsent(conversation, subscribers);
+      subscribers = existing == null ? subscribers : existing;
+    }
+
+    synchronized (subscribers) {
+      if (byConversation.get(conversation) != subscribers) {
+        return false;
+      }
+      subscribers.add(subscriber);
+      return true;
+    }
+  }
+
+  private void remove(Subscriber subscriber) {
+    byId.remove(subscriber.id);
+    for (final Uuid conversation : subscriber.conversations) {
+      final Set<Subscriber> subscribers = byConversation.get(conversation);
+      if (subscribers != null) {
+        synchronized (subscribers) {
+          subscribers.remove(subscriber);
+          if (subscribers.isEmpty()) {
+            byConversation.remove(conversation, subscribers);
+          }
+        }
+      }
+    }
+  }
+
+  // The number of conversations that anyone is subscribed to.
+  int conversations() {
+    return byConversation.size();
+  }
+
+  // Tell a subscriber that was dropped that nothing more will be pushed.
+  private void end(final Subscriber subscriber) {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = subscriber.compact ? new Compact.Output(bytes) : bytes;
+
+    try {
+      Serializers.INTEGER.write(out, NetworkCode.SUBSCRIPTION_ENDED_PUSH);
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to encode the end of a subscription.");
+      return;
+    }
+
+    delivery.execute(new Runnable() {
+      @Override
+      public void run() {
+        subscriber.reply.send(ByteBuffer.wrap(bytes.toByteArray()));
+      }
+    });
+  }
+
+  private static byte[] encode(Message message, boolean compact) throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = compact ? new Compact.Output(bytes) : bytes;
+
+    Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_PUSH);
+    Message.SERIALIZER.write(out, message);
+
+    return bytes.toByteArray();
+  }
+}
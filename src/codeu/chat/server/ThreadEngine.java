@@ -0,0 +1,390 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.connections.Frames;
+
+// THREAD ENGINE
+//
+// A connection engine that gives every accepted connection its own thread and
+// uses plain blocking reads and writes on it. When the JVM supports virtual
+// threads each connection gets a virtual thread, so blocking is cheap and
+// thousands of connected clients only cost a little memory each. On older
+// JVMs it falls back to a pool of platform threads. See Engine for the
+// protocol.
+//
+// A multiplexed connection also gets a writer thread. Responses and pushes
+// are queued for it, so whatever thread answers a request never blocks on a
+// client that is not reading.
+public final class ThreadEngine implements Engine {
+
+  private final static Logger.Log LOG = Logger.newLog(ThreadEngine.class);
+
+  // Once this much output is waiting for a multiplexed client the connection
+  // is dropped, as in SelectorEngine. A single frame is always queued, however
+  // large, so long as nothing is waiting in front of it.
+  private static final long MAX_QUEUED_OUTPUT = 16 * 1024 * 1024;  // 16 MB
+
+  private final ServerSocket serverSocket;
+  private final Handler handler;
+  private final ExecutorService connections = newConnectionExecutor();
+
+  private volatile boolean running = true;
+
+  public ThreadEngine(int port, Handler handler) throws IOException {
+    this.serverSocket = new ServerSocket(port);
+    this.handler = handler;
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      try {
+
+        final Socket socket = serverSocket.accept();
+        LOG.info("Connection established.");
+
+        connections.execute(new Runnable() {
+          @Override
+          public void run() {
+            try (final Socket closing = socket) {
+              serve(closing);
+            } catch (Exception ex) {
+              LOG.error(ex, "Exception while handling connection.");
+            }
+          }
+        });
+
+      } catch (IOException ex) {
+        if (running) {
+          LOG.error(ex, "Failed to establish connection.");
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    serverSocket.close();
+    connections.shutdown();
+  }
+
+  private void serve(Socket socket) throws IOException {
+
+    final InputStream in = new BufferedInputStream(socket.getInputStream());
+    final OutputStream out = socket.getOutputStream();
+
+    final byte[] request = Frames.read(in);
+
+    if (request == null) {
+      // The client went away before sending a request.
+      return;
+    }
+
+    final Outcome outcome = new Outcome();
+    handler.onRequest(request, outcome);
+    outcome.await();
+
+    writeFrame(out, null, outcome.response);
+
+    if (outcome.multiplexed) {
+      serveFrames(socket, in, out);
+    } else {
+      LOG.info("Connection accepted");
+    }
+  }
+
+  private void serveFrames(final Socket socket, InputStream in, final OutputStream out) throws IOException {
+
+    LOG.info("Connection multiplexed.");
+
+    final Closing closing = new Closing();
+    final Outbox outbox = new Outbox(socket, out);
+
+    try {
+      connections.execute(outbox);
+    } catch (RejectedExecutionException ex) {
+      // The engine is closing.
+      return;
+    }
+
+    try {
+      readFrames(socket, in, outbox, closing);
+    } finally {
+      outbox.close();
+      closing.close();
+    }
+  }
+
+  private void readFrames(final Socket socket,
+                          InputStream in,
+                          final Outbox outbox,
+                          final Closing closing) throws IOException {
+
+    for (byte[] frame = Frames.read(in); frame != null; frame = Frames.read(in)) {
+
+      if (frame.length < REQUEST_ID_SIZE) {
+        throw new IOException(String.format("Frame of %d bytes has no request id", frame.length));
+      }
+
+      final int id = Frames.getInt(frame, 0);
+      final byte[] request = Arrays.copyOfRange(frame, REQUEST_ID_SIZE, frame.length);
+
+      // Frames are handed off without waiting for their response so that a
+      // slow request does not hold up the ones behind it.
+      handler.onRequest(request, new Reply() {
+
+        @Override
+        public void send(ByteBuffer response) {
+          outbox.add(frame(id, response));
+        }
+
+        @Override
+        public void multiplex(ByteBuffer response) {
+          send(ByteBuffer.allocate(0));
+        }
+
+        @Override
+        public boolean canPush() {
+          return !socket.isClosed();
+        }
+
+        @Override
+        public void whenClosed(Runnable action) {
+          closing.add(action);
+        }
+      });
+    }
+
+    // The client closed the connection between requests.
+  }
+
+  private static void writeFrame(OutputStream out, Integer id, ByteBuffer response) throws IOException {
+    out.write(frame(id, response));
+    out.flush();
+  }
+
+  // The response as one frame, starting with "id" if it is not null. Socket
+  // streams only take arrays, so this is where a direct response gets copied
+  // onto the heap. The copy also puts the header and the response in one
+  // array so that they go out in one write.
+  private static byte[] frame(Integer id, ByteBuffer response) {
+
+    final int prefix = id == null ? 0 : REQUEST_ID_SIZE;
+    final int length = prefix + response.remaining();
+    final byte[] frame = new byte[Frames.HEADER_SIZE + length];
+
+    Frames.putInt(frame, 0, length);
+    if (id != null) {
+      Frames.putInt(frame, Frames.HEADER_SIZE, id);
+    }
+    response.get(frame, Frames.HEADER_SIZE + prefix, response.remaining());
+
+    return frame;
+  }
+
+  // OUTCOME
+  //
+  // Collects the handler's answer to a single request so that the connection
+  // thread can block until it is ready.
+  private static final class Outcome implements Reply {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    public ByteBuffer response;
+    public boolean multiplexed;
+
+    @Override
+    public void send(ByteBuffer response) {
+      this.response = response;
+      done.countDown();
+    }
+
+    @Override
+    public void multiplex(ByteBuffer response) {
+      this.multiplexed = true;
+      this.response = response;
+      done.countDown();
+    }
+
+    @Override
+    public boolean canPush() {
+      return false;
+    }
+
+    @Override
+    public void whenClosed(Runnable action) {
+      action.run();
+    }
+
+    public void await() throws IOException {
+      try {
+        done.await();
+      } catch (InterruptedException ex) {
+        throw new IOException("Interrupted while waiting for response", ex);
+      }
+    }
+  }
+
+  // OUTBOX
+  //
+  // The frames waiting to go out on a multiplexed connection and the writer
+  // that sends them. Adding a frame never blocks. If the client falls too far
+  // behind, the socket is closed, which also ends the connection's reader.
+  private static final class Outbox implements Runnable {
+
+    private final Socket socket;
+    private final OutputStream out;
+
+    private final Queue<byte[]> frames = new ArrayDeque<>();
+    private long queued = 0;
+    private boolean closed = false;
+
+    public Outbox(Socket socket, OutputStream out) {
+      this.socket = socket;
+      this.out = new BufferedOutputStream(out);
+    }
+
+    public synchronized void add(byte[] frame) {
+
+      if (closed) {
+        return;
+      }
+
+      if (!frames.isEmpty() && queued + frame.length > MAX_QUEUED_OUTPUT) {
+        LOG.error("%d bytes of output are waiting for a client that is not reading, dropping connection.",
+                  queued);
+        drop();
+        return;
+      }
+
+      frames.add(frame);
+      queued += frame.length;
+      notifyAll();
+    }
+
+    public synchronized void close() {
+      closed = true;
+      frames.clear();
+      notifyAll();
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (byte[] frame = next(); frame != null; frame = next()) {
+          out.write(frame);
+          final boolean caughtUp;
+          synchronized (this) {
+            queued -= frame.length;
+            caughtUp = frames.isEmpty();
+          }
+          // Everything that was queued together goes out together.
+          if (caughtUp) {
+            out.flush();
+          }
+        }
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to write to multiplexed connection.");
+        synchronized (this) {
+          drop();
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    // The next frame to write, or null once the connection is closed.
+    private synchronized byte[] next() throws InterruptedException {
+      while (frames.isEmpty() && !closed) {
+        wait();
+      }
+      return closed ? null : frames.remove();
+    }
+
+    private void drop() {
+      close();
+      try {
+        socket.close();
+      } catch (IOException ex) {
+        // The connection is being dropped, there is nothing else to do.
+      }
+    }
+  }
+
+  // CLOSING
+  //
+  // The actions to run once a multiplexed connection is done with (see
+  // Reply.whenClosed). Actions added after that run at once.
+  private static final class Closing {
+
+    private final Collection<Runnable> actions = new ArrayList<>();
+    private boolean closed = false;
+
+    public void add(Runnable action) {
+      synchronized (this) {
+        if (!closed) {
+          actions.add(action);
+          return;
+        }
+      }
+      action.run();
+    }
+
+    public void close() {
+      synchronized (this) {
+        closed = true;
+      }
+      for (final Runnable action : actions) {
+        action.run();
+      }
+      actions.clear();
+    }
+  }
+
+  // Virtual threads were added after the language level this project targets,
+  // so look the factory up at runtime rather than depend on it.
+  private static ExecutorService newConnectionExecutor() {
+    try {
+      final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      LOG.info("Using a virtual thread per connection.");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException ex) {
+      LOG.warning("Virtual threads are not available, using platform threads.");
+      return Executors.newCachedThreadPool();
+    }
+  }
+}
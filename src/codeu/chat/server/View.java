@@ -14,6 +14,7 @@
 
 package codeu.chat.server;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -29,9 +30,12 @@ import java.util.regex.Pattern;
 
 import codeu.chat.common.ServerInfo;
 import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
+import codeu.chat.common.MessagePosition;
+import codeu.chat.common.Page;
 import codeu.chat.common.SinglesView;
 import codeu.chat.common.User;
 import codeu.chat.util.Logger;
@@ -57,13 +61,50 @@ public final class View implements BasicView, SinglesView {
 
   @Override
   public Collection<User> getUsers() {
-    return all(model.userById());
+    return values(model.userById());
   }
 
+  @Override
+  public Page<User> getUsers(Uuid start, int limit) {
+    final List<User> users = take(model.userById(), start, limit + 1);
+    final Uuid next = users.size() > limit ? users.remove(limit).id : null;
+    return new Page<>(users, next);
+  }
 
   @Override
   public Collection<ConversationHeader> getConversations() {
-    return all(model.conversationById());
+    return values(model.conversationById());
+  }
+
+  @Override
+  public Page<ConversationHeader> getConversations(Uuid start, int limit) {
+    final List<ConversationHeader> conversations = take(model.conversationById(), start, limit + 1);
+    final Uuid next = conversations.size() > limit ? conversations.remove(limit).id : null;
+    return new Page<>(conversations, next);
+  }
+
+  @Override
+  public Collection<User> getUsersByPrefix(String prefix, int limit) {
+    final List<User> users = new ArrayList<>();
+    for (final User user : model.userByText().after(prefix)) {
+      if (users.size() >= limit || !startsWith(user.name, prefix)) {
+        break;
+      }
+      users.add(user);
+    }
+    return users;
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit) {
+    final List<ConversationHeader> conversations = new ArrayList<>();
+    for (final ConversationHeader conversation : model.conversationByText().after(prefix)) {
+      if (conversations.size() >= limit || !startsWith(conversation.title, prefix)) {
+        break;
+      }
+      conversations.add(conversation);
+    }
+    return conversations;
   }
 
   @Override
@@ -76,6 +117,54 @@ public final class View implements BasicView, SinglesView {
     return intersect(model.messageById(), ids);
   }
 
+  @Override
+  public Collection<Message> getConversationMessages(Uuid conversation,
+                                                     MessagePosition position,
+                                                     Uuid after,
+                                                     int limit) {
+
+    final ConversationIndex messages = model.messagesOf(conversation);
+
+    if (messages == null) {
+      LOG.warning("Unmapped conversation %s", conversation);
+      return new ArrayList<>();
+    }
+
+    if (position == MessagePosition.FIRST) {
+      return messages.window(0, limit);
+    }
+
+    if (position == MessagePosition.LAST) {
+      return messages.tail(limit);
+    }
+
+    // Only start after a message that is in this conversation.
+    final Message start = model.messageById().first(after);
+    final int at = start == null || !Uuid.equals(start.conversationName, conversation) ?
+        -1 :
+        messages.positionOf(start);
+
+    return at < 0 ? new ArrayList<Message>() : messages.window(at + 1, limit);
+  }
+
+  @Override
+  public Changes getChanges(long since) {
+
+    // A client that is ahead of the model must have seen a model that has
+    // since been lost, so it gets everything again.
+    final long from = since >= 0 && since <= model.version() ? since + 1 : 0;
+
+    return new Changes(model.version(),
+                       copy(model.userByVersion().after(from)),
+                       copy(model.conversationByVersion().after(from)),
+                       copy(model.conversationPayloadByVersion().after(from)));
+  }
+
+  @Override
+  public Collection<Message> searchMessages(String query, Uuid conversation, Uuid author, int limit) {
+    return model.messageSearch().search(query, conversation, author, limit);
+  }
+
   @Override
   public User findUser(Uuid id) { return model.userById().first(id); }
 
@@ -99,14 +188,12 @@ public final class View implements BasicView, SinglesView {
         final Time lastUpdate = foundOwner.UserUpdateMap.get(foundUser.id);
 
       for (ConversationPayload conversationPayload : allConversations) {
-          Message currentMessage = model.messageById().first(conversationPayload.firstMessage);
-          boolean foundMessage = false;
-          while (currentMessage != null && foundMessage == false) {
-            if (lastUpdate.compareTo(currentMessage.creation) < 0 && currentMessage.author.equals(foundUser.id)) {
+          // Only the messages since the last update are looked at.
+          for (final Message message : model.messagesOf(conversationPayload.id).createdAfter(lastUpdate)) {
+            if (message.author.equals(foundUser.id)) {
               contributions.add(model.conversationById().first(conversationPayload.id).title);
-              foundMessage = true;
+              break;
             }
-            currentMessage = model.messageById().first(currentMessage.next);
           }
        // if(!contributions.contains(model.conversationById().first(conversationPayload.id).title)) {
           if (model.conversationById().first(conversationPayload.id).owner.equals(foundUser.id)) {
@@ -140,18 +227,11 @@ public final class View implements BasicView, SinglesView {
 
     final User foundOwner = model.userById().first(owner);
     final ConversationHeader foundConversation = model.conversationByText().first(title);
-    final ConversationPayload foundConversationPayload = model.conversationPayloadById().first(foundConversation.id);
     final Time lastUpdate = foundOwner.ConvoUpdateMap.get(foundConversation.id);
     
     if (foundConversation != null) {
       if (foundOwner.ConvoUpdateMap.containsKey(foundConversation.id)) {
-          Message currentMessage = model.messageById().first(foundConversationPayload.firstMessage);
-          while (currentMessage != null) {
-            if (lastUpdate.compareTo(currentMessage.creation) < 0) {
-              newMessages++;
-            }
-            currentMessage = model.messageById().first(currentMessage.next);
-          }
+          newMessages = model.messagesOf(foundConversation.id).countCreatedAfter(lastUpdate);
         foundOwner.ConvoUpdateMap.put(foundConversation.id, Time.now());
         } else {
           newMessages = -1;
@@ -164,6 +244,13 @@ public final class View implements BasicView, SinglesView {
       return newMessages;
     }
 
+  // The text stores are ordered case-insensitively, so everything that starts
+  // with a prefix, ignoring case, is in one run that begins at the prefix.
+  // This checks where that run ends.
+  private static boolean startsWith(String text, String prefix) {
+    return text.regionMatches(true, 0, prefix, 0, prefix.length());
+  }
+
   private static <S,T> Collection<T> all(StoreAccessor<S,T> store) {
 
     final Collection<T> all = new ArrayList<>();
@@ -175,6 +262,49 @@ public final class View implements BasicView, SinglesView {
     return all;
   }
 
+  // A collection backed by the store rather than a copy of it. Writing it to
+  // a response walks the store's links as it goes, so no list of every entry
+  // is built first. It is only safe to use while the model cannot change,
+  // which is the case for anything running on the dispatcher's read lane.
+  private static <S,T> Collection<T> values(final StoreAccessor<S,T> store) {
+    return new AbstractCollection<T>() {
+
+      @Override
+      public Iterator<T> iterator() {
+        return store.all().iterator();
+      }
+
+      @Override
+      public int size() {
+        return store.size();
+      }
+    };
+  }
+
+  private static <T> Collection<T> copy(Iterable<T> values) {
+    final Collection<T> copied = new ArrayList<>();
+    for (final T value : values) {
+      copied.add(value);
+    }
+    return copied;
+  }
+
+  // Copy at most "count" values, starting at "start" in the store's order, or
+  // at the beginning if "start" is null.
+  private static <T> List<T> take(StoreAccessor<Uuid, T> store, Uuid start, int count) {
+
+    final List<T> taken = new ArrayList<>();
+
+    for (final T value : start == null ? store.all() : store.after(start)) {
+      if (taken.size() >= count) {
+        break;
+      }
+      taken.add(value);
+    }
+
+    return taken;
+  }
+
   private static <T> Collection<T> intersect(StoreAccessor<Uuid, T> store, Collection<Uuid> ids) {
 
     // Use a set to hold the found users as this will prevent duplicate ids from
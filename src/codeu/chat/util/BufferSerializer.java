@@ -0,0 +1,40 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// BUFFER SERIALIZER
+//
+// The ByteBuffer counterpart of Serializer. Values are written in exactly the
+// same format as their stream serializer writes them, so either side of a
+// connection or either end of the transaction log can use whichever one fits.
+//
+// "size" is the number of bytes "write" will put into the buffer. Callers use
+// it to allocate a buffer of the right size once, rather than growing one as
+// they go. Writing to a buffer without enough room left throws
+// BufferOverflowException and reading past its limit throws
+// BufferUnderflowException.
+public interface BufferSerializer<T> {
+
+  int size(T value);
+
+  void write(ByteBuffer out, T value) throws IOException;
+
+  T read(ByteBuffer in) throws IOException;
+
+}
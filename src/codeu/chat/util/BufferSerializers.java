@@ -0,0 +1,222 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+
+// BUFFER SERIALIZERS
+//
+// ByteBuffer versions of the serializers in Serializers. Every value is laid
+// out byte for byte the same as its stream version. Buffers are expected to
+// be in their default big-endian order.
+public final class BufferSerializers {
+
+  // Buffers at least this big are direct, see "allocate".
+  private static final int DIRECT_THRESHOLD = 8 * 1024;
+
+  public static final BufferSerializer<Boolean> BOOLEAN = new BufferSerializer<Boolean>() {
+
+    @Override
+    public int size(Boolean value) {
+      return 1;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Boolean value) {
+      out.put((byte) (value ? 1 : 0));
+    }
+
+    @Override
+    public Boolean read(ByteBuffer in) {
+      return in.get() != 0;
+    }
+  };
+
+  public static final BufferSerializer<Integer> INTEGER = new BufferSerializer<Integer>() {
+
+    @Override
+    public int size(Integer value) {
+      return 4;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Integer value) {
+      out.putInt(value);
+    }
+
+    @Override
+    public Integer read(ByteBuffer in) {
+      return in.getInt();
+    }
+  };
+
+  public static final BufferSerializer<Long> LONG = new BufferSerializer<Long>() {
+
+    @Override
+    public int size(Long value) {
+      return 8;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Long value) {
+      out.putLong(value);
+    }
+
+    @Override
+    public Long read(ByteBuffer in) {
+      return in.getLong();
+    }
+  };
+
+  public static final BufferSerializer<byte[]> BYTES = new BufferSerializer<byte[]>() {
+
+    @Override
+    public int size(byte[] value) {
+      return 4 + value.length;
+    }
+
+    @Override
+    public void write(ByteBuffer out, byte[] value) {
+      out.putInt(value.length);
+      out.put(value);
+    }
+
+    @Override
+    public byte[] read(ByteBuffer in) throws IOException {
+
+      final int length = in.getInt();
+
+      if (length < 0 || length > in.remaining()) {
+        throw new IOException(String.format("Bad byte array length %d", length));
+      }
+
+      final byte[] array = new byte[length];
+      in.get(array);
+      return array;
+    }
+  };
+
+  // Strings use the platform's default charset, the same as Serializers.STRING.
+  public static final BufferSerializer<String> STRING = new BufferSerializer<String>() {
+
+    @Override
+    public int size(String value) {
+      return BYTES.size(value.getBytes());
+    }
+
+    @Override
+    public void write(ByteBuffer out, String value) throws IOException {
+      BYTES.write(out, value.getBytes());
+    }
+
+    @Override
+    public String read(ByteBuffer in) throws IOException {
+      return new String(BYTES.read(in));
+    }
+  };
+
+  public static <T> BufferSerializer<Collection<T>> collection(final BufferSerializer<T> serializer) {
+
+    return new BufferSerializer<Collection<T>>() {
+
+      @Override
+      public int size(Collection<T> value) {
+        int size = INTEGER.size(value.size());
+        for (final T x : value) {
+          size += serializer.size(x);
+        }
+        return size;
+      }
+
+      @Override
+      public void write(ByteBuffer out, Collection<T> value) throws IOException {
+        INTEGER.write(out, value.size());
+        for (final T x : value) {
+          serializer.write(out, x);
+        }
+      }
+
+      @Override
+      public Collection<T> read(ByteBuffer in) throws IOException {
+        final int size = INTEGER.read(in);
+        if (size < 0) {
+          throw new IOException(String.format("Bad collection size %d", size));
+        }
+        // Do not trust the size enough to allocate for it up front, every
+        // element takes at least one byte.
+        final Collection<T> list = new ArrayList<>(Math.min(size, in.remaining()));
+        for (int i = 0; i < size; i++) {
+          list.add(serializer.read(in));
+        }
+        return list;
+      }
+    };
+  }
+
+  public static <T> BufferSerializer<T> nullable(final BufferSerializer<T> serializer) {
+
+    final byte NO_VALUE = 0x00;
+    final byte YES_VALUE = (byte) 0xFF;
+
+    return new BufferSerializer<T>() {
+
+      @Override
+      public int size(T value) {
+        return value == null ? 1 : 1 + serializer.size(value);
+      }
+
+      @Override
+      public void write(ByteBuffer out, T value) throws IOException {
+        if (value == null) {
+          out.put(NO_VALUE);
+        } else {
+          out.put(YES_VALUE);
+          serializer.write(out, value);
+        }
+      }
+
+      @Override
+      public T read(ByteBuffer in) throws IOException {
+        return in.get() == NO_VALUE ? null : serializer.read(in);
+      }
+    };
+  }
+
+  // ENCODE
+  //
+  // Write "value" into a new buffer that is exactly big enough for it and
+  // flip it so that it is ready to be read or written to a channel.
+  public static <T> ByteBuffer encode(BufferSerializer<T> serializer, T value) throws IOException {
+    final ByteBuffer buffer = allocate(serializer.size(value));
+    serializer.write(buffer, value);
+    buffer.flip();
+    return buffer;
+  }
+
+  // ALLOCATE
+  //
+  // Large buffers are direct so that channels can write them without first
+  // copying them out of the Java heap. Small buffers are not worth the cost of
+  // allocating direct memory.
+  public static ByteBuffer allocate(int size) {
+    return size >= DIRECT_THRESHOLD ?
+        ByteBuffer.allocateDirect(size) :
+        ByteBuffer.allocate(size);
+  }
+}
@@ -0,0 +1,232 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// COMPACT
+//
+// A smaller encoding for the values written by the Serializers. Nothing calls
+// it directly. Instead a stream is wrapped in Compact.Output or Compact.Input
+// and the serializers notice the wrapper and switch encoding:
+//
+//   + Integers and longs are zig-zag varints, so small values of either sign
+//     take one or two bytes instead of four or eight. Lengths and network
+//     codes fall under this as they are written as integers.
+//
+//   + Uuid links are unsigned varints. A Uuid whose root is the same as the
+//     root of the last Uuid written to the stream only writes its own id.
+//     Almost every Uuid in a request or response hangs off the server's id,
+//     so most of them shrink to the leaf id and a header byte.
+//
+//   + Each Time is written as the difference from the last Time written to
+//     the stream. The messages in a collection are written in order, so their
+//     timestamps are usually only a few bytes apart.
+//
+//   + Enums are written as their ordinal.
+//
+// Both the root and time state belong to a single stream, so the reader has
+// to read every value in the order it was written. That is already the case
+// for everything sent over the network or to the log.
+public final class Compact {
+
+  // OUTPUT
+  //
+  // Wraps a stream so that everything the serializers write to it is written
+  // in the compact encoding.
+  public static final class Output extends FilterOutputStream {
+
+    Uuid lastRoot = null;
+    long lastTime = 0;
+
+    public Output(OutputStream out) {
+      super(out);
+    }
+
+    // FilterOutputStream writes arrays one byte at a time, so pass them
+    // straight through.
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+    }
+  }
+
+  // INPUT
+  //
+  // Wraps a stream holding compact values so that the serializers read them
+  // back. It never reads further ahead than the serializers ask for.
+  public static final class Input extends FilterInputStream {
+
+    Uuid lastRoot = null;
+    long lastTime = 0;
+
+    public Input(InputStream in) {
+      super(in);
+    }
+  }
+
+  public static boolean isCompact(OutputStream out) {
+    return out instanceof Output;
+  }
+
+  public static boolean isCompact(InputStream in) {
+    return in instanceof Input;
+  }
+
+  // Zig-zag maps signed values to unsigned ones so that numbers close to zero,
+  // negative or not, get short varints: 0, -1, 1, -2, 2 ... become 0, 1, 2, 3,
+  // 4 ...
+  public static void writeSignedVarLong(OutputStream out, long value) throws IOException {
+    writeVarLong(out, (value << 1) ^ (value >> 63));
+  }
+
+  public static long readSignedVarLong(InputStream in) throws IOException {
+    final long value = readVarLong(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  // Seven bits per byte, lowest bits first, with the top bit set on every byte
+  // but the last. "value" is treated as unsigned.
+  public static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  public static long readVarLong(InputStream in) throws IOException {
+
+    long value = 0;
+
+    for (int shift = 0; shift < 64; shift += 7) {
+
+      final int next = in.read();
+
+      if (next < 0) {
+        throw new EOFException("Stream ended inside a varint");
+      }
+
+      value |= (long) (next & 0x7F) << shift;
+
+      if ((next & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IOException("Varint is longer than 64 bits");
+  }
+
+  // UUID
+  //
+  // The header is the number of links written, shifted up by one, with the
+  // low bit set when the Uuid's root is the stream's last root. In that case
+  // only the leaf id follows. A header of zero is a null Uuid.
+  static void writeUuid(Output out, Uuid value) throws IOException {
+
+    if (value != null && value.root() != null && Uuid.equals(value.root(), out.lastRoot)) {
+      writeVarLong(out, 1);
+      writeVarLong(out, value.id() & 0xFFFFFFFFL);
+      return;
+    }
+
+    int length = 0;
+    for (Uuid current = value; current != null; current = current.root()) {
+      length += 1;
+    }
+
+    writeVarLong(out, length << 1);
+
+    for (Uuid current = value; current != null; current = current.root()) {
+      writeVarLong(out, current.id() & 0xFFFFFFFFL);
+    }
+
+    if (value != null && value.root() != null) {
+      out.lastRoot = value.root();
+    }
+  }
+
+  static Uuid readUuid(Input in) throws IOException {
+
+    final long header = readVarLong(in);
+
+    if ((header & 1) != 0) {
+      return new Uuid(in.lastRoot, (int) readVarLong(in));
+    }
+
+    final long length = header >>> 1;
+
+    if (length > 255) {
+      throw new IOException("Max supported Uuid chain length is 255");
+    }
+
+    final int[] chain = new int[(int) length];
+
+    for (int i = 0; i < length; i++) {
+      chain[i] = (int) readVarLong(in);
+    }
+
+    Uuid head = null;
+
+    for (int i = chain.length - 1; i >= 0; i--) {
+      head = new Uuid(head, chain[i]);
+    }
+
+    if (head != null && head.root() != null) {
+      in.lastRoot = head.root();
+    }
+
+    return head;
+  }
+
+  // TIME
+  //
+  // Written as the difference from the last time written to the stream.
+  static void writeTime(Output out, long ms) throws IOException {
+    writeSignedVarLong(out, ms - out.lastTime);
+    out.lastTime = ms;
+  }
+
+  static long readTime(Input in) throws IOException {
+    in.lastTime += readSignedVarLong(in);
+    return in.lastTime;
+  }
+
+  // ENUM
+  //
+  // Written as the ordinal. Reading an ordinal that is out of range fails
+  // rather than guessing.
+  public static <T extends Enum<T>> void writeEnum(OutputStream out, T value) throws IOException {
+    writeVarLong(out, value.ordinal());
+  }
+
+  public static <T extends Enum<T>> T readEnum(InputStream in, Class<T> type) throws IOException {
+
+    final T[] values = type.getEnumConstants();
+    final long ordinal = readVarLong(in);
+
+    if (ordinal >= values.length) {
+      throw new IOException(String.format("No %s with ordinal %d", type.getSimpleName(), ordinal));
+    }
+
+    return values[(int) ordinal];
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// PROMISE
+//
+// A value that will be ready later, or the reason it never will be. It can be
+// waited on like any Future or given callbacks to run once it is done. This
+// stands in for CompletableFuture, which is newer than the Java version this
+// project targets.
+//
+// Callbacks added before the promise is done run on the thread that finishes
+// it. Callbacks added after run straight away on the thread adding them.
+public final class Promise<T> implements Future<T> {
+
+  public interface Callback<T> {
+    void onSuccess(T value);
+    void onFailure(Throwable cause);
+  }
+
+  private final CountDownLatch done = new CountDownLatch(1);
+  private final List<Callback<T>> callbacks = new ArrayList<>();
+
+  private T value;
+  private Throwable failure;
+
+  // Finish with "value". Returns false if the promise was already done, in
+  // which case nothing changes.
+  public boolean complete(T value) {
+    return finish(value, null);
+  }
+
+  // Finish with "cause" as the reason there is no value.
+  public boolean fail(Throwable cause) {
+    return finish(null, cause);
+  }
+
+  public void then(Callback<T> callback) {
+    synchronized (callbacks) {
+      if (done.getCount() > 0) {
+        callbacks.add(callback);
+        return;
+      }
+    }
+    deliver(callback);
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    // Requests that were sent cannot be taken back.
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    done.await();
+    return result();
+  }
+
+  @Override
+  public T get(long timeout, TimeUnit unit) throws InterruptedException,
+                                                   ExecutionException,
+                                                   TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return result();
+  }
+
+  private boolean finish(T value, Throwable failure) {
+
+    final List<Callback<T>> waiting;
+
+    synchronized (callbacks) {
+      if (done.getCount() == 0) {
+        return false;
+      }
+      this.value = value;
+      this.failure = failure;
+      done.countDown();
+      waiting = new ArrayList<>(callbacks);
+      callbacks.clear();
+    }
+
+    for (final Callback<T> callback : waiting) {
+      deliver(callback);
+    }
+
+    return true;
+  }
+
+  private void deliver(Callback<T> callback) {
+    if (failure == null) {
+      callback.onSuccess(value);
+    } else {
+      callback.onFailure(failure);
+    }
+  }
+
+  private T result() throws ExecutionException {
+    if (failure != null) {
+      throw new ExecutionException(failure);
+    }
+    return value;
+  }
+}
@@ -14,12 +14,18 @@
 
 package codeu.chat.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 
+// SERIALIZERS
+//
+// Stream serializers for the basic types. Writing to a Compact.Output or
+// reading from a Compact.Input switches to the compact encoding described in
+// Compact.
 public final class Serializers {
 
   public static final Serializer<Boolean> BOOLEAN = new Serializer<Boolean>() {
@@ -40,6 +46,11 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Integer value) throws IOException {
 
+      if (Compact.isCompact(out)) {
+        Compact.writeSignedVarLong(out, value);
+        return;
+      }
+
       for (int i = 24; i >= 0; i -= 8) {
         out.write(0xFF & (value >>> i));
       }
@@ -49,6 +60,10 @@ public final class Serializers {
     @Override
     public Integer read(InputStream in) throws IOException {
 
+      if (Compact.isCompact(in)) {
+        return (int) Compact.readSignedVarLong(in);
+      }
+
       int value = 0;
 
       for (int i = 0; i < 4; i++) {
@@ -65,6 +80,11 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Long value) throws IOException {
 
+      if (Compact.isCompact(out)) {
+        Compact.writeSignedVarLong(out, value);
+        return;
+      }
+
       for (int i = 56; i >= 0; i -= 8) {
         out.write((int)(0xFF & (value >>> i)));
       }
@@ -74,6 +94,10 @@ public final class Serializers {
     @Override
     public Long read(InputStream in) throws IOException {
 
+      if (Compact.isCompact(in)) {
+        return Compact.readSignedVarLong(in);
+      }
+
       long value = 0;
 
       for (int i = 0; i < 8; i++) {
@@ -101,8 +125,15 @@ public final class Serializers {
       final int length = INTEGER.read(input);
       final byte[] array = new byte[length];
 
-      for (int i = 0; i < length; i++) {
-        array[i] = (byte)input.read();
+      // Read in bulk rather than a byte at a time. A stream may hand back
+      // fewer bytes than asked for, so keep going until the array is full.
+      int read = 0;
+      while (read < length) {
+        final int count = input.read(array, read, length - read);
+        if (count < 0) {
+          throw new EOFException("Stream ended before all bytes were read");
+        }
+        read += count;
       }
 
       return array;
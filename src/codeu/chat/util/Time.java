@@ -17,6 +17,7 @@ package codeu.chat.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -27,6 +28,11 @@ public final class Time implements Comparable<Time> {
     @Override
     public void write(OutputStream out, Time value) throws IOException {
 
+      if (Compact.isCompact(out)) {
+        Compact.writeTime((Compact.Output) out, value.inMs());
+        return;
+      }
+
       Serializers.LONG.write(out, value.inMs());
 
     }
@@ -34,23 +40,47 @@ public final class Time implements Comparable<Time> {
     @Override
     public Time read(InputStream in) throws IOException {
 
+      if (Compact.isCompact(in)) {
+        return Time.fromMs(Compact.readTime((Compact.Input) in));
+      }
+
       return Time.fromMs(Serializers.LONG.read(in));
 
     }
   };
 
+  public static final BufferSerializer<Time> BUFFER_SERIALIZER = new BufferSerializer<Time>() {
+
+    @Override
+    public int size(Time value) {
+      return BufferSerializers.LONG.size(value.inMs());
+    }
+
+    @Override
+    public void write(ByteBuffer out, Time value) throws IOException {
+      BufferSerializers.LONG.write(out, value.inMs());
+    }
+
+    @Override
+    public Time read(ByteBuffer in) throws IOException {
+      return Time.fromMs(BufferSerializers.LONG.read(in));
+    }
+  };
+
   private static final SimpleDateFormat formatter =
       new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss.SSS");
 
-  private final Date date;
+  // Kept as a primitive rather than a Date so that a Time is one small object
+  // and comparing two of them is a single long comparison.
+  private final long ms;
 
-  private Time(long totalMs) { this.date = new Date(totalMs); }
+  private Time(long totalMs) { this.ms = totalMs; }
 
-  public long inMs() { return date.getTime(); }
+  public long inMs() { return ms; }
 
   @Override
   public int compareTo(Time other) {
-    return date.compareTo(other.date);
+    return Long.compare(ms, other.ms);
   }
 
   public boolean inRange(Time start, Time end) {
@@ -59,7 +89,9 @@ public final class Time implements Comparable<Time> {
 
   @Override
   public String toString() {
-    return formatter.format(date);
+    synchronized (formatter) {
+      return formatter.format(new Date(ms));
+    }
   }
 
   public static Time fromMs(long ms) { return new Time(ms); }
@@ -18,6 +18,7 @@ import java.lang.StringBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public final class Uuid {
@@ -29,6 +30,11 @@ public final class Uuid {
     @Override
     public void write(OutputStream out, Uuid value) throws IOException {
 
+      if (Compact.isCompact(out)) {
+        Compact.writeUuid((Compact.Output) out, value);
+        return;
+      }
+
       int length = 0;
       for (Uuid current = value; current != null; current = current.root()) {
         length += 1;
@@ -51,6 +57,10 @@ public final class Uuid {
     @Override
     public Uuid read(InputStream in) throws IOException {
 
+      if (Compact.isCompact(in)) {
+        return Compact.readUuid((Compact.Input) in);
+      }
+
       // "input.read" can only return one by of data so there is no need
       // to check that the bounds of 0 to 255 is respected.
       final int length = in.read();
@@ -70,6 +80,57 @@ public final class Uuid {
     }
   };
 
+  public static final BufferSerializer<Uuid> BUFFER_SERIALIZER = new BufferSerializer<Uuid>() {
+
+    @Override
+    public int size(Uuid value) {
+      int length = 0;
+      for (Uuid current = value; current != null; current = current.root()) {
+        length += 1;
+      }
+      return 1 + 4 * length;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Uuid value) throws IOException {
+
+      int length = 0;
+      for (Uuid current = value; current != null; current = current.root()) {
+        length += 1;
+      }
+
+      // Same limit as SERIALIZER.
+      if (length > 255) {
+        throw new IOException("Max supported Uuid chain length is 255");
+      }
+
+      out.put((byte) length);
+
+      for (Uuid current = value; current != null; current = current.root()) {
+        out.putInt(current.id());
+      }
+    }
+
+    @Override
+    public Uuid read(ByteBuffer in) throws IOException {
+
+      final int length = in.get() & 0xFF;
+      final int[] chain = new int[length];
+
+      for (int i = 0; i < length; i++) {
+        chain[i] = in.getInt();
+      }
+
+      Uuid head = null;
+
+      for (int i = length - 1; i >= 0; i--) {
+        head = new Uuid(head, chain[i]);
+      }
+
+      return head;
+    }
+  };
+
 
   // GENERATOR
   //
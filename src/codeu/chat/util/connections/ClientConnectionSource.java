@@ -15,15 +15,14 @@
 package codeu.chat.util.connections;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.Socket;
 
 // CLIENT CONNECTION SOURCE
 //
 // Implements the ConnectionSource interface for clients who know what
 // port on the host they will be connecting to.Calls to "connect" will
-// block until a connection is established or timeout.
+// block until a connection is established or timeout. Requests and
+// responses are sent as frames, see FramedConnection.
 public final class ClientConnectionSource implements ConnectionSource {
 
   private final String host;
@@ -36,30 +35,9 @@ public final class ClientConnectionSource implements ConnectionSource {
 
   @Override
   public Connection connect() throws IOException {
-    return fromSocket(new Socket(host, port));
+    return new FramedConnection(new Socket(host, port));
   }
 
   @Override
   public void close() throws IOException { }
-
-  private static Connection fromSocket(final Socket socket) throws IOException {
-
-    return new Connection() {
-
-      @Override
-      public InputStream in() throws IOException {
-        return socket.getInputStream();
-      }
-
-      @Override
-      public OutputStream out() throws IOException {
-        return socket.getOutputStream();
-      }
-
-      @Override
-      public void close() throws IOException {
-        socket.close();
-      }
-    };
-  }
 }
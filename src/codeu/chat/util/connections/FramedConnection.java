@@ -0,0 +1,137 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+// FRAMED CONNECTION
+//
+// A connection over a socket that sends and receives frames (see Frames).
+// Everything written to "out" is collected in a reusable buffer and sent as
+// one frame when the stream is flushed, when "in" is first read from, or when
+// the connection is closed. Reading from "in" reads the next frame in full
+// and then serves bytes from memory.
+//
+// This means callers can keep writing and reading values one at a time with
+// the Serializers and still only touch the socket once per request.
+final class FramedConnection implements Connection {
+
+  private final Socket socket;
+  private final InputStream socketIn;
+  private final OutputStream socketOut;
+
+  // Collects the outgoing frame. The first bytes are reserved for the frame
+  // header so that the frame can be written straight from this buffer.
+  private final class FrameOutputStream extends ByteArrayOutputStream {
+
+    public FrameOutputStream() {
+      reset();
+    }
+
+    @Override
+    public synchronized void reset() {
+      super.reset();
+      count = Frames.HEADER_SIZE;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+      if (count > Frames.HEADER_SIZE) {
+        Frames.putInt(buf, 0, count - Frames.HEADER_SIZE);
+        socketOut.write(buf, 0, count);
+        socketOut.flush();
+        reset();
+      }
+    }
+  }
+
+  // Serves bytes from the most recently read frame and reads the next frame
+  // when it runs out. Anything waiting to be sent is sent first, as the other
+  // side cannot answer a request it has not seen.
+  private final class FrameInputStream extends InputStream {
+
+    private byte[] frame = new byte[0];
+    private int position = 0;
+
+    @Override
+    public int read() throws IOException {
+      return next() ? frame[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!next()) {
+        return -1;
+      }
+      final int count = Math.min(length, frame.length - position);
+      System.arraycopy(frame, position, bytes, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return frame.length - position;
+    }
+
+    private boolean next() throws IOException {
+      while (position >= frame.length) {
+        out.flush();
+        final byte[] read = Frames.read(socketIn);
+        if (read == null) {
+          return false;
+        }
+        frame = read;
+        position = 0;
+      }
+      return true;
+    }
+  }
+
+  private final FrameOutputStream out = new FrameOutputStream();
+  private final FrameInputStream in = new FrameInputStream();
+
+  public FramedConnection(Socket socket) throws IOException {
+    this.socket = socket;
+    this.socketIn = socket.getInputStream();
+    this.socketOut = socket.getOutputStream();
+  }
+
+  @Override
+  public InputStream in() {
+    return in;
+  }
+
+  @Override
+  public OutputStream out() {
+    return out;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.flush();
+    } finally {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// FRAMES
+//
+// Everything sent between a client and a server is sent as frames. A frame is
+// a four byte big-endian length followed by that many bytes. A frame is always
+// written with a single write and always read in full before any of it is
+// decoded, so a request or response never turns into many tiny reads and
+// writes on the socket.
+public final class Frames {
+
+  public static final int HEADER_SIZE = 4;
+
+  // Frames larger than this are treated as a broken stream rather than
+  // something to allocate memory for.
+  public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+  // WRITE
+  //
+  // Write "length" bytes from "bytes" as one frame. The frame is assembled in
+  // memory first so that it reaches the stream in one write.
+  public static void write(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+    final byte[] frame = new byte[HEADER_SIZE + length];
+    putInt(frame, 0, length);
+    System.arraycopy(bytes, offset, frame, HEADER_SIZE, length);
+    out.write(frame);
+    out.flush();
+  }
+
+  public static void write(OutputStream out, byte[] bytes) throws IOException {
+    write(out, bytes, 0, bytes.length);
+  }
+
+  // READ
+  //
+  // Read the next frame in full. Returns null if the stream ended cleanly
+  // before the frame started and throws if it ended part way through.
+  public static byte[] read(InputStream in) throws IOException {
+
+    final byte[] header = new byte[HEADER_SIZE];
+
+    if (!readFully(in, header, 0, HEADER_SIZE, true)) {
+      return null;
+    }
+
+    final byte[] frame = new byte[checkLength(getInt(header, 0))];
+    readFully(in, frame, 0, frame.length, false);
+    return frame;
+  }
+
+  // Read exactly "length" bytes. If "allowEnd" is set and the stream ends
+  // before any bytes were read, false is returned rather than throwing.
+  static boolean readFully(InputStream in,
+                           byte[] bytes,
+                           int offset,
+                           int length,
+                           boolean allowEnd) throws IOException {
+
+    int read = 0;
+
+    while (read < length) {
+      final int count = in.read(bytes, offset + read, length - read);
+      if (count < 0) {
+        if (allowEnd && read == 0) {
+          return false;
+        }
+        throw new EOFException("Stream ended part way through a frame");
+      }
+      read += count;
+    }
+
+    return true;
+  }
+
+  public static int checkLength(int length) throws IOException {
+    if (length < 0 || length > MAX_FRAME_SIZE) {
+      throw new IOException(String.format("Bad frame length %d", length));
+    }
+    return length;
+  }
+
+  public static int getInt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xFF) << 24) |
+           ((bytes[offset + 1] & 0xFF) << 16) |
+           ((bytes[offset + 2] & 0xFF) << 8) |
+           (bytes[offset + 3] & 0xFF);
+  }
+
+  public static void putInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+}
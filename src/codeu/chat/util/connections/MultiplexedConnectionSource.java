@@ -0,0 +1,503 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Compact;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+
+// MULTIPLEXED CONNECTION SOURCE
+//
+// Implements the ConnectionSource interface on top of a single long-lived
+// socket. Each call to "connect" returns a light-weight connection that
+// buffers the request written to it. The request is sent as one frame (see
+// Frames), starting with a new id, the first time the response is read. A
+// reader thread matches response frames to their ids so many requests can be
+// in flight at once and their responses can arrive in any order.
+//
+// The socket is opened on first use and reopened after it fails. Requests that
+// were in flight when it failed see an IOException.
+//
+// A request sent through a connection with a Listener stays registered after
+// its response arrives, so that frames the server pushes with the same id
+// later on reach the listener.
+public final class MultiplexedConnectionSource implements ConnectionSource {
+
+  // LISTENER
+  //
+  // Receives the frames the server pushes for a request after its response.
+  // Each frame is read from its own stream, which decodes values in the same
+  // protocol version as the response. Listeners are called on the reader
+  // thread, so they should not block. "onClose" is called once the socket
+  // fails or closes, after which nothing more will be pushed.
+  public interface Listener {
+    void onPush(InputStream in);
+    void onClose();
+  }
+
+  // CALLBACK
+  //
+  // Receives the response to a request sent without waiting for it (see
+  // "connect(Callback)"), or the reason there will not be one. Callbacks run
+  // on the reader thread, so they should not block.
+  public interface Callback {
+    void onResponse(InputStream in);
+    void onFailure(IOException cause);
+  }
+
+  private final static Logger.Log LOG = Logger.newLog(MultiplexedConnectionSource.class);
+
+  // Every frame on the shared socket starts with the id of its request.
+  private static final int ID_SIZE = 4;
+
+  private final String host;
+  private final int port;
+
+  private final AtomicInteger nextId = new AtomicInteger(0);
+  private final Map<Integer, PendingResponse> pending = new ConcurrentHashMap<>();
+
+  private Socket socket;
+  private OutputStream socketOut;
+
+  // The protocol version agreed with the server when the socket was opened.
+  private int version = NetworkCode.PROTOCOL_FIXED_WIDTH;
+
+  public MultiplexedConnectionSource(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override
+  public synchronized Connection connect() throws IOException {
+
+    // The socket is opened here, rather than when the request is sent, so that
+    // the request can be written in the protocol version the server agreed to.
+    if (socket == null) {
+      open();
+    }
+
+    return new FrameConnection(version, null, null);
+  }
+
+  // CONNECT
+  //
+  // Like "connect", but anything the server pushes for the request after its
+  // response is handed to "listener".
+  public synchronized Connection connect(Listener listener) throws IOException {
+
+    if (socket == null) {
+      open();
+    }
+
+    return new FrameConnection(version, listener, null);
+  }
+
+  // CONNECT
+  //
+  // Like "connect", but nothing waits for the response. Write the request to
+  // the connection and close it, which sends the request without blocking.
+  // The response, or the failure, goes to "callback". The connection's own
+  // input stream is not used.
+  public synchronized Connection connect(Callback callback) throws IOException {
+
+    if (socket == null) {
+      open();
+    }
+
+    return new FrameConnection(version, null, callback);
+  }
+
+  // REMOVE
+  //
+  // Stop handing pushes to "listener". Whatever the server pushes for its
+  // request afterwards is dropped, and "onClose" will not be called.
+  public void remove(Listener listener) {
+    final Iterator<PendingResponse> waiting = pending.values().iterator();
+    while (waiting.hasNext()) {
+      if (waiting.next().listener == listener) {
+        waiting.remove();
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (socket != null) {
+      socket.close();
+      socket = null;
+    }
+  }
+
+  private synchronized void send(int id, int requestVersion, byte[] request) throws IOException {
+
+    if (socket == null) {
+      open();
+    }
+
+    if (version != requestVersion) {
+      // The socket was reopened to a server that agreed to a different
+      // version after the request was written.
+      throw new IOException("Protocol version changed while reconnecting");
+    }
+
+    // The frame is assembled here rather than with Frames.write so that the
+    // request is only copied once.
+    final byte[] frame = new byte[Frames.HEADER_SIZE + ID_SIZE + request.length];
+    Frames.putInt(frame, 0, ID_SIZE + request.length);
+    Frames.putInt(frame, Frames.HEADER_SIZE, id);
+    System.arraycopy(request, 0, frame, Frames.HEADER_SIZE + ID_SIZE, request.length);
+
+    // Only this socket can carry the response, so only its failure fails the
+    // request.
+    final PendingResponse waiting = pending.get(id);
+    if (waiting != null) {
+      waiting.socket = socket;
+    }
+
+    try {
+      socketOut.write(frame);
+      socketOut.flush();
+    } catch (IOException ex) {
+      fail(socket, ex);
+      throw ex;
+    }
+  }
+
+  private void open() throws IOException {
+
+    final Socket opened = new Socket(host, port);
+    opened.setTcpNoDelay(true);
+
+    final OutputStream out = opened.getOutputStream();
+    final InputStream in = new BufferedInputStream(opened.getInputStream());
+
+    final ByteArrayOutputStream upgrade = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(upgrade, NetworkCode.MULTIPLEX_REQUEST);
+    Serializers.INTEGER.write(upgrade, NetworkCode.LATEST_PROTOCOL);
+    Frames.write(out, upgrade.toByteArray());
+
+    final byte[] answer = Frames.read(in);
+
+    if (answer == null ||
+        (answer.length != 4 && answer.length != 8) ||
+        Frames.getInt(answer, 0) != NetworkCode.MULTIPLEX_RESPONSE) {
+      opened.close();
+      throw new IOException("Server does not support multiplexed connections");
+    }
+
+    // Servers that predate protocol versions only send the response code.
+    final int agreed = answer.length == 8 ?
+        Frames.getInt(answer, 4) :
+        NetworkCode.PROTOCOL_FIXED_WIDTH;
+
+    if (agreed != NetworkCode.PROTOCOL_FIXED_WIDTH && agreed != NetworkCode.PROTOCOL_COMPACT) {
+      opened.close();
+      throw new IOException(String.format("Server chose unknown protocol version %d", agreed));
+    }
+
+    socket = opened;
+    socketOut = out;
+    version = agreed;
+
+    final Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (byte[] frame = Frames.read(in); frame != null; frame = Frames.read(in)) {
+
+            if (frame.length < ID_SIZE) {
+              throw new IOException("Response frame has no request id");
+            }
+
+            final int id = Frames.getInt(frame, 0);
+            final byte[] response = Arrays.copyOfRange(frame, ID_SIZE, frame.length);
+
+            final PendingResponse waiting = pending.get(id);
+            if (waiting == null) {
+              LOG.warning("Response for unknown request %d", id);
+            } else if (waiting.isDone()) {
+              // Only requests with a listener stay registered after their
+              // response, so this is a push.
+              waiting.push(response);
+            } else {
+              if (waiting.listener == null) {
+                pending.remove(id);
+              }
+              waiting.complete(response);
+            }
+          }
+          fail(opened, new EOFException("Server closed the connection"));
+        } catch (IOException ex) {
+          fail(opened, ex);
+        }
+      }
+    };
+
+    reader.setDaemon(true);
+    reader.start();
+
+    LOG.info("Multiplexed connection to %s:%d opened with protocol version %d.", host, port, version);
+  }
+
+  // Forget the socket (if it is still the current one) and fail everything
+  // that was sent on it. Requests sent on a newer socket, or not sent yet, are
+  // left alone. The next request will open a new socket.
+  private void fail(Socket failed, IOException cause) {
+
+    synchronized (this) {
+      if (socket == failed) {
+        socket = null;
+        socketOut = null;
+      }
+    }
+
+    try {
+      failed.close();
+    } catch (IOException ex) {
+      // The socket is being thrown away, there is nothing else to do.
+    }
+
+    for (final Map.Entry<Integer, PendingResponse> entry : pending.entrySet()) {
+      final PendingResponse waiting = entry.getValue();
+      if (waiting.socket == failed && pending.remove(entry.getKey()) != null) {
+        waiting.completeExceptionally(cause);
+      }
+    }
+  }
+
+  // FRAME CONNECTION
+  //
+  // A single request/response pair on the shared socket. In any protocol
+  // version after the fixed-width one, the request starts with the version
+  // and both directions use the compact encoding.
+  private final class FrameConnection implements Connection {
+
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    private final int version;
+    private final int header;
+    private final Listener listener;
+    private final Callback callback;
+
+    private final OutputStream requestOut;
+    private final InputStream responseIn;
+
+    private final InputStream response = new InputStream() {
+
+      private InputStream bytes;
+
+      @Override
+      public int read() throws IOException {
+        if (bytes == null) {
+          bytes = new ByteArrayInputStream(exchange());
+        }
+        return bytes.read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (bytes == null) {
+          bytes = new ByteArrayInputStream(exchange());
+        }
+        return bytes.read(buffer, offset, length);
+      }
+    };
+
+    private boolean sent = false;
+
+    public FrameConnection(int version, Listener listener, Callback callback) {
+      this.version = version;
+      this.listener = listener;
+      this.callback = callback;
+      if (version == NetworkCode.PROTOCOL_COMPACT) {
+        request.write(version);
+        requestOut = new Compact.Output(request);
+        responseIn = new Compact.Input(response);
+      } else {
+        requestOut = request;
+        responseIn = response;
+      }
+      header = request.size();
+    }
+
+    @Override
+    public InputStream in() {
+      return responseIn;
+    }
+
+    @Override
+    public OutputStream out() {
+      return requestOut;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+      if (callback != null) {
+        sendForCallback();
+        return;
+      }
+
+      if (!sent && request.size() > header) {
+        // Nothing read the response, but the request may still have side
+        // effects that the caller expects to happen. The response will be
+        // dropped when it arrives.
+        final int id = nextId.incrementAndGet();
+        pending.put(id, new PendingResponse(version, listener, null));
+        sent = true;
+        send(id, version, request.toByteArray());
+      }
+    }
+
+    // Send the request and leave the response to the callback. Any failure
+    // goes to the callback as well, rather than out of "close".
+    private void sendForCallback() {
+
+      if (sent) {
+        return;
+      }
+
+      sent = true;
+
+      if (request.size() <= header) {
+        callback.onFailure(new IOException("Nothing was written to the request"));
+        return;
+      }
+
+      final int id = nextId.incrementAndGet();
+      pending.put(id, new PendingResponse(version, null, callback));
+
+      try {
+        send(id, version, request.toByteArray());
+      } catch (IOException ex) {
+        // If the socket failed, everything sent on it was already failed,
+        // which included this request.
+        if (pending.remove(id) != null) {
+          callback.onFailure(ex);
+        }
+      }
+    }
+
+    private byte[] exchange() throws IOException {
+
+      final int id = nextId.incrementAndGet();
+      final PendingResponse future = new PendingResponse(version, listener, null);
+
+      pending.put(id, future);
+      sent = true;
+
+      boolean answered = false;
+
+      try {
+        send(id, version, request.toByteArray());
+        final byte[] response = future.get();
+        answered = true;
+        return response;
+      } finally {
+        // A request with a listener stays registered for its pushes.
+        if (!answered || listener == null) {
+          pending.remove(id);
+        }
+      }
+    }
+  }
+
+  // PENDING RESPONSE
+  //
+  // Where the reader thread leaves the response, or the reason there will not
+  // be one, for the thread waiting on a request or for its callback. Pushes
+  // that follow the response go to the listener, if there is one.
+  private static final class PendingResponse {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private final int version;
+    public final Listener listener;
+    private final Callback callback;
+
+    // The socket the request was sent on, or null if it has not been sent.
+    public volatile Socket socket;
+
+    private volatile byte[] response;
+    private volatile IOException failure;
+
+    public PendingResponse(int version, Listener listener, Callback callback) {
+      this.version = version;
+      this.listener = listener;
+      this.callback = callback;
+    }
+
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    public void complete(byte[] response) {
+      this.response = response;
+      done.countDown();
+      if (callback != null) {
+        callback.onResponse(decode(response));
+      }
+    }
+
+    public void completeExceptionally(IOException failure) {
+      this.failure = failure;
+      done.countDown();
+      if (listener != null) {
+        listener.onClose();
+      }
+      if (callback != null) {
+        callback.onFailure(failure);
+      }
+    }
+
+    public void push(byte[] frame) {
+      if (listener != null) {
+        listener.onPush(decode(frame));
+      }
+    }
+
+    private InputStream decode(byte[] frame) {
+      final InputStream in = new ByteArrayInputStream(frame);
+      return version == NetworkCode.PROTOCOL_COMPACT ? new Compact.Input(in) : in;
+    }
+
+    public byte[] get() throws IOException {
+      try {
+        done.await();
+      } catch (InterruptedException ex) {
+        throw new IOException("Interrupted while waiting for response", ex);
+      }
+      if (failure != null) {
+        throw new IOException("Connection failed while waiting for response", failure);
+      }
+      return response;
+    }
+  }
+}
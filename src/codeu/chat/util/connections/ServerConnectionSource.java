@@ -15,16 +15,14 @@
 package codeu.chat.util.connections;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ServerSocket;
-import java.net.Socket;
 
 // SERVER CONNECTION SOURCE
 //
 // Implements the ConnectionSource interface for servers who need to host
 // one of their ports so that clients can connect to it. Calls to "connect"
-// will block until a connection is established.
+// will block until a connection is established. Requests and responses are
+// sent as frames, see FramedConnection.
 public final class ServerConnectionSource implements ConnectionSource {
 
   private final ServerSocket serverSocket;
@@ -35,7 +33,7 @@ public final class ServerConnectionSource implements ConnectionSource {
 
   @Override
   public Connection connect() throws IOException {
-    return fromSocket(serverSocket.accept());
+    return new FramedConnection(serverSocket.accept());
   }
 
   @Override
@@ -43,27 +41,6 @@ public final class ServerConnectionSource implements ConnectionSource {
     serverSocket.close();
   }
 
-  private static Connection fromSocket(final Socket socket) throws IOException {
-
-    return new Connection() {
-
-      @Override
-      public InputStream in() throws IOException {
-        return socket.getInputStream();
-      }
-
-      @Override
-      public OutputStream out() throws IOException {
-        return socket.getOutputStream();
-      }
-
-      @Override
-      public void close() throws IOException {
-        socket.close();
-      }
-    };
-  }
-
   public static ConnectionSource forPort(int port) throws IOException {
     return new ServerConnectionSource(new ServerSocket(port));
   }
@@ -0,0 +1,259 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// CONCURRENT STORE
+//
+// A StoreAccessor that can be read from many threads while another thread
+// inserts, without readers taking any lock. Inserts are serialized with each
+// other.
+//
+// Keys live in a ConcurrentSkipListMap. Each key holds a Run: the values for
+// that key in insert order. A run is never changed once readers can see it;
+// an insert publishes a new run that shares the old one's arrays and counts
+// one more value. Every value is also given the sequence number of its
+// insert. An iterator remembers the last sequence number that was published
+// when it was made and skips anything newer, so it sees the store exactly as
+// it was at that moment, even while inserts continue. Removing a key is the
+// exception: an iterator that has not reached the key yet may or may not see
+// its values.
+public final class ConcurrentStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
+
+  // RUN
+  //
+  // The first "count" entries of "values" and "sequences" are the values for
+  // one key and when each was inserted. The arrays may be longer and may be
+  // shared with a newer run, but the entries a run counts never change.
+  private static final class Run {
+
+    public final Object[] values;
+    public final long[] sequences;
+    public final int count;
+
+    public Run(Object[] values, long[] sequences, int count) {
+      this.values = values;
+      this.sequences = sequences;
+      this.count = count;
+    }
+
+    public Run append(Object value, long sequence) {
+
+      Object[] values = this.values;
+      long[] sequences = this.sequences;
+
+      // Only the newest run can have entries past its count, so if the slot
+      // is free no reader is looking at it yet. If not, grow by doubling so
+      // that appends stay O(1) on average.
+      if (count == values.length) {
+        values = Arrays.copyOf(values, Math.max(1, 2 * count));
+        sequences = Arrays.copyOf(sequences, values.length);
+      }
+
+      values[count] = value;
+      sequences[count] = sequence;
+
+      return new Run(values, sequences, count + 1);
+    }
+  }
+
+  private static final Run EMPTY = new Run(new Object[0], new long[0], 0);
+
+  // The runs are replaced rather than changed, so a bucket only needs a
+  // volatile reference to the newest one.
+  private static final class Bucket {
+    public volatile Run run = EMPTY;
+  }
+
+  private final ConcurrentSkipListMap<KEY, Bucket> index;
+
+  // The sequence number of the last insert that readers may see. It is also
+  // the number of values in the store. Written after the insert's run so
+  // that anything at or below it can be found.
+  private volatile long published = 0;
+
+  // How many values were taken out by "remove".
+  private volatile long removed = 0;
+
+  public ConcurrentStore(Comparator<KEY> comparator) {
+    this.index = new ConcurrentSkipListMap<>(comparator);
+  }
+
+  public synchronized void insert(KEY key, VALUE value) {
+
+    Bucket bucket = index.get(key);
+
+    if (bucket == null) {
+      bucket = new Bucket();
+      index.put(key, bucket);
+    }
+
+    final long sequence = published + 1;
+    bucket.run = bucket.run.append(value, sequence);
+    published = sequence;
+  }
+
+  // REMOVE
+  //
+  // Take every value stored under "key" out of the store.
+  public synchronized void remove(KEY key) {
+    final Bucket bucket = index.remove(key);
+    if (bucket != null) {
+      removed += bucket.run.count;
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public VALUE first(KEY key) {
+    // The skip list does not take null keys, but nothing is stored under one.
+    final Bucket bucket = key == null ? null : index.get(key);
+    final Run run = bucket == null ? EMPTY : bucket.run;
+    return run.count == 0 ? null : (VALUE) run.values[0];
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return iterable(index);
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    return iterable(index.subMap(key, true, key, true));
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    return iterable(index.tailMap(start, true));
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    return iterable(index.headMap(end, true));
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+    // Like Store, an empty range rather than an error when "end" comes
+    // before "start".
+    if (index.comparator().compare(start, end) > 0) {
+      return iterable(index.subMap(start, true, start, false));
+    }
+    return iterable(index.subMap(start, true, end, true));
+  }
+
+  @Override
+  public int size() {
+    return (int) (published - removed);
+  }
+
+  // ENTRIES
+  //
+  // Like all(), but each value comes with the key it is stored under.
+  public Iterable<Map.Entry<KEY, VALUE>> entries() {
+    return new Iterable<Map.Entry<KEY, VALUE>>() {
+      @Override
+      public Iterator<Map.Entry<KEY, VALUE>> iterator() {
+
+        final SnapshotIterator values = new SnapshotIterator(index, published);
+
+        return new Iterator<Map.Entry<KEY, VALUE>>() {
+
+          @Override
+          public boolean hasNext() {
+            return values.hasNext();
+          }
+
+          @Override
+          public Map.Entry<KEY, VALUE> next() {
+            // hasNext() moves the iterator to the value's bucket, so the key
+            // has to be read first.
+            values.hasNext();
+            final KEY key = values.key;
+            return new AbstractMap.SimpleImmutableEntry<>(key, values.next());
+          }
+
+          @Override
+          public void remove() {
+            // do nothing
+          }
+        };
+      }
+    };
+  }
+
+  private Iterable<VALUE> iterable(final NavigableMap<KEY, Bucket> buckets) {
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        return new SnapshotIterator(buckets, published);
+      }
+    };
+  }
+
+  // Walks the runs of "buckets" in key order, stopping in each run at the
+  // first value inserted after "snapshot".
+  private final class SnapshotIterator implements Iterator<VALUE> {
+
+    private final Iterator<Map.Entry<KEY, Bucket>> buckets;
+    private final long snapshot;
+
+    private KEY key;
+    private Run run = EMPTY;
+    private int position = 0;
+
+    public SnapshotIterator(NavigableMap<KEY, Bucket> buckets, long snapshot) {
+      this.buckets = buckets.entrySet().iterator();
+      this.snapshot = snapshot;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (position >= run.count || run.sequences[position] > snapshot) {
+        if (!buckets.hasNext()) {
+          return false;
+        }
+        final Map.Entry<KEY, Bucket> bucket = buckets.next();
+        key = bucket.getKey();
+        run = bucket.getValue().run;
+        position = 0;
+      }
+      return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public VALUE next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return (VALUE) run.values[position++];
+    }
+
+    @Override
+    public void remove() {
+      // do nothing
+    }
+  }
+}
@@ -21,15 +21,37 @@ import java.util.TreeMap;
 
 public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
 
+  // BUCKET
+  //
+  // The run of links that share one key. "first" is where iteration over the
+  // key starts and "last" is where the next value with the key goes, so that
+  // inserting a duplicate never walks the ones already there.
+  private static final class Bucket<KEY, VALUE> {
+
+    public final StoreLink<KEY, VALUE> first;
+    public StoreLink<KEY, VALUE> last;
+
+    public Bucket(StoreLink<KEY, VALUE> link) {
+      this.first = link;
+      this.last = link;
+    }
+  }
+
   // To make the code simpler - use a dummy link for the first link in this
   // list. The root link is never read from. To avoid reading from this link
   // the "next" value is used more than the "this" or "current" reference.
   private final StoreLink<KEY, VALUE> rootLink = new StoreLink<>(null, null, null);
 
-  private final NavigableMap<KEY, StoreLink<KEY, VALUE>> index;
+  // One bucket per distinct key. Every link is reachable from the root link,
+  // the index is only there to find a place in the chain in O(log n).
+  private final NavigableMap<KEY, Bucket<KEY, VALUE>> index;
 
   private final Comparator<KEY> comparator;
 
+  // The number of values in the store, counting every value under a duplicate
+  // key. Kept so that the size is known without walking the links.
+  private int size = 0;
+
   public Store(Comparator<KEY> comparator) {
     this.index = new TreeMap<>(comparator);
     this.comparator = comparator;
@@ -37,40 +59,29 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
 
   public void insert(KEY key, VALUE value) {
 
-    final StoreLink<KEY, VALUE> closestLink = floor(key);
-
-    // Assume that the new value can only come after the current position. Move
-    // through the chain of links until the next link is either the end (null)
-    // or will logically come after the new value.
-    StoreLink<KEY, VALUE> current = (closestLink == null) ? (rootLink) : (closestLink);
-    while(current.next != null && comparator.compare(current.next.key, key) <= 0) {
-      current = current.next;
-    }
+    // The new value goes straight after the last link of the greatest key
+    // that is not after it. For an existing key that puts it at the end of
+    // the key's series, for a new key it is the key's first link.
+    final Map.Entry<KEY, Bucket<KEY, VALUE>> floor = index.floorEntry(key);
+    final StoreLink<KEY, VALUE> current = (floor == null) ? (rootLink) : (floor.getValue().last);
 
     // "current.next" may be null, but "current" can never be null. So it
     // should always be safe to call to current.
     final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, current.next);
     current.next = newLink;
+    size += 1;
 
-    // Before adding the link to the index, first check if the hint has an
-    // equal key. If it does - do not add the index.
-    //
-    // There are two reasons for this:
-    //  1. The index class does not handle duplicate keys well (as stated in
-    //     the code for the index).
-    //  2. There is no advantage to having multiple equal keys in the index as
-    //     it would not help with the interators. As long as the key will map
-    //     to the first link, the other links will always be found. This is
-    //     why the insert is always put at the end of the series.
-    if (closestLink == null || comparator.compare(newLink.key, closestLink.key) != 0) {
-      index.put(key, newLink);
+    if (floor != null && comparator.compare(key, floor.getKey()) == 0) {
+      floor.getValue().last = newLink;
+    } else {
+      index.put(key, new Bucket<>(newLink));
     }
   }
 
   @Override
   public VALUE first(KEY key) {
-    final StoreLink<KEY, VALUE> link = index.get(key);
-    return link == null ? null : link.value;
+    final Bucket<KEY, VALUE> bucket = index.get(key);
+    return bucket == null ? null : bucket.first.value;
   }
 
   @Override
@@ -98,6 +109,11 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     return new LinkIterable<KEY, VALUE>(comparator, ceiling(start), floor(end));
   }
 
+  @Override
+  public int size() {
+    return size;
+  }
+
   private StoreLink<KEY, VALUE> first() {
     return extract(index.firstEntry());
   }
@@ -114,7 +130,7 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     return extract(index.floorEntry(key));
   }
 
-  private StoreLink<KEY, VALUE> extract(Map.Entry<KEY, StoreLink<KEY, VALUE>> entry) {
-    return entry == null ? null : entry.getValue();
+  private StoreLink<KEY, VALUE> extract(Map.Entry<KEY, Bucket<KEY, VALUE>> entry) {
+    return entry == null ? null : entry.getValue().first;
   }
 }
@@ -0,0 +1,395 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import codeu.chat.util.Time;
+
+// TIME STORE
+//
+// A StoreAccessor for values keyed by time. Keys are kept as primitive
+// milliseconds in sorted long[] blocks beside matching arrays of values, and
+// are found with a binary search, so no Time objects or boxed keys are held
+// and comparing keys never goes through a Comparator.
+//
+// Time-ordered data is nearly always inserted in order, which is an append
+// into spare room at the end of the last block, the tail. A full tail is
+// sealed and a new one started. An insert that goes anywhere else copies only
+// the block it lands in, splitting the block if it is full, and the array of
+// block references. That costs O(BLOCK_SIZE + n / BLOCK_SIZE) rather than
+// O(n).
+//
+// Like ConcurrentStore, reads do not lock. A read works on the Blocks that
+// were published when it started. Entries never change in the range they
+// count: appends only write past it and other inserts make new arrays. The
+// same goes for the array of sealed blocks.
+public final class TimeStore<VALUE> implements StoreAccessor<Time, VALUE> {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int BLOCK_SIZE = 2048;
+
+  private static final class Entries {
+
+    public final long[] keys;
+    public final Object[] values;
+    public final int count;
+
+    public Entries(long[] keys, Object[] values, int count) {
+      this.keys = keys;
+      this.values = values;
+      this.count = count;
+    }
+
+    // The index of the first key that is not before "key".
+    public int lower(long key) {
+      int low = 0;
+      int high = count;
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+        if (keys[middle] < key) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    // The index of the first key that is after "key".
+    public int upper(long key) {
+      int low = 0;
+      int high = count;
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+        if (keys[middle] <= key) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    public Entries append(long key, Object value) {
+
+      long[] keys = this.keys;
+      Object[] values = this.values;
+
+      if (count == keys.length) {
+        keys = Arrays.copyOf(keys, 2 * count);
+        values = Arrays.copyOf(values, 2 * count);
+      }
+
+      keys[count] = key;
+      values[count] = value;
+
+      return new Entries(keys, values, count + 1);
+    }
+
+    // Readers may still be using these arrays, so the values after the new
+    // one are moved in a copy rather than in place.
+    public Entries insert(int at, long key, Object value) {
+
+      final int capacity = count < this.keys.length ? this.keys.length : 2 * count;
+
+      final long[] keys = new long[capacity];
+      final Object[] values = new Object[capacity];
+
+      System.arraycopy(this.keys, 0, keys, 0, at);
+      System.arraycopy(this.values, 0, values, 0, at);
+      keys[at] = key;
+      values[at] = value;
+      System.arraycopy(this.keys, at, keys, at + 1, count - at);
+      System.arraycopy(this.values, at, values, at + 1, count - at);
+
+      return new Entries(keys, values, count + 1);
+    }
+
+    public Entries slice(int from, int to) {
+      return new Entries(Arrays.copyOfRange(keys, from, to),
+                         Arrays.copyOfRange(values, from, to),
+                         to - from);
+    }
+  }
+
+  private static final class Blocks {
+
+    // Only the first "sealed" references are part of these Blocks. The tail
+    // is kept apart so that an append does not have to copy the array.
+    public final Entries[] sealed;
+    public final int sealedCount;
+    public final Entries tail;
+    public final int count;
+
+    public Blocks(Entries[] sealed, int sealedCount, Entries tail, int count) {
+      this.sealed = sealed;
+      this.sealedCount = sealedCount;
+      this.tail = tail;
+      this.count = count;
+    }
+
+    // Blocks are numbered in order, the tail being the last.
+    public Entries block(int index) {
+      return index < sealedCount ? sealed[index] : tail;
+    }
+
+    // The index of the first block with a key that is not before "key", or
+    // the tail if there is none.
+    public int lower(long key) {
+      int low = 0;
+      int high = sealedCount;
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+        final Entries block = sealed[middle];
+        if (block.keys[block.count - 1] < key) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    // The index of the first block with a key that is after "key", or the
+    // tail if there is none.
+    public int upper(long key) {
+      int low = 0;
+      int high = sealedCount;
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+        final Entries block = sealed[middle];
+        if (block.keys[block.count - 1] <= key) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+
+  private volatile Blocks blocks = new Blocks(new Entries[INITIAL_CAPACITY], 0, emptyTail(), 0);
+
+  public void insert(Time key, VALUE value) {
+    insert(key.inMs(), value);
+  }
+
+  // Values with equal keys stay in the order they were inserted.
+  public synchronized void insert(long key, VALUE value) {
+
+    Blocks current = blocks;
+
+    if (current.tail.count == BLOCK_SIZE) {
+      current = seal(current);
+    }
+
+    final int block = current.upper(key);
+
+    if (block == current.sealedCount) {
+
+      final Entries tail = current.tail;
+      final int at = tail.upper(key);
+
+      blocks = new Blocks(current.sealed,
+                          current.sealedCount,
+                          at == tail.count ? tail.append(key, value) : tail.insert(at, key, value),
+                          current.count + 1);
+
+    } else {
+
+      final Entries target = current.sealed[block];
+      final int at = target.upper(key);
+
+      final Entries[] sealed;
+      final int sealedCount;
+
+      if (target.count < BLOCK_SIZE) {
+
+        sealed = Arrays.copyOf(current.sealed, current.sealed.length);
+        sealedCount = current.sealedCount;
+        sealed[block] = target.insert(at, key, value);
+
+      } else {
+
+        // A full block is split in two, and the new value goes into the half
+        // it belongs in.
+        final int half = target.count / 2;
+
+        Entries low = target.slice(0, half);
+        Entries high = target.slice(half, target.count);
+
+        if (at <= half) {
+          low = low.insert(at, key, value);
+        } else {
+          high = high.insert(at - half, key, value);
+        }
+
+        sealedCount = current.sealedCount + 1;
+        sealed = new Entries[Math.max(current.sealed.length, sealedCount)];
+
+        System.arraycopy(current.sealed, 0, sealed, 0, block);
+        sealed[block] = low;
+        sealed[block + 1] = high;
+        System.arraycopy(current.sealed, block + 1, sealed, block + 2, current.sealedCount - block - 1);
+      }
+
+      blocks = new Blocks(sealed, sealedCount, current.tail, current.count + 1);
+    }
+  }
+
+  // Readers only look at the sealed blocks they count, so the tail can be
+  // added past them in place.
+  private static Blocks seal(Blocks current) {
+
+    Entries[] sealed = current.sealed;
+
+    if (current.sealedCount == sealed.length) {
+      sealed = Arrays.copyOf(sealed, 2 * sealed.length);
+    }
+
+    sealed[current.sealedCount] = current.tail;
+
+    return new Blocks(sealed, current.sealedCount + 1, emptyTail(), current.count);
+  }
+
+  private static Entries emptyTail() {
+    return new Entries(new long[INITIAL_CAPACITY], new Object[INITIAL_CAPACITY], 0);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public VALUE first(Time key) {
+    final Blocks current = blocks;
+    final long ms = key.inMs();
+    final Entries block = current.block(current.lower(ms));
+    final int at = block.lower(ms);
+    return at < block.count && block.keys[at] == ms ? (VALUE) block.values[at] : null;
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        final Blocks current = blocks;
+        return new EntryIterator(current, 0, 0, current.sealedCount, current.tail.count);
+      }
+    };
+  }
+
+  @Override
+  public Iterable<VALUE> at(Time key) {
+    return range(key, key);
+  }
+
+  @Override
+  public Iterable<VALUE> after(Time start) {
+    final long ms = start.inMs();
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        final Blocks current = blocks;
+        final int block = current.lower(ms);
+        return new EntryIterator(current,
+                                 block, current.block(block).lower(ms),
+                                 current.sealedCount, current.tail.count);
+      }
+    };
+  }
+
+  @Override
+  public Iterable<VALUE> before(Time end) {
+    final long ms = end.inMs();
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        final Blocks current = blocks;
+        final int block = current.upper(ms);
+        return new EntryIterator(current,
+                                 0, 0,
+                                 block, current.block(block).upper(ms));
+      }
+    };
+  }
+
+  @Override
+  public Iterable<VALUE> range(Time start, Time end) {
+    final long startMs = start.inMs();
+    final long endMs = end.inMs();
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        final Blocks current = blocks;
+        final int startBlock = current.lower(startMs);
+        final int endBlock = current.upper(endMs);
+        return new EntryIterator(current,
+                                 startBlock, current.block(startBlock).lower(startMs),
+                                 endBlock, current.block(endBlock).upper(endMs));
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    return blocks.count;
+  }
+
+  // Positions are a block and an index in it. A position at the end of a
+  // block is the same as the start of the next one.
+  private final class EntryIterator implements Iterator<VALUE> {
+
+    private final Blocks blocks;
+    private final int endBlock;
+    private final int endIndex;
+
+    private int block;
+    private int index;
+
+    public EntryIterator(Blocks blocks, int startBlock, int startIndex, int endBlock, int endIndex) {
+      this.blocks = blocks;
+      this.block = startBlock;
+      this.index = startIndex;
+      this.endBlock = endBlock;
+      this.endIndex = endIndex;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (block < endBlock && index == blocks.block(block).count) {
+        block += 1;
+        index = 0;
+      }
+      return block < endBlock || (block == endBlock && index < endIndex);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public VALUE next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return (VALUE) blocks.block(block).values[index++];
+    }
+
+    @Override
+    public void remove() {
+      // do nothing
+    }
+  }
+}
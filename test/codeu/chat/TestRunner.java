@@ -22,13 +22,32 @@ public final class TestRunner {
   public static void main(String[] args) {
      final Result result =
          JUnitCore.runClasses(
+             codeu.chat.client.core.AsyncCallsTest.class,
+             codeu.chat.client.core.CachingViewTest.class,
              codeu.chat.common.SecretTest.class,
              codeu.chat.relay.ServerTest.class,
              codeu.chat.server.BasicControllerTest.class,
+             codeu.chat.server.ConversationIndexTest.class,
+             codeu.chat.server.DispatcherTest.class,
+             codeu.chat.server.FileLoaderTest.class,
+             codeu.chat.server.FileWriterTest.class,
              codeu.chat.server.RawControllerTest.class,
+             codeu.chat.server.SearchIndexTest.class,
+             codeu.chat.server.SelectorEngineTest.class,
+             codeu.chat.server.SnapshotTest.class,
+             codeu.chat.server.SubscriptionsTest.class,
+             codeu.chat.server.ThreadEngineTest.class,
+             codeu.chat.server.ViewTest.class,
+             codeu.chat.util.BufferSerializersTest.class,
+             codeu.chat.util.CompactTest.class,
+             codeu.chat.util.Crc32cTest.class,
+             codeu.chat.util.PromiseTest.class,
              codeu.chat.util.TimeTest.class,
              codeu.chat.util.UuidTest.class,
+             codeu.chat.util.connections.MultiplexedConnectionSourceTest.class,
+             codeu.chat.util.store.ConcurrentStoreTest.class,
              codeu.chat.util.store.StoreTest.class,
+             codeu.chat.util.store.TimeStoreTest.class,
              codeu.chat.util.TokenizerTest.class
          );
       for (final Failure failure : result.getFailures()) {
@@ -0,0 +1,268 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.server.Engine;
+import codeu.chat.server.SelectorEngine;
+import codeu.chat.util.Promise;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Frames;
+import codeu.chat.util.connections.MultiplexedConnectionSource;
+
+// Runs the async client against a live engine whose handler holds every
+// request until the test answers it.
+public final class AsyncCallsTest {
+
+  private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+
+  private int port;
+  private Engine engine;
+  private MultiplexedConnectionSource source;
+
+  @Before
+  public void doBefore() throws Exception {
+
+    port = freePort();
+
+    engine = new SelectorEngine(port, new Engine.Handler() {
+      @Override
+      public void onRequest(byte[] request, Engine.Reply reply) {
+        final int type = Frames.getInt(request, 0);
+        if (type == NetworkCode.MULTIPLEX_REQUEST) {
+          final ByteBuffer response = ByteBuffer.allocate(4);
+          response.putInt(NetworkCode.MULTIPLEX_RESPONSE);
+          response.flip();
+          reply.multiplex(response);
+        } else {
+          requests.add(new Request(type, reply));
+        }
+      }
+    });
+
+    final Thread thread = new Thread() {
+      @Override
+      public void run() {
+        engine.run();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+
+    source = new MultiplexedConnectionSource("localhost", port);
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    source.close();
+    engine.close();
+  }
+
+  @Test
+  public void testInFlightRequestsAreBounded() throws Exception {
+
+    final AsyncView view = new AsyncContext(source, 2).view();
+
+    final Promise<Collection<User>> first = view.getUsers();
+    final Promise<Collection<User>> second = view.getUsers();
+
+    // The third call has to wait for a permit.
+    final CountDownLatch thirdSent = new CountDownLatch(1);
+    final Thread third = new Thread() {
+      @Override
+      public void run() {
+        view.getUsers();
+        thirdSent.countDown();
+      }
+    };
+    third.setDaemon(true);
+    third.start();
+
+    final Request answered = requests.poll(5, TimeUnit.SECONDS);
+    assertNotNull(answered);
+    assertNotNull(requests.poll(5, TimeUnit.SECONDS));
+    assertEquals(NetworkCode.GET_USERS_REQUEST, answered.type);
+
+    assertFalse(thirdSent.await(200, TimeUnit.MILLISECONDS));
+    assertNull(requests.poll(100, TimeUnit.MILLISECONDS));
+
+    answered.answer(emptyUsers());
+
+    assertTrue(thirdSent.await(5, TimeUnit.SECONDS));
+    assertNotNull(requests.poll(5, TimeUnit.SECONDS));
+
+    // Only the answered request finishes. Which of the two it was depends on
+    // the order they reached the handler. Its permit is given back before it
+    // finishes, so the third call may have gone out first.
+    final CountDownLatch oneDone = new CountDownLatch(1);
+    final Promise.Callback<Collection<User>> finished = new Promise.Callback<Collection<User>>() {
+      @Override
+      public void onSuccess(Collection<User> value) {
+        oneDone.countDown();
+      }
+
+      @Override
+      public void onFailure(Throwable cause) {
+        oneDone.countDown();
+      }
+    };
+    first.then(finished);
+    second.then(finished);
+    assertTrue(oneDone.await(5, TimeUnit.SECONDS));
+
+    final Promise<Collection<User>> done = first.isDone() ? first : second;
+    assertTrue(done.get(5, TimeUnit.SECONDS).isEmpty());
+    assertFalse(first.isDone() && second.isDone());
+  }
+
+  @Test
+  public void testFailedWriteReleasesItsPermit() throws Exception {
+
+    final AsyncCalls calls = new AsyncCalls(source, 1);
+
+    final AsyncCalls.Request broken = new AsyncCalls.Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        throw new IOException("Failed to write request");
+      }
+    };
+
+    // With one permit, each call after the first only gets to run if the
+    // call before it gave its permit back.
+    assertFailed(callInTurn(calls, broken));
+    assertFailed(callInTurn(calls, broken));
+
+    // A server that cannot be reached fails the write the same way.
+    engine.close();
+    source.close();
+
+    final AsyncCalls unreachable = new AsyncCalls(new MultiplexedConnectionSource("localhost", freePort()), 1);
+    assertFailed(callInTurn(unreachable, AsyncCalls.EMPTY));
+    assertFailed(callInTurn(unreachable, AsyncCalls.EMPTY));
+  }
+
+  @Test
+  public void testServerErrorFailsThePromise() throws Exception {
+
+    final AsyncController controller = new AsyncContext(source, 4).controller();
+
+    // A server that fails a request sends an empty response.
+    final Promise<User> empty = controller.newUser("empty");
+    requests.poll(5, TimeUnit.SECONDS).answer(new byte[0]);
+    assertFailed(empty);
+
+    // A server that does not know the request answers with NO_MESSAGE.
+    final Promise<User> unknown = controller.newUser("unknown");
+    final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(code, NetworkCode.NO_MESSAGE);
+    requests.poll(5, TimeUnit.SECONDS).answer(code.toByteArray());
+    assertFailed(unknown);
+
+    // The permits of failed requests are given back.
+    final Promise<User> created = controller.newUser("created");
+    final ByteArrayOutputStream user = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(user, NetworkCode.NEW_USER_RESPONSE);
+    Serializers.nullable(User.SERIALIZER).write(user, null);
+    requests.poll(5, TimeUnit.SECONDS).answer(user.toByteArray());
+    assertNull(created.get(5, TimeUnit.SECONDS));
+  }
+
+  private static final AsyncCalls.Response<Collection<User>> USERS = new AsyncCalls.Response<Collection<User>>() {
+    @Override
+    public Collection<User> read(InputStream in) throws IOException {
+      return Serializers.collection(User.SERIALIZER).read(in);
+    }
+  };
+
+  // Makes the call on a thread of its own, so that a call that never gets a
+  // permit fails the test rather than hanging it.
+  private static Promise<Collection<User>> callInTurn(final AsyncCalls calls,
+                                                      final AsyncCalls.Request request)
+      throws Exception {
+
+    final BlockingQueue<Promise<Collection<User>>> made = new LinkedBlockingQueue<>();
+
+    final Thread thread = new Thread() {
+      @Override
+      public void run() {
+        made.add(calls.call(NetworkCode.GET_USERS_REQUEST, request, NetworkCode.GET_USERS_RESPONSE, USERS));
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+
+    final Promise<Collection<User>> promise = made.poll(5, TimeUnit.SECONDS);
+    assertNotNull("Call did not get a permit", promise);
+    return promise;
+  }
+
+  private static byte[] emptyUsers() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(bytes, NetworkCode.GET_USERS_RESPONSE);
+    Serializers.collection(User.SERIALIZER).write(bytes, Collections.<User>emptyList());
+    return bytes.toByteArray();
+  }
+
+  private static void assertFailed(Promise<?> promise) throws Exception {
+    try {
+      promise.get(5, TimeUnit.SECONDS);
+      fail("Promise did not fail");
+    } catch (ExecutionException ex) {
+      // Expected.
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (final ServerSocket free = new ServerSocket(0)) {
+      return free.getLocalPort();
+    }
+  }
+
+  private static final class Request {
+
+    public final int type;
+    private final Engine.Reply reply;
+
+    public Request(int type, Engine.Reply reply) {
+      this.type = type;
+      this.reply = reply;
+    }
+
+    public void answer(byte[] response) {
+      reply.send(ByteBuffer.wrap(response));
+    }
+  }
+}
@@ -0,0 +1,258 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.Changes;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.MessagePosition;
+import codeu.chat.common.Page;
+import codeu.chat.common.ServerInfo;
+import codeu.chat.common.User;
+import codeu.chat.server.Controller;
+import codeu.chat.server.Model;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class CachingViewTest {
+
+  // Stands in for the server. Counts requests for changes apart from every
+  // other read. Messages are copied,
+  // as they would be over the network, so that the model changing them later
+  // does not change what the cache holds.
+  private static final class CountingView implements BasicView {
+
+    private final BasicView view;
+    public int reads = 0;
+    public int changes = 0;
+
+    public CountingView(BasicView view) {
+      this.view = view;
+    }
+
+    @Override
+    public Collection<User> getUsers() { reads++; return view.getUsers(); }
+
+    @Override
+    public Page<User> getUsers(Uuid start, int limit) { reads++; return view.getUsers(start, limit); }
+
+    @Override
+    public ServerInfo getInfo() { reads++; return view.getInfo(); }
+
+    @Override
+    public Collection<ConversationHeader> getConversations() { reads++; return view.getConversations(); }
+
+    @Override
+    public Page<ConversationHeader> getConversations(Uuid start, int limit) {
+      reads++;
+      return view.getConversations(start, limit);
+    }
+
+    @Override
+    public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
+      reads++;
+      return view.getConversationPayloads(ids);
+    }
+
+    @Override
+    public Collection<Message> getMessages(Collection<Uuid> ids) { reads++; return copy(view.getMessages(ids)); }
+
+    @Override
+    public Collection<Message> getConversationMessages(Uuid conversation,
+                                                       MessagePosition position,
+                                                       Uuid after,
+                                                       int limit) {
+      reads++;
+      return copy(view.getConversationMessages(conversation, position, after, limit));
+    }
+
+    @Override
+    public Changes getChanges(long since) { changes++; return view.getChanges(since); }
+
+    @Override
+    public Collection<User> getUsersByPrefix(String prefix, int limit) {
+      reads++;
+      return view.getUsersByPrefix(prefix, limit);
+    }
+
+    @Override
+    public Collection<ConversationHeader> getConversationsByPrefix(String prefix, int limit) {
+      reads++;
+      return view.getConversationsByPrefix(prefix, limit);
+    }
+
+    @Override
+    public Collection<Message> searchMessages(String query, Uuid conversation, Uuid author, int limit) {
+      reads++;
+      return view.searchMessages(query, conversation, author, limit);
+    }
+
+    @Override
+    public Collection<String> userStatusUpdate(String name, Uuid owner) {
+      reads++;
+      return view.userStatusUpdate(name, owner);
+    }
+
+    @Override
+    public int conversationStatusUpdate(String title, Uuid owner) {
+      reads++;
+      return view.conversationStatusUpdate(title, owner);
+    }
+  }
+
+  private static Collection<Message> copy(Collection<Message> messages) {
+    final Collection<Message> copies = new ArrayList<>();
+    for (final Message message : messages) {
+      copies.add(new Message(message.id,
+                             message.next,
+                             message.previous,
+                             message.creation,
+                             message.author,
+                             message.content,
+                             message.conversationName));
+    }
+    return copies;
+  }
+
+  private Model model;
+  private Controller controller;
+  private CountingView server;
+  private CachingView view;
+
+  private final Uuid user = new Uuid(1);
+  private final Uuid conversation = new Uuid(2);
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model, null);
+    server = new CountingView(new codeu.chat.server.View(model));
+    view = new CachingView(server, 100);
+
+    controller.newUser(user, "user", Time.fromMs(1));
+    controller.newConversation(conversation, "conversation", user, Time.fromMs(2));
+    for (int i = 0; i < 5; i++) {
+      controller.newMessage(new Uuid(10 + i), user, conversation, "message " + i, Time.fromMs(10 + i));
+    }
+  }
+
+  @Test
+  public void testListsComeFromChanges() {
+
+    assertEquals(1, view.getUsers().size());
+    assertEquals(1, view.getConversations().size());
+    assertEquals(0, server.reads);
+
+    controller.newUser(new Uuid(3), "other", Time.fromMs(3));
+    view.invalidate();
+    assertEquals(2, view.getUsers().size());
+    assertEquals(0, server.reads);
+  }
+
+  @Test
+  public void testChangesAreOnlyCheckedWhenStale() {
+
+    view.getUsers();
+    assertEquals(1, server.changes);
+
+    // Within the time-to-live nothing goes to the server, even though it has
+    // changed.
+    controller.newUser(new Uuid(3), "other", Time.fromMs(3));
+    assertEquals(1, view.getUsers().size());
+    view.getConversations();
+    assertEquals(1, server.changes);
+
+    view.invalidate();
+    assertEquals(2, view.getUsers().size());
+    assertEquals(2, server.changes);
+
+    final CachingView expiring = new CachingView(server, 100, 0);
+    expiring.getUsers();
+    expiring.getUsers();
+    assertEquals(4, server.changes);
+  }
+
+  @Test
+  public void testRelistingIsServedLocally() {
+
+    assertEquals(5, view.getConversationMessages(conversation, MessagePosition.FIRST, null, 10).size());
+    assertEquals(1, server.reads);
+
+    assertEquals(5, view.getConversationMessages(conversation, MessagePosition.FIRST, null, 10).size());
+    assertEquals(3, view.getConversationMessages(conversation, MessagePosition.LAST, null, 3).size());
+    assertEquals(1, view.getMessages(Arrays.asList(new Uuid(12))).size());
+    assertEquals(1, server.reads);
+  }
+
+  @Test
+  public void testNewMessageRefreshesOldLast() {
+
+    view.getConversationMessages(conversation, MessagePosition.FIRST, null, 10);
+
+    controller.newMessage(new Uuid(20), user, conversation, "late", Time.fromMs(20));
+    view.invalidate();
+
+    final Collection<Message> all = view.getConversationMessages(conversation, MessagePosition.FIRST, null, 10);
+    assertEquals(6, all.size());
+
+    Message last = null;
+    for (final Message message : all) {
+      last = message;
+    }
+    assertEquals(new Uuid(20), last.id);
+  }
+
+  @Test
+  public void testStaleLastMessageIsNotCached() {
+
+    view.getUsers();
+
+    // The view still thinks message 14 is the last, so message 20 must not
+    // be cached with no "next" as nothing would drop it when 21 arrives.
+    controller.newMessage(new Uuid(20), user, conversation, "late", Time.fromMs(20));
+    assertEquals(6, view.getConversationMessages(conversation, MessagePosition.LAST, null, 10).size());
+
+    controller.newMessage(new Uuid(21), user, conversation, "later", Time.fromMs(21));
+    view.invalidate();
+
+    final Collection<Message> after = view.getConversationMessages(conversation, MessagePosition.AFTER, new Uuid(20), 10);
+    assertEquals(1, after.size());
+    assertEquals(new Uuid(21), after.iterator().next().id);
+  }
+
+  @Test
+  public void testCapacityIsBounded() {
+
+    final CachingView small = new CachingView(server, 2);
+
+    small.getConversationMessages(conversation, MessagePosition.FIRST, null, 10);
+    final int reads = server.reads;
+
+    // Only the last two messages fit, so walking from the start misses.
+    small.getConversationMessages(conversation, MessagePosition.FIRST, null, 10);
+    assertEquals(reads + 1, server.reads);
+  }
+}
@@ -18,9 +18,13 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 import org.junit.Before;
 
+import java.util.Arrays;
+import java.util.List;
+
 import codeu.chat.common.BasicController;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.Message;
+import codeu.chat.common.NewMessage;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
 
@@ -89,4 +93,27 @@ public final class BasicControllerTest {
         "Check that the message has a valid reference",
         message == null);
   }
+
+  @Test
+  public void testAddMessages() {
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation(
+        "conversation",
+        user.id);
+
+    final List<Message> messages = controller.newMessages(Arrays.asList(
+        new NewMessage(user.id, conversation.id, "first"),
+        new NewMessage(user.id, Uuid.NULL, "no conversation"),
+        new NewMessage(user.id, conversation.id, "second")));
+
+    assertEquals(3, messages.size());
+    assertEquals("first", messages.get(0).content);
+    assertNull(messages.get(1));
+    assertEquals("second", messages.get(2).content);
+
+    // The batch is chained like messages added one at a time.
+    assertEquals(messages.get(0).id, messages.get(2).previous);
+    assertEquals(messages.get(2).id, messages.get(0).next);
+  }
 }
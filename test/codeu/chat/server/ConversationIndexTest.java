@@ -0,0 +1,83 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ConversationIndexTest {
+
+  private ConversationIndex index;
+
+  @Before
+  public void doBefore() {
+    index = new ConversationIndex();
+  }
+
+  @Test
+  public void testPositionsAndWindows() {
+
+    // More than the initial capacity, so that the arrays have to grow.
+    for (int i = 0; i < 20; i++) {
+      index.add(message(i, 100 + i));
+    }
+
+    assertEquals(20, index.size());
+    assertEquals(new Uuid(7), index.get(7).id);
+    assertNull(index.get(20));
+
+    assertIds(index.window(18, 5), 18, 19);
+    assertIds(index.tail(3), 17, 18, 19);
+    assertIds(index.tail(0));
+
+    assertEquals(12, index.positionOf(message(12, 112)));
+    assertEquals(-1, index.positionOf(message(30, 112)));
+  }
+
+  @Test
+  public void testOutOfOrderTimes() {
+
+    index.add(message(0, 10));
+    index.add(message(1, 30));
+    // Created before the message ahead of it, for example by another server.
+    index.add(message(2, 20));
+    index.add(message(3, 40));
+
+    assertEquals(2, index.positionOf(message(2, 20)));
+    assertIds(index.createdAfter(Time.fromMs(15)), 1, 2, 3);
+    assertIds(index.createdAfter(Time.fromMs(25)), 1, 3);
+    assertEquals(2, index.countCreatedAfter(Time.fromMs(25)));
+    assertEquals(0, index.countCreatedAfter(Time.fromMs(40)));
+  }
+
+  private static Message message(int id, long ms) {
+    return new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(ms), Uuid.NULL, "", Uuid.NULL);
+  }
+
+  private static void assertIds(List<Message> messages, int... ids) {
+    assertEquals(ids.length, messages.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(new Uuid(ids[i]), messages.get(i).id);
+    }
+  }
+}
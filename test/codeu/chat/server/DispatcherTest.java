@@ -0,0 +1,246 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+
+public final class DispatcherTest {
+
+  private Dispatcher dispatcher;
+
+  @Before
+  public void doBefore() {
+    dispatcher = new Dispatcher(4);
+  }
+
+  @After
+  public void doAfter() {
+    dispatcher.stop();
+  }
+
+  @Test
+  public void testWritesRunOneAtATimeInOrder() throws Exception {
+
+    final CountDownLatch firstStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFirst = new CountDownLatch(1);
+    final CountDownLatch secondStarted = new CountDownLatch(1);
+
+    dispatcher.write(new Runnable() {
+      @Override
+      public void run() {
+        firstStarted.countDown();
+        await(releaseFirst);
+      }
+    });
+    dispatcher.write(new Runnable() {
+      @Override
+      public void run() {
+        secondStarted.countDown();
+      }
+    });
+
+    assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+    assertFalse(secondStarted.await(200, TimeUnit.MILLISECONDS));
+
+    releaseFirst.countDown();
+    assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+
+    // Many writes never overlap and run in the order they were given.
+    final int writes = 100;
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(writes);
+
+    for (int i = 0; i < writes; i++) {
+      final int write = i;
+      dispatcher.write(new Runnable() {
+        @Override
+        public void run() {
+          if (running.incrementAndGet() != 1) {
+            overlapped.set(true);
+          }
+          order.add(write);
+          running.decrementAndGet();
+          done.countDown();
+        }
+      });
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertFalse(overlapped.get());
+    for (int i = 0; i < writes; i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+  }
+
+  @Test
+  public void testReadsRunTogether() throws Exception {
+
+    // Each read waits for the other to start, which only works if both are
+    // running at once.
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    final CountDownLatch done = new CountDownLatch(2);
+
+    for (int i = 0; i < 2; i++) {
+      dispatcher.read(new Runnable() {
+        @Override
+        public void run() {
+          bothStarted.countDown();
+          try {
+            if (bothStarted.await(5, TimeUnit.SECONDS)) {
+              done.countDown();
+            }
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testReadWaitsForWrite() throws Exception {
+
+    final CountDownLatch writeStarted = new CountDownLatch(1);
+    final CountDownLatch releaseWrite = new CountDownLatch(1);
+    final CountDownLatch readRan = new CountDownLatch(1);
+
+    dispatcher.write(new Runnable() {
+      @Override
+      public void run() {
+        writeStarted.countDown();
+        await(releaseWrite);
+      }
+    });
+
+    assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+
+    dispatcher.read(new Runnable() {
+      @Override
+      public void run() {
+        readRan.countDown();
+      }
+    });
+
+    assertFalse(readRan.await(200, TimeUnit.MILLISECONDS));
+
+    releaseWrite.countDown();
+    assertTrue(readRan.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testWriteWaitsForRead() throws Exception {
+
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch releaseRead = new CountDownLatch(1);
+    final CountDownLatch writeRan = new CountDownLatch(1);
+
+    dispatcher.read(new Runnable() {
+      @Override
+      public void run() {
+        readStarted.countDown();
+        await(releaseRead);
+      }
+    });
+
+    assertTrue(readStarted.await(5, TimeUnit.SECONDS));
+
+    dispatcher.write(new Runnable() {
+      @Override
+      public void run() {
+        writeRan.countDown();
+      }
+    });
+
+    assertFalse(writeRan.await(200, TimeUnit.MILLISECONDS));
+
+    releaseRead.countDown();
+    assertTrue(writeRan.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testStatusUpdatesRunOnTheWriteLane() throws Exception {
+
+    // The write lane is a single thread, so work on it always runs there.
+    final Thread writer = threadOf(new Lane() {
+      @Override
+      public void submit(Runnable work) {
+        dispatcher.write(work);
+      }
+    });
+
+    assertSame(writer, threadOf(NetworkCode.USER_STATUS_UPDATE_REQUEST));
+    assertSame(writer, threadOf(NetworkCode.CONVERSATION_STATUS_UPDATE_REQUEST));
+    assertSame(writer, threadOf(NetworkCode.NEW_MESSAGE_REQUEST));
+    assertNotSame(writer, threadOf(NetworkCode.GET_USERS_REQUEST));
+  }
+
+  private interface Lane {
+    void submit(Runnable work);
+  }
+
+  // The thread that the server runs the work for a request of "type" on.
+  private Thread threadOf(final int type) throws Exception {
+    return threadOf(new Lane() {
+      @Override
+      public void submit(Runnable work) {
+        Server.dispatch(dispatcher, type, work);
+      }
+    });
+  }
+
+  private static Thread threadOf(Lane lane) throws Exception {
+
+    final AtomicReference<Thread> thread = new AtomicReference<>();
+    final CountDownLatch ran = new CountDownLatch(1);
+
+    lane.submit(new Runnable() {
+      @Override
+      public void run() {
+        thread.set(Thread.currentThread());
+        ran.countDown();
+      }
+    });
+
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    return thread.get();
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
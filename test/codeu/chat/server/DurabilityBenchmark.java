@@ -0,0 +1,131 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// DURABILITY BENCHMARK
+//
+// Measures what each durability mode costs. Every client thread writes one
+// record to a transaction log at a time and waits for the log writer to say
+// it is durable before writing the next, which is what a client of the server
+// sees when it sends changes one after another.
+//
+// The log is written to a temporary directory, which is deleted afterwards. Put
+// the temporary directory on the disk the server uses to get numbers that
+// mean something. Run with:
+//
+//   $ python build.py run codeu.chat.server.DurabilityBenchmark [clients] [writes] [fsync-ms]
+public final class DurabilityBenchmark {
+
+  public static void main(String[] args) throws Exception {
+
+    final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    final int writes = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    final long fsyncMs = args.length > 2 ? Long.parseLong(args[2]) : FileWriter.DEFAULT_FORCE_INTERVAL_MS;
+
+    System.out.format("%d clients x %d writes, batched every %d ms%n", clients, writes, fsyncMs);
+    System.out.format("%-10s %14s %14s%n", "mode", "throughput", "mean latency");
+
+    // The first run pays for warming up the JVM, so it is not reported.
+    run(Durability.ASYNC, fsyncMs, clients, writes, false);
+
+    for (final Durability durability : Durability.values()) {
+      run(durability, fsyncMs, clients, writes, true);
+    }
+
+    // The log writer threads wait on their queues forever.
+    System.exit(0);
+  }
+
+  private static void run(Durability durability,
+                          long fsyncMs,
+                          int clients,
+                          final int writes,
+                          boolean report) throws Exception {
+
+    final File directory = Files.createTempDirectory("durability").toFile();
+
+    final FileWriter writer = new FileWriter(
+        new LinkedBlockingQueue<FileWriter.Entry>(),
+        directory,
+        FileWriter.DEFAULT_SEGMENT_SIZE,
+        durability,
+        fsyncMs);
+
+    final Thread writing = new Thread(writer);
+    writing.setDaemon(true);
+    writing.start();
+
+    final CountDownLatch done = new CountDownLatch(clients);
+    final AtomicLong waited = new AtomicLong();
+
+    final long start = System.nanoTime();
+
+    for (int i = 0; i < clients; i++) {
+      final int client = i;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < writes; j++) {
+              final long sent = System.nanoTime();
+              final CountDownLatch durable = new CountDownLatch(1);
+              writer.insert(new User(new Uuid(client * writes + j), "user", Time.now()));
+              final Runnable written = new Runnable() {
+                @Override
+                public void run() {
+                  durable.countDown();
+                }
+              };
+              writer.whenDurable(written, written);
+              durable.await();
+              waited.addAndGet(System.nanoTime() - sent);
+            }
+          } catch (InterruptedException ex) {
+            // Only happens if the benchmark is being shut down.
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+
+    done.await();
+
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    final int total = clients * writes;
+
+    if (report) {
+      System.out.format("%-10s %10.0f/sec %11.3f ms%n",
+                        durability.name().toLowerCase(),
+                        total / seconds,
+                        waited.get() / 1e6 / total);
+    }
+
+    for (final File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.client.core.Context;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.MultiplexedConnectionSource;
+
+// ENGINE BENCHMARK
+//
+// Compares how many read-only requests per second a server can answer with
+// each connection engine. Every configuration is driven by the same number of
+// client threads, first with a new connection per request and then with all
+// requests multiplexed over one connection. The single worker configuration
+// matches the old behaviour of running every request on one executor thread.
+//
+// Only read-only requests are sent so that nothing is written to the
+// transaction log. Run with:
+//
+//   $ python build.py run codeu.chat.server.EngineBenchmark [clients] [requests]
+public final class EngineBenchmark {
+
+  private static final int FIRST_PORT = 2150;
+
+  private interface EngineFactory {
+    Engine create(int port, Engine.Handler handler) throws IOException;
+  }
+
+  private static final EngineFactory SELECTOR = new EngineFactory() {
+    @Override
+    public Engine create(int port, Engine.Handler handler) throws IOException {
+      return new SelectorEngine(port, handler);
+    }
+  };
+
+  private static final EngineFactory THREADS = new EngineFactory() {
+    @Override
+    public Engine create(int port, Engine.Handler handler) throws IOException {
+      return new ThreadEngine(port, handler);
+    }
+  };
+
+  public static void main(String[] args) throws Exception {
+
+    final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    final int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    final int cores = Runtime.getRuntime().availableProcessors();
+
+    System.out.format("%d clients x %d requests%n", clients, requests);
+    System.out.format("%-10s %8s %14s %14s%n", "engine", "workers", "connect/call", "multiplexed");
+
+    int port = FIRST_PORT;
+    run("selector", SELECTOR, 1, port++, clients, requests);
+    run("selector", SELECTOR, cores, port++, clients, requests);
+    run("threads", THREADS, 1, port++, clients, requests);
+    run("threads", THREADS, cores, port++, clients, requests);
+
+    // The server keeps its own threads running, there is no clean way to stop
+    // all of them.
+    System.exit(0);
+  }
+
+  private static void run(String name,
+                          EngineFactory factory,
+                          int workers,
+                          int port,
+                          int clients,
+                          int requests) throws Exception {
+
+    final Server server = new Server(new Uuid(1), new Secret((byte) 0x01), new NoOpRelay(), workers);
+
+    final Engine engine = factory.create(port, new Engine.Handler() {
+      @Override
+      public void onRequest(byte[] request, Engine.Reply reply) {
+        server.handleRequest(request, reply);
+      }
+    });
+
+    final Thread serving = new Thread() {
+      @Override
+      public void run() {
+        engine.run();
+      }
+    };
+    serving.setDaemon(true);
+    serving.start();
+
+    final double direct = measure(new ClientConnectionSource("localhost", port), clients, requests);
+
+    final MultiplexedConnectionSource shared = new MultiplexedConnectionSource("localhost", port);
+    final double multiplexed = measure(shared, clients, requests);
+    shared.close();
+
+    engine.close();
+
+    System.out.format("%-10s %8d %10.0f/sec %10.0f/sec%n", name, workers, direct, multiplexed);
+  }
+
+  // Returns requests per second.
+  private static double measure(ConnectionSource source,
+                                int clients,
+                                final int requests) throws InterruptedException {
+
+    final Context context = new Context(source);
+    final CountDownLatch done = new CountDownLatch(clients);
+    final AtomicInteger failed = new AtomicInteger();
+
+    final long start = System.nanoTime();
+
+    for (int i = 0; i < clients; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < requests; j++) {
+            if (context.getInfo() == null) {
+              failed.incrementAndGet();
+            }
+            context.allUsers();
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+
+    done.await();
+
+    final double seconds = (System.nanoTime() - start) / 1e9;
+
+    if (failed.get() > 0) {
+      System.out.format("  %d requests failed%n", failed.get());
+    }
+
+    return 2.0 * clients * requests / seconds;
+  }
+}
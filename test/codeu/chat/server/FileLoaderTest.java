@@ -0,0 +1,237 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.User;
+import codeu.chat.common.Writeable;
+import codeu.chat.util.Compact;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class FileLoaderTest {
+
+  private File directory;
+
+  @Before
+  public void doBefore() throws Exception {
+    directory = Files.createTempDirectory("log").toFile();
+  }
+
+  @After
+  public void doAfter() {
+    for (final File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testTruncatesTornRecord() throws Exception {
+
+    writeUsers(5, FileWriter.DEFAULT_SEGMENT_SIZE);
+
+    final File file = LogSegment.list(directory).get(0).file;
+    final long good = file.length();
+
+    // The start of a record that never finished being written.
+    try (final FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 5 });
+    }
+
+    final Model model = new Model();
+    assertEquals(5, load(model));
+    assertEquals(5, count(model.userById().all()));
+    assertEquals(good, file.length());
+
+    // Loading again finds nothing wrong.
+    assertEquals(5, load(new Model()));
+  }
+
+  @Test
+  public void testStopsAtChecksumMismatch() throws Exception {
+
+    // Small segments, so that the log has segments after the damaged one.
+    writeUsers(10, 64);
+
+    final List<LogSegment> before = LogSegment.list(directory);
+    assertTrue(before.size() > 2);
+
+    // Damage the last byte of the first record of the second segment.
+    final LogSegment damaged = before.get(1);
+    try (final RandomAccessFile file = new RandomAccessFile(damaged.file, "rw")) {
+      file.seek(LogSegment.HEADER_SIZE);
+      final int length = file.readInt();
+      final long last = LogSegment.HEADER_SIZE + LogSegment.RECORD_HEADER_SIZE + length - 1;
+      file.seek(last);
+      final int value = file.read();
+      file.seek(last);
+      file.write(value ^ 0xFF);
+    }
+
+    final Model model = new Model();
+    assertEquals(damaged.first, load(model));
+    assertEquals(damaged.first, count(model.userById().all()));
+
+    // The damaged segment is cut back to its header and the segments after it
+    // are set aside.
+    final List<LogSegment> after = LogSegment.list(directory);
+    assertEquals(2, after.size());
+    assertEquals(LogSegment.HEADER_SIZE, after.get(1).file.length());
+    assertTrue(new File(before.get(2).file.getPath() + FileLoader.DISCARDED_SUFFIX).exists());
+  }
+
+  @Test
+  public void testSetsAsideSegmentWithDamagedHeader() throws Exception {
+
+    writeUsers(10, 64);
+
+    final List<LogSegment> before = LogSegment.list(directory);
+    assertTrue(before.size() > 2);
+
+    // Break the magic number of the second segment.
+    final LogSegment damaged = before.get(1);
+    try (final RandomAccessFile file = new RandomAccessFile(damaged.file, "rw")) {
+      file.writeInt(0);
+    }
+
+    final Model model = new Model();
+    assertEquals(damaged.first, load(model));
+    assertEquals(damaged.first, count(model.userById().all()));
+
+    // The damaged segment and everything after it are set aside.
+    assertEquals(1, LogSegment.list(directory).size());
+    assertTrue(new File(damaged.file.getPath() + FileLoader.DISCARDED_SUFFIX).exists());
+    assertTrue(new File(before.get(2).file.getPath() + FileLoader.DISCARDED_SUFFIX).exists());
+
+    // Records written after loading are not lost on the next load.
+    final FileWriter writer = writer(FileWriter.DEFAULT_SEGMENT_SIZE);
+    writer.startAt(damaged.first);
+    run(writer);
+    writer.insert(new User(new Uuid(100), "late", Time.now()));
+    waitUntilDurable(writer);
+
+    assertEquals(damaged.first + 1, load(new Model()));
+  }
+
+  @Test
+  public void testReadsSeparatedSegments() throws Exception {
+
+    // A version 1 segment, holding records the way older servers wrote them.
+    final LogSegment old = LogSegment.create(directory, 0);
+    try (final FileOutputStream file = new FileOutputStream(old.file)) {
+      old.writeHeader(file.getChannel(), LogSegment.SEPARATED_VERSION);
+      for (int i = 0; i < 3; i++) {
+        final User user = new User(new Uuid(i), "user" + i, Time.now());
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(FileWriter.COMPACT_SEPARATOR);
+        final OutputStream out = new Compact.Output(bytes);
+        Serializers.STRING.write(out, Writeable.USER_STR);
+        User.SERIALIZER.write(out, user);
+        file.write(bytes.toByteArray());
+      }
+    }
+
+    assertEquals(3, load(new Model()));
+
+    // New records go in a new segment, in the current format.
+    final FileWriter writer = writer(FileWriter.DEFAULT_SEGMENT_SIZE);
+    writer.startAt(3);
+    run(writer);
+    writer.insert(new User(new Uuid(3), "user3", Time.now()));
+    waitUntilDurable(writer);
+
+    final List<LogSegment> segments = LogSegment.list(directory);
+    assertEquals(2, segments.size());
+    assertEquals(3, segments.get(1).first);
+    assertEquals(LogSegment.VERSION, segments.get(1).version());
+
+    final Model model = new Model();
+    assertEquals(4, load(model));
+    assertEquals(4, count(model.userById().all()));
+  }
+
+  private long load(Model model) {
+    return new FileLoader(new Controller(Uuid.NULL, model, null)).loadState(directory);
+  }
+
+  private static int count(Iterable<?> values) {
+    int count = 0;
+    for (final Object value : values) {
+      count++;
+    }
+    return count;
+  }
+
+  // Write users one at a time, so that each write is its own group and can
+  // start a new segment.
+  private void writeUsers(int count, long segmentSize) throws Exception {
+    final FileWriter writer = run(writer(segmentSize));
+    for (int i = 0; i < count; i++) {
+      writer.insert(new User(new Uuid(i), "user" + i, Time.now()));
+      waitUntilDurable(writer);
+    }
+  }
+
+  private void waitUntilDurable(FileWriter writer) throws Exception {
+    final CountDownLatch durable = new CountDownLatch(1);
+    writer.whenDurable(new Runnable() {
+      @Override
+      public void run() {
+        durable.countDown();
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        fail("The log was not written");
+      }
+    });
+    assertTrue(durable.await(5, TimeUnit.SECONDS));
+  }
+
+  private FileWriter writer(long segmentSize) {
+    return new FileWriter(
+        new LinkedBlockingQueue<FileWriter.Entry>(),
+        directory,
+        segmentSize,
+        Durability.SYNC,
+        10);
+  }
+
+  private static FileWriter run(FileWriter writer) {
+    final Thread thread = new Thread(writer);
+    thread.setDaemon(true);
+    thread.start();
+    return writer;
+  }
+}
@@ -0,0 +1,266 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class FileWriterTest {
+
+  private File directory;
+
+  @Before
+  public void doBefore() throws Exception {
+    directory = Files.createTempDirectory("log").toFile();
+  }
+
+  @After
+  public void doAfter() {
+    for (final File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testSyncRunsAfterWrite() throws Exception {
+
+    final FileWriter writer = start(Durability.SYNC);
+    final CountDownLatch durable = new CountDownLatch(1);
+    final AtomicLong length = new AtomicLong(-1);
+
+    writer.insert(new User(new Uuid(1), "user", Time.now()));
+    writer.whenDurable(new Runnable() {
+      @Override
+      public void run() {
+        length.set(logSize());
+        durable.countDown();
+      }
+    }, null);
+
+    assertTrue(durable.await(5, TimeUnit.SECONDS));
+    assertTrue(length.get() > LogSegment.HEADER_SIZE);
+  }
+
+  @Test
+  public void testSyncReportsFailedWriteAndRetries() throws Exception {
+
+    // Segments cannot be created while the log's directory is a file.
+    final File blocked = new File(directory, "blocked");
+    assertTrue(blocked.createNewFile());
+
+    final FileWriter writer = run(new FileWriter(
+        new LinkedBlockingQueue<FileWriter.Entry>(),
+        blocked,
+        FileWriter.DEFAULT_SEGMENT_SIZE,
+        Durability.SYNC,
+        FileWriter.DEFAULT_FORCE_INTERVAL_MS));
+
+    final CountDownLatch failed = new CountDownLatch(1);
+    writer.insert(new User(new Uuid(1), "user", Time.now()));
+    writer.whenDurable(new Runnable() {
+      @Override
+      public void run() {
+        fail("The write cannot have worked");
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        failed.countDown();
+      }
+    });
+
+    assertTrue(failed.await(5, TimeUnit.SECONDS));
+
+    // The record is still counted, and written once the directory is there.
+    assertEquals(1, writer.sequence());
+
+    assertTrue(blocked.delete());
+    assertTrue(blocked.mkdir());
+
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (LogSegment.list(blocked).isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    waitUntilDurable(writer);
+
+    final Model model = new Model();
+    assertEquals(1, new FileLoader(new Controller(Uuid.NULL, model, null)).loadState(blocked));
+    assertNotNull(model.userById().first(new Uuid(1)));
+
+    for (final File file : blocked.listFiles()) {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testAsyncRunsImmediately() throws Exception {
+
+    final FileWriter writer = new FileWriter(
+        new LinkedBlockingQueue<FileWriter.Entry>(),
+        directory,
+        FileWriter.DEFAULT_SEGMENT_SIZE,
+        Durability.ASYNC,
+        FileWriter.DEFAULT_FORCE_INTERVAL_MS);
+
+    // Nothing is running the writer, so this only works if it does not wait
+    // for the log.
+    final boolean[] ran = { false };
+    writer.whenDurable(new Runnable() {
+      @Override
+      public void run() {
+        ran[0] = true;
+      }
+    }, null);
+
+    assertTrue(ran[0]);
+  }
+
+  @Test
+  public void testBatchedWritesWithoutNewRecords() throws Exception {
+
+    final FileWriter writer = start(Durability.BATCHED);
+
+    writer.insert(new User(new Uuid(1), "user", Time.now()));
+
+    // Nothing else is queued, so the write has to happen without waiting
+    // for more records to arrive.
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (logSize() <= LogSegment.HEADER_SIZE && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertTrue(logSize() > LogSegment.HEADER_SIZE);
+  }
+
+  @Test
+  public void testRotatesSegments() throws Exception {
+
+    final FileWriter writer = start(Durability.SYNC, 64);
+
+    // Wait for each record so that they are not all written as one group,
+    // which would go in one segment.
+    for (int i = 0; i < 10; i++) {
+      writer.insert(new User(new Uuid(i), "user", Time.now()));
+      waitUntilDurable(writer);
+    }
+
+    final List<LogSegment> segments = LogSegment.list(directory);
+
+    assertTrue(segments.size() > 1);
+    assertEquals(0, segments.get(0).first);
+
+    // Every segment after the first holds records, so each one starts later
+    // than the one before it.
+    for (int i = 1; i < segments.size(); i++) {
+      assertTrue(segments.get(i).first > segments.get(i - 1).first);
+    }
+  }
+
+  @Test
+  public void testReloadAcrossSegments() throws Exception {
+
+    final FileWriter writer = start(Durability.SYNC, 64);
+
+    for (int i = 0; i < 10; i++) {
+      writer.insert(new User(new Uuid(i), "user" + i, Time.now()));
+      waitUntilDurable(writer);
+    }
+
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model, null);
+
+    assertEquals(10, new FileLoader(controller).loadState(directory));
+
+    int users = 0;
+    for (final User user : model.userById().all()) {
+      users++;
+    }
+    assertEquals(10, users);
+
+    // Records written after the reload carry on the sequence.
+    final FileWriter reloaded = writer(Durability.SYNC, 64);
+    reloaded.startAt(10);
+    run(reloaded);
+    reloaded.insert(new User(new Uuid(10), "user10", Time.now()));
+    waitUntilDurable(reloaded);
+
+    assertEquals(11, new FileLoader(new Controller(Uuid.NULL, new Model(), null)).loadState(directory));
+  }
+
+  private void waitUntilDurable(FileWriter writer) throws Exception {
+    final CountDownLatch durable = new CountDownLatch(1);
+    writer.whenDurable(new Runnable() {
+      @Override
+      public void run() {
+        durable.countDown();
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        fail("The log was not written");
+      }
+    });
+    assertTrue(durable.await(5, TimeUnit.SECONDS));
+  }
+
+  private long logSize() {
+    long size = 0;
+    for (final LogSegment segment : LogSegment.list(directory)) {
+      size += segment.file.length();
+    }
+    return size;
+  }
+
+  private FileWriter start(Durability durability) {
+    return start(durability, FileWriter.DEFAULT_SEGMENT_SIZE);
+  }
+
+  private FileWriter start(Durability durability, long segmentSize) {
+    return run(writer(durability, segmentSize));
+  }
+
+  private FileWriter run(FileWriter writer) {
+    final Thread thread = new Thread(writer);
+    thread.setDaemon(true);
+    thread.start();
+    return writer;
+  }
+
+  private FileWriter writer(Durability durability, long segmentSize) {
+    return new FileWriter(
+        new LinkedBlockingQueue<FileWriter.Entry>(),
+        directory,
+        segmentSize,
+        durability,
+        10);
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.common.Writeable;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// RECOVERY BENCHMARK
+//
+// Writes a transaction log of the given size, made mostly of messages, and
+// times loading it into an empty model the way a restarting server does.
+// Every record is checked against its checksum as it is read. It then tears
+// the last record in half, as a crash part way through a write would, and
+// times loading it again, which includes truncating the log. Last of all it
+// writes a snapshot of what was loaded (see Snapshot) and times loading that
+// instead, which skips replaying the log.
+//
+// The log is written to a temporary directory, which is deleted afterwards.
+// Everything in the log ends up in memory, so large logs need a larger heap.
+// Run with:
+//
+//   $ python build.py run codeu.chat.server.RecoveryBenchmark [megabytes] [segment-mb]
+public final class RecoveryBenchmark {
+
+  private static final int USERS = 1000;
+  private static final int CONVERSATIONS = 1000;
+  private static final int GROUP = 1000;
+
+  private static final String[] WORDS = {
+      "ok", "hello", "thanks", "yes", "no", "the", "a", "lunch", "meeting", "tomorrow",
+      "build", "review", "ship", "later", "sounds", "good", "see", "you", "there", "soon" };
+
+  public static void main(String[] args) throws Exception {
+
+    final long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 256;
+    final long segmentSize = args.length > 1 ?
+        Long.parseLong(args[1]) * 1024 * 1024 :
+        FileWriter.DEFAULT_SEGMENT_SIZE;
+
+    final File directory = Files.createTempDirectory("recovery").toFile();
+
+    try {
+      long start = System.nanoTime();
+      final long records = write(directory, megabytes * 1024 * 1024, segmentSize);
+      final long bytes = size(directory);
+      System.out.format("wrote %d records, %.1f MB in %d segments in %.1f s%n",
+                        records,
+                        bytes / 1e6,
+                        LogSegment.list(directory).size(),
+                        (System.nanoTime() - start) / 1e9);
+
+      replay("clean", directory, bytes, new Model());
+
+      // Cut the last record short.
+      final List<LogSegment> segments = LogSegment.list(directory);
+      try (final FileOutputStream out =
+               new FileOutputStream(segments.get(segments.size() - 1).file, true)) {
+        out.write(new byte[] { 0, 0, 0, 100, 1, 2, 3, 4, 5, 6, 7 });
+      }
+
+      final Snapshot snapshot = snapshot(directory, bytes);
+
+      replay("snapshot", directory, snapshot.file.length(), new Model());
+    } finally {
+      for (final File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  // Load the torn log and write a snapshot of it. Nothing else holds on to
+  // the model it was loaded into, so it does not weigh on the next load.
+  private static Snapshot snapshot(File directory, long bytes) throws IOException {
+
+    final Model model = new Model();
+    final long loaded = replay("torn tail", directory, bytes, model);
+
+    final long start = System.nanoTime();
+    final Snapshot snapshot = Snapshot.write(Snapshot.capture(model), directory, loaded);
+    System.out.format("wrote snapshot, %.1f MB in %.1f s%n",
+                      snapshot.file.length() / 1e6,
+                      (System.nanoTime() - start) / 1e9);
+
+    return snapshot;
+  }
+
+  // Returns the number of records loaded.
+  private static long replay(String name, File directory, long bytes, Model model) {
+
+    System.gc();
+
+    final long start = System.nanoTime();
+    final long records = new FileLoader(new Controller(Uuid.NULL, model, null)).loadState(directory);
+    final double seconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.format("%-10s %d records in %.2f s, %.0f records/sec, %.1f MB/sec%n",
+                      name,
+                      records,
+                      seconds,
+                      records / seconds,
+                      bytes / 1e6 / seconds);
+
+    return records;
+  }
+
+  // Returns the number of records written.
+  private static long write(File directory, long bytes, long segmentSize) {
+
+    final FileWriter writer = new FileWriter(
+        new LinkedBlockingQueue<FileWriter.Entry>(),
+        directory,
+        segmentSize,
+        Durability.ASYNC,
+        FileWriter.DEFAULT_FORCE_INTERVAL_MS);
+
+    final Random random = new Random(7);
+    final List<Writeable> group = new ArrayList<>();
+    long records = 0;
+
+    for (int i = 0; i < USERS; i++) {
+      group.add(new User(new Uuid(i + 1), "user" + i, Time.fromMs(i)));
+    }
+    for (int i = 0; i < CONVERSATIONS; i++) {
+      group.add(new ConversationHeader(new Uuid(USERS + i + 1),
+                                       new Uuid(random.nextInt(USERS) + 1),
+                                       Time.fromMs(i),
+                                       "conversation" + i));
+    }
+
+    int id = USERS + CONVERSATIONS + 1;
+
+    while (true) {
+
+      records += group.size();
+      writer.write(group);
+      group.clear();
+
+      if (size(directory) >= bytes) {
+        break;
+      }
+
+      for (int i = 0; i < GROUP; i++) {
+        // A word of its own keeps messages from being exact repeats of
+        // each other, as they mostly are not in real conversations.
+        final StringBuilder content = new StringBuilder("m" + id + " ");
+        for (int word = random.nextInt(12) + 1; word > 0; word--) {
+          content.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        group.add(new Message(new Uuid(id),
+                              Uuid.NULL,
+                              Uuid.NULL,
+                              Time.fromMs(id),
+                              new Uuid(random.nextInt(USERS) + 1),
+                              content.toString(),
+                              new Uuid(USERS + random.nextInt(CONVERSATIONS) + 1)));
+        id++;
+      }
+    }
+
+    writer.close();
+    return records;
+  }
+
+  private static long size(File directory) {
+    long size = 0;
+    for (final LogSegment segment : LogSegment.list(directory)) {
+      size += segment.file.length();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.Random;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// SEARCH BENCHMARK
+//
+// Fills a SearchIndex with generated messages and times a mix of searches:
+// a common word, two words together, a rare word, and a common word limited
+// to one conversation. Run with:
+//
+//   $ python build.py run codeu.chat.server.SearchBenchmark [messages] [searches]
+public final class SearchBenchmark {
+
+  private static final String[] COMMON = { "ok", "hello", "thanks", "yes", "no", "the", "a", "lunch" };
+
+  private static final int CONVERSATIONS = 1000;
+  private static final int USERS = 5000;
+  private static final int RARE_WORDS = 100000;
+
+  public static void main(String[] args) {
+
+    final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    final int searches = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+    final Random random = new Random(7);
+    final SearchIndex index = new SearchIndex();
+
+    long start = System.nanoTime();
+
+    for (int i = 0; i < messages; i++) {
+      final String content =
+          COMMON[random.nextInt(COMMON.length)] + " " +
+          COMMON[random.nextInt(COMMON.length)] + " word" + random.nextInt(RARE_WORDS);
+      index.add(new Message(new Uuid(i + 1),
+                            Uuid.NULL,
+                            Uuid.NULL,
+                            Time.fromMs(i),
+                            new Uuid(random.nextInt(USERS) + 1),
+                            content,
+                            new Uuid(random.nextInt(CONVERSATIONS) + 1)));
+    }
+
+    System.out.format("indexed %d messages in %.0f ms%n", messages, (System.nanoTime() - start) / 1e6);
+
+    time("common word", index, searches, "hello", null);
+    time("two words", index, searches, "hello lunch", null);
+    time("rare word", index, searches, "word4242", null);
+    time("in one conversation", index, searches, "thanks", new Uuid(17));
+  }
+
+  private static void time(String name, SearchIndex index, int searches, String query, Uuid conversation) {
+
+    int found = 0;
+    final long start = System.nanoTime();
+
+    for (int i = 0; i < searches; i++) {
+      found += index.search(query, conversation, null, 100).size();
+    }
+
+    final double ms = (System.nanoTime() - start) / 1e6 / searches;
+    System.out.format("%-20s %8.3f ms/search (%d found)%n", name, ms, found / searches);
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class SearchIndexTest {
+
+  private static final Uuid ALICE = new Uuid(1);
+  private static final Uuid BOB = new Uuid(2);
+
+  private static final Uuid FIRST = new Uuid(10);
+  private static final Uuid SECOND = new Uuid(11);
+
+  private SearchIndex index;
+
+  @Before
+  public void doBefore() {
+    index = new SearchIndex();
+    index.add(message(100, ALICE, FIRST, "Hello world"));
+    index.add(message(101, BOB, FIRST, "hello, hello there"));
+    index.add(message(102, ALICE, SECOND, "the WORLD says hello"));
+    index.add(message(103, BOB, SECOND, "goodbye world"));
+  }
+
+  @Test
+  public void testTokenize() {
+    assertArrayEquals(
+        new Object[] { "hello", "world", "it", "s", "2017" },
+        SearchIndex.tokenize("Hello, world! It's 2017 hello").toArray());
+  }
+
+  @Test
+  public void testNewestFirst() {
+    assertIds(index.search("hello", null, null, 10), 102, 101, 100);
+    assertIds(index.search("HELLO", Uuid.NULL, Uuid.NULL, 2), 102, 101);
+  }
+
+  @Test
+  public void testEveryWordMustMatch() {
+    assertIds(index.search("world hello", null, null, 10), 102, 100);
+    assertIds(index.search("hello missing", null, null, 10));
+    assertIds(index.search("  ", null, null, 10));
+  }
+
+  @Test
+  public void testFilters() {
+    assertIds(index.search("world", SECOND, null, 10), 103, 102);
+    assertIds(index.search("world", null, ALICE, 10), 102, 100);
+    assertIds(index.search("world", FIRST, BOB, 10));
+  }
+
+  private static Message message(int id, Uuid author, Uuid conversation, String content) {
+    return new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(id), author, content, conversation);
+  }
+
+  private static void assertIds(List<Message> messages, int... ids) {
+    assertEquals(ids.length, messages.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(new Uuid(ids[i]), messages.get(i).id);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.util.connections.Frames;
+
+public final class SelectorEngineTest {
+
+  private static final int PORT = 2190;
+
+  private final AtomicInteger requests = new AtomicInteger();
+
+  private SelectorEngine engine;
+  private Thread thread;
+
+  @Before
+  public void doBefore() throws Exception {
+
+    engine = new SelectorEngine(PORT, new Engine.Handler() {
+      @Override
+      public void onRequest(byte[] request, Engine.Reply reply) {
+        requests.incrementAndGet();
+        reply.send(ByteBuffer.wrap(request));
+      }
+    });
+
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        engine.run();
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    engine.close();
+  }
+
+  @Test
+  public void testCloseDropsOpenConnections() throws Exception {
+
+    try (final Socket socket = new Socket("localhost", PORT)) {
+
+      // Send part of a frame so that the connection is accepted but waiting.
+      socket.getOutputStream().write(new byte[] { 0, 0 });
+      socket.getOutputStream().flush();
+
+      engine.close();
+      thread.join(5000);
+      assertFalse(thread.isAlive());
+
+      socket.setSoTimeout(5000);
+      assertClosed(socket);
+    }
+
+    assertEquals(0, requests.get());
+  }
+
+  @Test
+  public void testOversizedRequestIsRejected() throws Exception {
+
+    try (final Socket socket = new Socket("localhost", PORT)) {
+
+      final byte[] header = new byte[Frames.HEADER_SIZE];
+      Frames.putInt(header, 0, Integer.MAX_VALUE);
+
+      final OutputStream out = socket.getOutputStream();
+      out.write(header);
+      out.flush();
+
+      socket.setSoTimeout(5000);
+      assertClosed(socket);
+    }
+
+    assertEquals(0, requests.get());
+  }
+
+  @Test
+  public void testRequestIsAnswered() throws Exception {
+
+    try (final Socket socket = new Socket("localhost", PORT)) {
+
+      Frames.write(socket.getOutputStream(), new byte[] { 1, 2, 3 });
+
+      socket.setSoTimeout(5000);
+      final InputStream in = socket.getInputStream();
+      assertArrayEquals(new byte[] { 1, 2, 3 }, Frames.read(in));
+      assertEquals(-1, in.read());
+    }
+
+    assertEquals(1, requests.get());
+  }
+
+  // The server closed the socket. Closing it with unread input makes it
+  // reset rather than end cleanly, and either is fine.
+  private static void assertClosed(Socket socket) {
+    try {
+      assertEquals(-1, socket.getInputStream().read());
+    } catch (SocketTimeoutException ex) {
+      fail("Socket was not closed");
+    } catch (IOException ex) {
+      // Reset by the server.
+    }
+  }
+}
@@ -0,0 +1,277 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Access;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class SnapshotTest {
+
+  private File directory;
+
+  @Before
+  public void doBefore() throws Exception {
+    directory = Files.createTempDirectory("snapshot").toFile();
+  }
+
+  @After
+  public void doAfter() {
+    for (final File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testRestoresModel() throws Exception {
+
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model, null);
+
+    final User owner = controller.newUser(new Uuid(1), "owner", Time.now());
+    final User member = controller.newUser(new Uuid(2), "member", Time.now());
+    final ConversationHeader conversation = controller.newConversation(new Uuid(3), "chat", owner.id, Time.now());
+    controller.loadChangeAccess(member.id, conversation.id, Access.MEMBER);
+    for (int i = 0; i < 5; i++) {
+      controller.newMessage(new Uuid(10 + i), owner.id, conversation.id, "message " + i, Time.now());
+    }
+
+    Snapshot.write(Snapshot.capture(model), directory, 9);
+
+    final Model restored = new Model();
+    assertEquals(9, Snapshot.load(directory, restored));
+
+    assertEquals(model.version(), restored.version());
+    assertEquals(Access.CREATOR, restored.userById().first(owner.id).getConversationAccess(conversation.id));
+    assertEquals(Access.MEMBER, restored.userById().first(member.id).getConversationAccess(conversation.id));
+
+    // Users keep the versions they had, for clients asking for changes.
+    for (final Map.Entry<Long, User> entry : model.userVersions()) {
+      assertEquals(entry.getValue().id, restored.userByVersion().first(entry.getKey()).id);
+    }
+
+    final ConversationPayload payload = restored.conversationPayloadById().first(conversation.id);
+    assertEquals(new Uuid(10), payload.firstMessage);
+    assertEquals(new Uuid(14), payload.lastMessage);
+    assertEquals(5, restored.messagesOf(conversation.id).size());
+
+    // The payload is only kept at the version of its latest change.
+    final long payloadVersion = model.payloadVersionOf(conversation.id);
+    assertEquals(payloadVersion, restored.payloadVersionOf(conversation.id));
+    assertSame(payload, restored.conversationPayloadByVersion().first(payloadVersion));
+    assertEquals(1, count(restored.conversationPayloadByVersion().all()));
+
+    // The messages are linked in order both ways.
+    Message message = restored.messageById().first(payload.firstMessage);
+    for (int i = 0; i < 5; i++) {
+      assertEquals("message " + i, message.content);
+      assertEquals(i == 0 ? Uuid.NULL : new Uuid(10 + i - 1), message.previous);
+      message = restored.messageById().first(message.next);
+    }
+    assertNull(message);
+
+    // The restored model changes like the original.
+    final Time now = Time.now();
+    controller.newMessage(new Uuid(15), owner.id, conversation.id, "more", now);
+    new Controller(Uuid.NULL, restored, null).newMessage(new Uuid(15), owner.id, conversation.id, "more", now);
+    assertEquals(new Uuid(15), restored.messageById().first(new Uuid(14)).next);
+    assertEquals(model.version(), restored.version());
+  }
+
+  @Test
+  public void testCaptureIgnoresLaterChanges() throws Exception {
+
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model, null);
+
+    final User owner = controller.newUser(new Uuid(1), "owner", Time.now());
+    final ConversationHeader conversation = controller.newConversation(new Uuid(2), "chat", owner.id, Time.now());
+    controller.newMessage(new Uuid(10), owner.id, conversation.id, "before", Time.now());
+
+    final Snapshot.Capture capture = Snapshot.capture(model);
+
+    // Made after the capture, while the snapshot is being written.
+    controller.newUser(new Uuid(3), "later", Time.now());
+    controller.newMessage(new Uuid(11), owner.id, conversation.id, "after", Time.now());
+
+    Snapshot.write(capture, directory, 3);
+
+    final Model restored = new Model();
+    Snapshot.load(directory, restored);
+
+    assertNull(restored.userById().first(new Uuid(3)));
+    assertNull(restored.messageById().first(new Uuid(11)));
+    assertEquals(Uuid.NULL, restored.messageById().first(new Uuid(10)).next);
+    assertEquals(new Uuid(10), restored.conversationPayloadById().first(conversation.id).lastMessage);
+    assertEquals(1, restored.messagesOf(conversation.id).size());
+  }
+
+  @Test
+  public void testFallsBackToOlderSnapshot() throws Exception {
+
+    Snapshot.write(Snapshot.capture(users(2)), directory, 2);
+    final Snapshot newest = Snapshot.write(Snapshot.capture(users(4)), directory, 4);
+
+    // Damage a byte in the middle of the newest snapshot.
+    try (final RandomAccessFile file = new RandomAccessFile(newest.file, "rw")) {
+      file.seek(file.length() / 2);
+      final int value = file.read();
+      file.seek(file.length() / 2);
+      file.write(value ^ 0xFF);
+    }
+
+    assertFalse(newest.intact());
+
+    final Model model = new Model();
+    assertEquals(2, Snapshot.load(directory, model));
+    assertEquals(2, count(model.userById().all()));
+  }
+
+  @Test
+  public void testLoaderReplaysTailAfterCompaction() throws Exception {
+
+    // One record per segment.
+    writeUsers(10, 64);
+
+    Snapshot.write(Snapshot.capture(users(3)), directory, 3);
+    Snapshot.write(Snapshot.capture(users(6)), directory, 6);
+    Snapshotter.compact(directory);
+
+    // Both snapshots are kept, and the segments before the older one go.
+    assertEquals(2, Snapshot.list(directory).size());
+    assertEquals(3, LogSegment.list(directory).get(0).first);
+
+    Snapshot.write(Snapshot.capture(users(9)), directory, 9);
+    Snapshotter.compact(directory);
+
+    final List<Snapshot> snapshots = Snapshot.list(directory);
+    assertEquals(2, snapshots.size());
+    assertEquals(6, snapshots.get(0).sequence);
+    assertEquals(6, LogSegment.list(directory).get(0).first);
+
+    final Model model = new Model();
+    assertEquals(10, load(model));
+    assertEquals(10, count(model.userById().all()));
+  }
+
+  @Test
+  public void testLogEndingBeforeSnapshot() throws Exception {
+
+    // The snapshot covers records that never reached the log.
+    writeUsers(2, FileWriter.DEFAULT_SEGMENT_SIZE);
+    Snapshot.write(Snapshot.capture(users(4)), directory, 4);
+
+    final Model model = new Model();
+    assertEquals(4, load(model));
+    assertEquals(4, count(model.userById().all()));
+
+    // New records follow the snapshot in a segment of their own.
+    final List<LogSegment> segments = LogSegment.list(directory);
+    assertEquals(2, segments.size());
+    assertEquals(4, segments.get(1).first);
+
+    final FileWriter writer = writer(FileWriter.DEFAULT_SEGMENT_SIZE);
+    writer.startAt(4);
+    run(writer);
+    writer.insert(new User(new Uuid(4), "user4", Time.now()));
+    waitUntilDurable(writer);
+
+    final Model reloaded = new Model();
+    assertEquals(5, load(reloaded));
+    assertEquals(5, count(reloaded.userById().all()));
+  }
+
+  // A model holding the same users writeUsers() writes to the log.
+  private static Model users(int count) {
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model, null);
+    for (int i = 0; i < count; i++) {
+      controller.newUser(new Uuid(i), "user" + i, Time.now());
+    }
+    return model;
+  }
+
+  private long load(Model model) {
+    return new FileLoader(new Controller(Uuid.NULL, model, null)).loadState(directory);
+  }
+
+  private static int count(Iterable<?> values) {
+    int count = 0;
+    for (final Object value : values) {
+      count++;
+    }
+    return count;
+  }
+
+  private void writeUsers(int count, long segmentSize) throws Exception {
+    final FileWriter writer = run(writer(segmentSize));
+    for (int i = 0; i < count; i++) {
+      writer.insert(new User(new Uuid(i), "user" + i, Time.now()));
+      waitUntilDurable(writer);
+    }
+  }
+
+  private void waitUntilDurable(FileWriter writer) throws Exception {
+    final CountDownLatch durable = new CountDownLatch(1);
+    writer.whenDurable(new Runnable() {
+      @Override
+      public void run() {
+        durable.countDown();
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        fail("The log was not written");
+      }
+    });
+    assertTrue(durable.await(5, TimeUnit.SECONDS));
+  }
+
+  private FileWriter writer(long segmentSize) {
+    return new FileWriter(
+        new LinkedBlockingQueue<FileWriter.Entry>(),
+        directory,
+        segmentSize,
+        Durability.SYNC,
+        10);
+  }
+
+  private static FileWriter run(FileWriter writer) {
+    final Thread thread = new Thread(writer);
+    thread.setDaemon(true);
+    thread.start();
+    return writer;
+  }
+}
@@ -0,0 +1,294 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Compact;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class SubscriptionsTest {
+
+  // Collects everything pushed to it for as long as it is open. With "gate"
+  // set, sending waits for the gate to open, like a client that is not
+  // reading.
+  private static final class FakeReply implements Engine.Reply {
+
+    public final BlockingQueue<byte[]> sent = new LinkedBlockingQueue<>();
+    public final Collection<Runnable> onClose = new ArrayList<>();
+    public volatile boolean open = true;
+    public volatile CountDownLatch gate;
+
+    @Override
+    public void send(ByteBuffer response) {
+      if (gate != null) {
+        try {
+          gate.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      final byte[] bytes = new byte[response.remaining()];
+      response.get(bytes);
+      sent.add(bytes);
+    }
+
+    @Override
+    public void multiplex(ByteBuffer response) {
+      send(response);
+    }
+
+    @Override
+    public boolean canPush() {
+      return open;
+    }
+
+    @Override
+    public synchronized void whenClosed(Runnable action) {
+      onClose.add(action);
+    }
+
+    public synchronized void close() {
+      open = false;
+      for (final Runnable action : onClose) {
+        action.run();
+      }
+    }
+  }
+
+  private static Message message(int id, int conversation) {
+    return new Message(new Uuid(id),
+                       Uuid.NULL,
+                       Uuid.NULL,
+                       Time.fromMs(id),
+                       new Uuid(1),
+                       "message " + id,
+                       new Uuid(conversation));
+  }
+
+  @Test
+  public void testPushesOnlySubscribedConversations() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions();
+    final FakeReply reply = new FakeReply();
+
+    subscriptions.subscribe(subscriptions.newId(), Arrays.asList(new Uuid(10)), reply, false);
+
+    subscriptions.publish(message(100, 11));
+    subscriptions.publish(message(101, 10));
+
+    final byte[] pushed = reply.sent.poll(5, TimeUnit.SECONDS);
+    assertNotNull(pushed);
+
+    final InputStream in = new ByteArrayInputStream(pushed);
+    assertEquals(NetworkCode.NEW_MESSAGE_PUSH, (int) Serializers.INTEGER.read(in));
+    assertEquals(new Uuid(101), Message.SERIALIZER.read(in).id);
+
+    assertNull(reply.sent.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testCompactPush() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions();
+    final FakeReply reply = new FakeReply();
+
+    subscriptions.subscribe(subscriptions.newId(), Arrays.asList(new Uuid(10)), reply, true);
+    subscriptions.publish(message(100, 10));
+
+    final InputStream in = new Compact.Input(new ByteArrayInputStream(reply.sent.poll(5, TimeUnit.SECONDS)));
+    assertEquals(NetworkCode.NEW_MESSAGE_PUSH, (int) Serializers.INTEGER.read(in));
+    assertEquals("message 100", Message.SERIALIZER.read(in).content);
+  }
+
+  @Test
+  public void testClosedSubscriberIsDropped() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions();
+    final FakeReply reply = new FakeReply();
+
+    subscriptions.subscribe(subscriptions.newId(), Arrays.asList(new Uuid(10)), reply, false);
+    reply.open = false;
+
+    subscriptions.publish(message(100, 10));
+    reply.open = true;
+    subscriptions.publish(message(101, 10));
+
+    assertNull(reply.sent.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testSubscriberIsDroppedWhenClosed() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions();
+    final FakeReply reply = new FakeReply();
+
+    subscriptions.subscribe(subscriptions.newId(), Arrays.asList(new Uuid(10)), reply, false);
+    reply.close();
+
+    // Nothing was published while it was closed, so only closing it could
+    // have dropped it.
+    reply.open = true;
+    subscriptions.publish(message(100, 10));
+
+    assertNull(reply.sent.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testEmptyConversationsAreForgotten() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions();
+    final FakeReply first = new FakeReply();
+    final FakeReply second = new FakeReply();
+
+    subscriptions.subscribe(subscriptions.newId(), Arrays.asList(new Uuid(10), new Uuid(11)), first, false);
+    subscriptions.subscribe(subscriptions.newId(), Arrays.asList(new Uuid(10)), second, false);
+    assertEquals(2, subscriptions.conversations());
+
+    first.close();
+    assertEquals(1, subscriptions.conversations());
+
+    second.close();
+    assertEquals(0, subscriptions.conversations());
+  }
+
+  @Test
+  public void testSubscribeWhileLastSubscriberLeaves() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions();
+    final AtomicInteger missed = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> threads = new ArrayList<>();
+
+    // Every thread keeps adding a subscriber and taking it away again, so the
+    // conversation's set is often emptied and dropped while another thread
+    // is subscribing. Each subscriber has to hear a publish before it leaves,
+    // which it would not if it went into a dropped set.
+    for (int i = 0; i < 4; i++) {
+      final Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < 500; j++) {
+              final FakeReply reply = new FakeReply();
+              subscriptions.subscribe(subscriptions.newId(), Arrays.asList(new Uuid(10)), reply, false);
+              subscriptions.publish(message(100 + j, 10));
+              if (reply.sent.poll(5, TimeUnit.SECONDS) == null) {
+                missed.incrementAndGet();
+              }
+              reply.close();
+            }
+          } catch (InterruptedException ex) {
+            missed.incrementAndGet();
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+
+    start.countDown();
+    for (final Thread thread : threads) {
+      thread.join(60000);
+    }
+
+    assertEquals(0, missed.get());
+    assertEquals(0, subscriptions.conversations());
+  }
+
+  @Test
+  public void testSubscriberFarBehindIsDropped() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions();
+    final FakeReply reply = new FakeReply();
+    reply.gate = new CountDownLatch(1);
+
+    subscriptions.subscribe(subscriptions.newId(), Arrays.asList(new Uuid(10)), reply, false);
+    for (int i = 0; i < 2000; i++) {
+      subscriptions.publish(message(100 + i, 10));
+    }
+
+    reply.gate.countDown();
+    subscriptions.publish(message(5000, 10));
+
+    int received = 0;
+    byte[] last = null;
+    for (byte[] sent = reply.sent.poll(200, TimeUnit.MILLISECONDS);
+         sent != null;
+         sent = reply.sent.poll(200, TimeUnit.MILLISECONDS)) {
+      received++;
+      last = sent;
+    }
+
+    // Everything that was queued, then word that the subscription ended.
+    assertTrue(received > 1);
+    assertTrue(received <= 1001);
+    assertEquals(NetworkCode.SUBSCRIPTION_ENDED_PUSH,
+                 (int) Serializers.INTEGER.read(new ByteArrayInputStream(last)));
+  }
+
+  @Test
+  public void testUnsubscribe() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions();
+    final FakeReply reply = new FakeReply();
+    final Uuid id = subscriptions.newId();
+
+    subscriptions.subscribe(id, Arrays.asList(new Uuid(10)), reply, false);
+    subscriptions.publish(message(100, 10));
+
+    final BlockingQueue<Boolean> found = new LinkedBlockingQueue<>();
+    final Subscriptions.Callback callback = new Subscriptions.Callback() {
+      @Override
+      public void done(boolean wasFound) {
+        found.add(wasFound);
+      }
+    };
+
+    subscriptions.unsubscribe(id, callback);
+    assertTrue(found.poll(5, TimeUnit.SECONDS));
+
+    // The push queued before unsubscribing was still sent, before the
+    // callback ran.
+    assertNotNull(reply.sent.poll());
+
+    subscriptions.publish(message(101, 10));
+    assertNull(reply.sent.poll(100, TimeUnit.MILLISECONDS));
+
+    subscriptions.unsubscribe(id, callback);
+    assertFalse(found.poll(5, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.util.connections.Frames;
+
+public final class ThreadEngineTest {
+
+  private static final int PORT = 2191;
+
+  // The first request on a connection upgrades it to multiplexed. Every
+  // later one is left for the test to answer.
+  private final BlockingQueue<Engine.Reply> replies = new LinkedBlockingQueue<>();
+
+  private ThreadEngine engine;
+
+  @Before
+  public void doBefore() throws Exception {
+
+    engine = new ThreadEngine(PORT, new Engine.Handler() {
+      @Override
+      public void onRequest(byte[] request, Engine.Reply reply) {
+        if (request.length == 0) {
+          reply.multiplex(ByteBuffer.allocate(0));
+        } else {
+          replies.add(reply);
+        }
+      }
+    });
+
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        engine.run();
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    engine.close();
+  }
+
+  @Test
+  public void testResponsesGoThroughTheOutbox() throws Exception {
+
+    try (final Socket socket = multiplexed()) {
+
+      send(socket, 7, new byte[] { 1 });
+      final Engine.Reply reply = replies.poll(5, TimeUnit.SECONDS);
+      reply.send(ByteBuffer.wrap(new byte[] { 2, 3 }));
+      reply.send(ByteBuffer.wrap(new byte[] { 4 }));
+
+      final InputStream in = socket.getInputStream();
+      assertArrayEquals(new byte[] { 0, 0, 0, 7, 2, 3 }, Frames.read(in));
+      assertArrayEquals(new byte[] { 0, 0, 0, 7, 4 }, Frames.read(in));
+      assertTrue(reply.canPush());
+    }
+  }
+
+  @Test
+  public void testClientThatStopsReadingIsDropped() throws Exception {
+
+    try (final Socket socket = multiplexed()) {
+
+      send(socket, 7, new byte[] { 1 });
+      final Engine.Reply reply = replies.poll(5, TimeUnit.SECONDS);
+
+      // Far more than the socket buffers and the outbox hold. Sending must
+      // never wait for the client.
+      final long start = System.currentTimeMillis();
+      for (int i = 0; i < 64; i++) {
+        reply.send(ByteBuffer.allocate(1024 * 1024));
+      }
+      assertTrue(System.currentTimeMillis() - start < 5000);
+
+      assertFalse(reply.canPush());
+    }
+  }
+
+  private static Socket multiplexed() throws Exception {
+    final Socket socket = new Socket("localhost", PORT);
+    socket.setSoTimeout(5000);
+    Frames.write(socket.getOutputStream(), new byte[0]);
+    assertArrayEquals(new byte[0], Frames.read(socket.getInputStream()));
+    return socket;
+  }
+
+  private static void send(Socket socket, int id, byte[] request) throws Exception {
+    final byte[] frame = new byte[Engine.REQUEST_ID_SIZE + request.length];
+    Frames.putInt(frame, 0, id);
+    System.arraycopy(request, 0, frame, Engine.REQUEST_ID_SIZE, request.length);
+    Frames.write(socket.getOutputStream(), frame);
+  }
+}
@@ -0,0 +1,194 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Changes;
+import codeu.chat.common.Message;
+import codeu.chat.common.MessagePosition;
+import codeu.chat.common.Page;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ViewTest {
+
+  private Model model;
+  private View view;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    view = new View(model);
+
+    for (int i = 1; i <= 10; i++) {
+      model.add(new User(new Uuid(i), "user" + i, Time.fromMs(i)));
+    }
+  }
+
+  @Test
+  public void testGetUsersWalksStore() {
+
+    final Collection<User> users = view.getUsers();
+
+    assertEquals(10, users.size());
+
+    int id = 1;
+    for (final User user : users) {
+      assertEquals(id++, user.id.id());
+    }
+    assertEquals(11, id);
+  }
+
+  @Test
+  public void testPagesCoverEveryUserOnce() {
+
+    final List<Integer> seen = new ArrayList<>();
+
+    Uuid start = null;
+    int pages = 0;
+
+    do {
+      final Page<User> page = view.getUsers(start, 4);
+      assertTrue(page.values.size() <= 4);
+      for (final User user : page.values) {
+        seen.add(user.id.id());
+      }
+      start = page.next;
+      pages += 1;
+    } while (start != null);
+
+    assertEquals(3, pages);
+    assertEquals(10, seen.size());
+    for (int i = 0; i < seen.size(); i++) {
+      assertEquals(i + 1, (int) seen.get(i));
+    }
+  }
+
+  @Test
+  public void testConversationMessageWindows() {
+
+    final Controller controller = new Controller(Uuid.NULL, model, null);
+    final Uuid conversation = new Uuid(100);
+
+    controller.newConversation(conversation, "conversation", new Uuid(1), Time.fromMs(1));
+    for (int i = 0; i < 5; i++) {
+      controller.newMessage(new Uuid(200 + i), new Uuid(1), conversation, "message " + i, Time.fromMs(10 + i));
+    }
+
+    assertIds(view.getConversationMessages(conversation, MessagePosition.FIRST, null, 2), 200, 201);
+    assertIds(view.getConversationMessages(conversation, MessagePosition.LAST, null, 2), 203, 204);
+    assertIds(view.getConversationMessages(conversation, MessagePosition.AFTER, new Uuid(201), 10), 202, 203, 204);
+    assertIds(view.getConversationMessages(conversation, MessagePosition.AFTER, new Uuid(204), 10));
+
+    // A message from somewhere else is not a valid place to start.
+    assertIds(view.getConversationMessages(new Uuid(101), MessagePosition.FIRST, null, 10));
+    assertIds(view.getConversationMessages(conversation, MessagePosition.AFTER, new Uuid(1), 10));
+  }
+
+  @Test
+  public void testChangesSinceVersion() {
+
+    final Controller controller = new Controller(Uuid.NULL, model, null);
+
+    final Changes everything = view.getChanges(0);
+    assertEquals(10, everything.users.size());
+    assertTrue(everything.conversations.isEmpty());
+
+    // Nothing changed, so nothing comes back.
+    final Changes none = view.getChanges(everything.version);
+    assertEquals(everything.version, none.version);
+    assertTrue(none.users.isEmpty());
+    assertTrue(none.payloads.isEmpty());
+
+    controller.newConversation(new Uuid(100), "conversation", new Uuid(1), Time.fromMs(1));
+    final long created = view.getChanges(everything.version).version;
+
+    controller.newMessage(new Uuid(200), new Uuid(1), new Uuid(100), "one", Time.fromMs(2));
+    controller.newMessage(new Uuid(201), new Uuid(1), new Uuid(100), "two", Time.fromMs(3));
+
+    final Changes added = view.getChanges(everything.version);
+    assertTrue(added.users.isEmpty());
+    assertEquals(1, added.conversations.size());
+    assertEquals(1, added.payloads.size());
+    assertEquals(new Uuid(201), added.payloads.iterator().next().lastMessage);
+
+    // Only the payload changed after the conversation was made.
+    final Changes changed = view.getChanges(created);
+    assertTrue(changed.conversations.isEmpty());
+    assertEquals(1, changed.payloads.size());
+
+    // Only the payload's latest version is kept, however many messages there
+    // are.
+    assertEquals(1, model.conversationPayloadByVersion().size());
+    assertEquals(added.version, model.payloadVersionOf(new Uuid(100)));
+    assertNull(model.conversationPayloadByVersion().first(created));
+
+    // A version from a model that was lost gets everything.
+    assertEquals(10, view.getChanges(added.version + 100).users.size());
+  }
+
+  @Test
+  public void testExactPageHasNoNext() {
+
+    final Page<User> page = view.getUsers(new Uuid(6), 5);
+
+    assertEquals(5, page.values.size());
+    assertNull(page.next);
+  }
+
+  @Test
+  public void testUsersByPrefix() {
+
+    model.add(new User(new Uuid(20), "Ann", Time.fromMs(20)));
+    model.add(new User(new Uuid(21), "annie", Time.fromMs(21)));
+    model.add(new User(new Uuid(22), "ANNA", Time.fromMs(22)));
+    model.add(new User(new Uuid(23), "bob", Time.fromMs(23)));
+
+    assertNames(view.getUsersByPrefix("ann", 10), "Ann", "ANNA", "annie");
+    assertNames(view.getUsersByPrefix("ANN", 2), "Ann", "ANNA");
+    assertNames(view.getUsersByPrefix("user1", 10), "user1", "user10");
+    assertNames(view.getUsersByPrefix("zed", 10));
+    assertEquals(14, view.getUsersByPrefix("", 100).size());
+  }
+
+  private static void assertNames(Collection<User> users, String... names) {
+
+    assertEquals(names.length, users.size());
+
+    int at = 0;
+    for (final User user : users) {
+      assertEquals(names[at++], user.name);
+    }
+  }
+
+  private static void assertIds(Collection<Message> messages, int... ids) {
+
+    assertEquals(ids.length, messages.size());
+
+    int at = 0;
+    for (final Message message : messages) {
+      assertEquals(ids[at++], message.id.id());
+    }
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Access;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+
+public final class BufferSerializersTest {
+
+  // Encode "value" with both serializers and make sure they agree byte for
+  // byte and that the buffer serializer reported the right size.
+  private static <T> byte[] assertSameBytes(Serializer<T> stream,
+                                            BufferSerializer<T> buffer,
+                                            T value) throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    stream.write(out, value);
+
+    final ByteBuffer encoded = BufferSerializers.encode(buffer, value);
+    final byte[] bytes = new byte[encoded.remaining()];
+    encoded.get(bytes);
+
+    assertArrayEquals(out.toByteArray(), bytes);
+    assertEquals(bytes.length, buffer.size(value));
+
+    return bytes;
+  }
+
+  @Test
+  public void testUuidChain() throws IOException {
+
+    final Uuid id = new Uuid(new Uuid(new Uuid(1), 2), 3);
+    final byte[] bytes = assertSameBytes(Uuid.SERIALIZER, Uuid.BUFFER_SERIALIZER, id);
+
+    assertEquals(id, Uuid.BUFFER_SERIALIZER.read(ByteBuffer.wrap(bytes)));
+  }
+
+  @Test
+  public void testNullUuid() throws IOException {
+
+    final byte[] bytes = assertSameBytes(Uuid.SERIALIZER, Uuid.BUFFER_SERIALIZER, null);
+
+    assertNull(Uuid.BUFFER_SERIALIZER.read(ByteBuffer.wrap(bytes)));
+  }
+
+  @Test
+  public void testMessage() throws IOException {
+
+    final Message message = new Message(new Uuid(1),
+                                        Uuid.NULL,
+                                        new Uuid(2),
+                                        Time.fromMs(1234),
+                                        new Uuid(3),
+                                        "hello",
+                                        new Uuid(4));
+
+    final byte[] bytes = assertSameBytes(Message.SERIALIZER, Message.BUFFER_SERIALIZER, message);
+    final Message read = Message.BUFFER_SERIALIZER.read(ByteBuffer.wrap(bytes));
+
+    assertEquals(message.id, read.id);
+    assertEquals(message.next, read.next);
+    assertEquals(message.previous, read.previous);
+    assertEquals(message.creation.inMs(), read.creation.inMs());
+    assertEquals(message.author, read.author);
+    assertEquals(message.content, read.content);
+    assertEquals(message.conversationName, read.conversationName);
+  }
+
+  @Test
+  public void testCollectionOfUsers() throws IOException {
+
+    final Collection<User> users = Arrays.asList(
+        new User(new Uuid(1), "alice", Time.fromMs(1)),
+        new User(new Uuid(2), "bob", Time.fromMs(2)));
+
+    final byte[] bytes = assertSameBytes(
+        Serializers.collection(User.SERIALIZER),
+        BufferSerializers.collection(User.BUFFER_SERIALIZER),
+        users);
+
+    final Collection<User> read =
+        BufferSerializers.collection(User.BUFFER_SERIALIZER).read(ByteBuffer.wrap(bytes));
+
+    assertEquals(2, read.size());
+  }
+
+  @Test
+  public void testNullable() throws IOException {
+
+    assertSameBytes(Serializers.nullable(Access.SERIALIZER),
+                    BufferSerializers.nullable(Access.BUFFER_SERIALIZER),
+                    null);
+
+    final byte[] bytes = assertSameBytes(Serializers.nullable(Access.SERIALIZER),
+                                         BufferSerializers.nullable(Access.BUFFER_SERIALIZER),
+                                         Access.OWNER);
+
+    assertEquals(Access.OWNER,
+                 BufferSerializers.nullable(Access.BUFFER_SERIALIZER).read(ByteBuffer.wrap(bytes)));
+  }
+
+  @Test
+  public void testLargeValueIsDirect() throws IOException {
+
+    final byte[] large = new byte[64 * 1024];
+
+    assertTrue(BufferSerializers.encode(BufferSerializers.BYTES, large).isDirect());
+    assertFalse(BufferSerializers.encode(BufferSerializers.BYTES, new byte[1]).isDirect());
+  }
+
+  @Test(expected = IOException.class)
+  public void testBadBytesLength() throws IOException {
+
+    final ByteBuffer in = ByteBuffer.allocate(8);
+    in.putInt(1000).putInt(0);
+    in.flip();
+
+    BufferSerializers.BYTES.read(in);
+  }
+}
@@ -0,0 +1,165 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Access;
+import codeu.chat.common.Message;
+
+public final class CompactTest {
+
+  private static <T> byte[] encode(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    serializer.write(new Compact.Output(bytes), value);
+    return bytes.toByteArray();
+  }
+
+  private static <T> T decode(Serializer<T> serializer, byte[] bytes) throws IOException {
+    return serializer.read(new Compact.Input(new ByteArrayInputStream(bytes)));
+  }
+
+  @Test
+  public void testSmallIntegers() throws IOException {
+
+    assertEquals(1, encode(Serializers.INTEGER, 0).length);
+    assertEquals(1, encode(Serializers.INTEGER, -1).length);
+    assertEquals(1, encode(Serializers.INTEGER, 63).length);
+    assertEquals(2, encode(Serializers.INTEGER, 64).length);
+  }
+
+  @Test
+  public void testIntegerRoundTrip() throws IOException {
+
+    final int[] values = { 0, 1, -1, 127, -128, 300, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+    for (final int value : values) {
+      assertEquals(value, (int) decode(Serializers.INTEGER, encode(Serializers.INTEGER, value)));
+    }
+  }
+
+  @Test
+  public void testLongRoundTrip() throws IOException {
+
+    final long[] values = { 0, -1, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE };
+
+    for (final long value : values) {
+      assertEquals(value, (long) decode(Serializers.LONG, encode(Serializers.LONG, value)));
+    }
+  }
+
+  @Test
+  public void testUuidSharesRoot() throws IOException {
+
+    final Uuid server = new Uuid(new Uuid(7), 8);
+    final Uuid first = new Uuid(server, 100);
+    final Uuid second = new Uuid(server, 101);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Compact.Output out = new Compact.Output(bytes);
+
+    Uuid.SERIALIZER.write(out, first);
+    final int firstSize = bytes.size();
+    Uuid.SERIALIZER.write(out, second);
+    Uuid.SERIALIZER.write(out, null);
+
+    // the second Uuid only needs its header and its own id
+    assertEquals(2, bytes.size() - firstSize - 1);
+
+    final Compact.Input in = new Compact.Input(new ByteArrayInputStream(bytes.toByteArray()));
+
+    assertEquals(first, Uuid.SERIALIZER.read(in));
+    assertEquals(second, Uuid.SERIALIZER.read(in));
+    assertNull(Uuid.SERIALIZER.read(in));
+  }
+
+  @Test
+  public void testTimeDeltas() throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Compact.Output out = new Compact.Output(bytes);
+
+    Time.SERIALIZER.write(out, Time.fromMs(1500000000000L));
+    final int firstSize = bytes.size();
+    Time.SERIALIZER.write(out, Time.fromMs(1500000000005L));
+    Time.SERIALIZER.write(out, Time.fromMs(1499999999000L));
+
+    assertEquals(1, bytes.size() - firstSize - 2);
+
+    final Compact.Input in = new Compact.Input(new ByteArrayInputStream(bytes.toByteArray()));
+
+    assertEquals(1500000000000L, Time.SERIALIZER.read(in).inMs());
+    assertEquals(1500000000005L, Time.SERIALIZER.read(in).inMs());
+    assertEquals(1499999999000L, Time.SERIALIZER.read(in).inMs());
+  }
+
+  @Test
+  public void testAccess() throws IOException {
+
+    for (final Access access : Access.values()) {
+      final byte[] bytes = encode(Access.SERIALIZER, access);
+      assertEquals(1, bytes.length);
+      assertEquals(access, decode(Access.SERIALIZER, bytes));
+    }
+  }
+
+  @Test
+  public void testMessagesAreSmaller() throws IOException {
+
+    final Uuid server = new Uuid(new Uuid(1), 2);
+    final Collection<Message> messages = new ArrayList<>();
+
+    for (int i = 0; i < 100; i++) {
+      messages.add(new Message(new Uuid(server, 1000 + i),
+                               i == 99 ? Uuid.NULL : new Uuid(server, 1001 + i),
+                               i == 0 ? Uuid.NULL : new Uuid(server, 999 + i),
+                               Time.fromMs(1500000000000L + 250 * i),
+                               new Uuid(server, i % 3),
+                               "hi",
+                               new Uuid(server, 5)));
+    }
+
+    final Serializer<Collection<Message>> serializer = Serializers.collection(Message.SERIALIZER);
+
+    final ByteArrayOutputStream fixed = new ByteArrayOutputStream();
+    serializer.write(fixed, messages);
+
+    final byte[] compact = encode(serializer, messages);
+
+    assertTrue(compact.length * 2 <= fixed.size());
+
+    final Iterator<Message> read = decode(serializer, compact).iterator();
+
+    for (final Message message : messages) {
+      final Message other = read.next();
+      assertEquals(message.id, other.id);
+      assertEquals(message.previous, other.previous);
+      assertEquals(message.next, other.next);
+      assertEquals(message.creation.inMs(), other.creation.inMs());
+      assertEquals(message.author, other.author);
+      assertEquals(message.content, other.content);
+      assertEquals(message.conversationName, other.conversationName);
+    }
+  }
+}
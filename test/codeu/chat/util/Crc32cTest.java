@@ -0,0 +1,61 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public final class Crc32cTest {
+
+  @Test
+  public void testCheckValue() {
+    // The standard check value for CRC-32C.
+    final byte[] bytes = "123456789".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(0xE3069283, Crc32c.compute(bytes, 0, bytes.length));
+  }
+
+  @Test
+  public void testKnownVectors() {
+    // From RFC 3720, appendix B.4.
+    assertEquals(0x8A9136AA, Crc32c.compute(new byte[32], 0, 32));
+
+    final byte[] ones = new byte[32];
+    Arrays.fill(ones, (byte) 0xFF);
+    assertEquals(0x62A8AB43, Crc32c.compute(ones, 0, 32));
+  }
+
+  @Test
+  public void testSlicedMatchesBytewise() {
+
+    final byte[] bytes = new byte[1000];
+    new Random(7).nextBytes(bytes);
+
+    for (int offset = 0; offset < 9; offset++) {
+      for (int length = 0; length < 40; length++) {
+        final Crc32c bytewise = new Crc32c();
+        for (int i = offset; i < offset + length; i++) {
+          bytewise.update(bytes[i]);
+        }
+        assertEquals((int) bytewise.getValue(), Crc32c.compute(bytes, offset, length));
+      }
+    }
+  }
+}
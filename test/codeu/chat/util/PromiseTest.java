@@ -0,0 +1,107 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public final class PromiseTest {
+
+  private static final class Recorder implements Promise.Callback<String> {
+
+    public String value;
+    public Throwable cause;
+    public int calls;
+
+    @Override
+    public void onSuccess(String value) {
+      this.value = value;
+      calls++;
+    }
+
+    @Override
+    public void onFailure(Throwable cause) {
+      this.cause = cause;
+      calls++;
+    }
+  }
+
+  @Test
+  public void testCompleteRunsCallbacks() throws Exception {
+
+    final Promise<String> promise = new Promise<>();
+    final Recorder before = new Recorder();
+
+    promise.then(before);
+    assertFalse(promise.isDone());
+
+    assertTrue(promise.complete("done"));
+
+    final Recorder after = new Recorder();
+    promise.then(after);
+
+    assertTrue(promise.isDone());
+    assertEquals("done", promise.get());
+    assertEquals("done", before.value);
+    assertEquals("done", after.value);
+    assertEquals(1, before.calls);
+  }
+
+  @Test
+  public void testOnlyFirstResultCounts() throws Exception {
+
+    final Promise<String> promise = new Promise<>();
+    final Recorder recorder = new Recorder();
+    promise.then(recorder);
+
+    assertTrue(promise.complete("first"));
+    assertFalse(promise.complete("second"));
+    assertFalse(promise.fail(new IOException()));
+
+    assertEquals("first", promise.get());
+    assertEquals(1, recorder.calls);
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+
+    final Promise<String> promise = new Promise<>();
+    final Recorder recorder = new Recorder();
+    final IOException cause = new IOException();
+
+    promise.then(recorder);
+    promise.fail(cause);
+
+    assertSame(cause, recorder.cause);
+
+    try {
+      promise.get();
+      fail();
+    } catch (ExecutionException ex) {
+      assertSame(cause, ex.getCause());
+    }
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void testTimeout() throws Exception {
+    new Promise<String>().get(1, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,410 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.connections;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.server.Engine;
+import codeu.chat.server.SelectorEngine;
+import codeu.chat.server.ThreadEngine;
+import codeu.chat.util.Serializers;
+
+// Runs the source against both engines, through a relay that can drop a
+// single socket the way a broken network would.
+public final class MultiplexedConnectionSourceTest {
+
+  private static final boolean[] THREAD_ENGINE = { false, true };
+
+  private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+
+  // While false, every request is answered with its own value at once.
+  private volatile boolean hold = false;
+
+  private Engine engine;
+  private Relay relay;
+  private MultiplexedConnectionSource source;
+
+  @After
+  public void doAfter() throws Exception {
+    stop();
+  }
+
+  @Test
+  public void testInterleavedResponsesReachTheirCallers() throws Exception {
+    for (final boolean threads : THREAD_ENGINE) {
+
+      start(threads);
+      hold = true;
+
+      final int callers = 8;
+      final AtomicIntegerArray answers = new AtomicIntegerArray(callers);
+      final List<Thread> running = new ArrayList<>();
+
+      for (int i = 0; i < callers; i++) {
+        final int caller = i;
+        final Thread thread = new Thread() {
+          @Override
+          public void run() {
+            try {
+              answers.set(caller, call(100 + caller));
+            } catch (IOException ex) {
+              // Leaves the answer at zero.
+            }
+          }
+        };
+        thread.start();
+        running.add(thread);
+      }
+
+      // Every request is in flight before any is answered, and they are
+      // answered in the opposite order to the one they arrived in.
+      final List<Request> held = new ArrayList<>();
+      for (int i = 0; i < callers; i++) {
+        final Request request = requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        held.add(0, request);
+      }
+      for (final Request request : held) {
+        request.answer();
+      }
+
+      for (final Thread thread : running) {
+        thread.join(5000);
+      }
+      for (int i = 0; i < callers; i++) {
+        assertEquals(100 + i, answers.get(i));
+      }
+      assertEquals(1, relay.accepted());
+
+      stop();
+    }
+  }
+
+  @Test
+  public void testDroppedSocketOnlyFailsItsOwnRequests() throws Exception {
+    for (final boolean threads : THREAD_ENGINE) {
+
+      start(threads);
+      hold = true;
+
+      // A callback that blocks holds up the reader of the first socket, so
+      // that it only finds the socket closed after a second one is open.
+      final CountDownLatch inCallback = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+
+      send(1, new Result() {
+        @Override
+        public void onResponse(InputStream in) {
+          inCallback.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+
+      requests.poll(5, TimeUnit.SECONDS).answer();
+      assertTrue(inCallback.await(5, TimeUnit.SECONDS));
+
+      relay.drop(0);
+
+      // Requests go out on the dropped socket until writing to it fails,
+      // which fails them. The next request opens a new socket and reaches the
+      // server.
+      final List<Result> lost = new ArrayList<>();
+      Result kept = null;
+      Request request = null;
+
+      for (int i = 2; request == null && i < 100; i++) {
+        final Result result = new Result();
+        send(i, result);
+        request = requests.poll(100, TimeUnit.MILLISECONDS);
+        if (request == null) {
+          lost.add(result);
+        } else {
+          kept = result;
+        }
+      }
+
+      assertNotNull(request);
+      assertEquals(2, relay.accepted());
+      for (final Result result : lost) {
+        assertTrue(result.done.await(5, TimeUnit.SECONDS));
+        assertNotNull(result.failure);
+      }
+
+      // The first socket's reader runs again and fails its socket. Nothing it
+      // does may touch the request on the new socket.
+      release.countDown();
+      Thread.sleep(500);
+      assertEquals(1, kept.done.getCount());
+
+      request.answer();
+      assertTrue(kept.done.await(5, TimeUnit.SECONDS));
+      assertNull(kept.failure);
+      assertEquals(request.value, kept.value);
+
+      stop();
+    }
+  }
+
+  @Test
+  public void testReconnectsAfterSocketIsDropped() throws Exception {
+    for (final boolean threads : THREAD_ENGINE) {
+
+      start(threads);
+
+      // A request with a listener stays registered, so its listener hears
+      // when the socket goes away.
+      final CountDownLatch closed = new CountDownLatch(1);
+      final MultiplexedConnectionSource.Listener listener = new MultiplexedConnectionSource.Listener() {
+        @Override
+        public void onPush(InputStream in) { }
+
+        @Override
+        public void onClose() {
+          closed.countDown();
+        }
+      };
+
+      try (final Connection connection = source.connect(listener)) {
+        Serializers.INTEGER.write(connection.out(), 1);
+        assertEquals(1, (int) Serializers.INTEGER.read(connection.in()));
+      }
+
+      relay.drop(0);
+      assertTrue(closed.await(5, TimeUnit.SECONDS));
+
+      assertEquals(2, call(2));
+      assertEquals(3, call(3));
+      assertEquals(2, relay.accepted());
+
+      stop();
+    }
+  }
+
+  private void start(boolean threads) throws IOException {
+
+    final int port;
+    try (final ServerSocket free = new ServerSocket(0)) {
+      port = free.getLocalPort();
+    }
+
+    final Engine.Handler handler = new Engine.Handler() {
+      @Override
+      public void onRequest(byte[] request, Engine.Reply reply) {
+        final int value = Frames.getInt(request, 0);
+        if (value == NetworkCode.MULTIPLEX_REQUEST) {
+          final ByteBuffer response = ByteBuffer.allocate(4);
+          response.putInt(NetworkCode.MULTIPLEX_RESPONSE);
+          response.flip();
+          reply.multiplex(response);
+        } else if (hold) {
+          requests.add(new Request(value, reply));
+        } else {
+          new Request(value, reply).answer();
+        }
+      }
+    };
+
+    engine = threads ? new ThreadEngine(port, handler) : new SelectorEngine(port, handler);
+
+    final Thread thread = new Thread() {
+      @Override
+      public void run() {
+        engine.run();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+
+    relay = new Relay(port);
+    source = new MultiplexedConnectionSource("localhost", relay.port());
+  }
+
+  private void stop() throws IOException {
+    if (source != null) {
+      source.close();
+      relay.close();
+      engine.close();
+      source = null;
+    }
+    requests.clear();
+    hold = false;
+  }
+
+  private int call(int value) throws IOException {
+    try (final Connection connection = source.connect()) {
+      Serializers.INTEGER.write(connection.out(), value);
+      return Serializers.INTEGER.read(connection.in());
+    }
+  }
+
+  private void send(int value, Result result) throws IOException {
+    try (final Connection connection = source.connect(result)) {
+      Serializers.INTEGER.write(connection.out(), value);
+    }
+  }
+
+  private static final class Request {
+
+    public final int value;
+    private final Engine.Reply reply;
+
+    public Request(int value, Engine.Reply reply) {
+      this.value = value;
+      this.reply = reply;
+    }
+
+    public void answer() {
+      final ByteBuffer response = ByteBuffer.allocate(4);
+      response.putInt(value);
+      response.flip();
+      reply.send(response);
+    }
+  }
+
+  private static class Result implements MultiplexedConnectionSource.Callback {
+
+    public final CountDownLatch done = new CountDownLatch(1);
+
+    public volatile int value;
+    public volatile IOException failure;
+
+    @Override
+    public void onResponse(InputStream in) {
+      try {
+        value = Serializers.INTEGER.read(in);
+      } catch (IOException ex) {
+        failure = ex;
+      }
+      done.countDown();
+    }
+
+    @Override
+    public void onFailure(IOException cause) {
+      failure = cause;
+      done.countDown();
+    }
+  }
+
+  // RELAY
+  //
+  // Passes bytes both ways between each accepted socket and its own socket
+  // to the engine.
+  private static final class Relay implements Closeable {
+
+    private final ServerSocket server = new ServerSocket(0);
+    private final List<Socket[]> connections = new CopyOnWriteArrayList<>();
+
+    public Relay(final int target) throws IOException {
+
+      final Thread accepting = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              final Socket client = server.accept();
+              final Socket engine = new Socket("localhost", target);
+              client.setTcpNoDelay(true);
+              engine.setTcpNoDelay(true);
+              final Socket[] pair = { client, engine };
+              connections.add(pair);
+              pump(client, engine, pair);
+              pump(engine, client, pair);
+            }
+          } catch (IOException ex) {
+            // The relay was closed.
+          }
+        }
+      };
+      accepting.setDaemon(true);
+      accepting.start();
+    }
+
+    public int port() {
+      return server.getLocalPort();
+    }
+
+    public int accepted() {
+      return connections.size();
+    }
+
+    public void drop(int index) {
+      close(connections.get(index));
+    }
+
+    @Override
+    public void close() throws IOException {
+      server.close();
+      for (final Socket[] pair : connections) {
+        close(pair);
+      }
+    }
+
+    private static void pump(final Socket from, final Socket to, final Socket[] pair) {
+      final Thread thread = new Thread() {
+        @Override
+        public void run() {
+          final byte[] buffer = new byte[4096];
+          try {
+            final InputStream in = from.getInputStream();
+            final OutputStream out = to.getOutputStream();
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+              out.write(buffer, 0, read);
+              out.flush();
+            }
+          } catch (IOException ex) {
+            // One side went away.
+          }
+          close(pair);
+        }
+      };
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private static void close(Socket[] pair) {
+      for (final Socket socket : pair) {
+        try {
+          socket.close();
+        } catch (IOException ex) {
+          // Already gone.
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,184 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class ConcurrentStoreTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  private ConcurrentStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new ConcurrentStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testOrderPingPongOrderInsert() {
+
+    store.insert(0, 0);
+    store.insert(4, 40);
+    store.insert(1, 10);
+    store.insert(3, 30);
+    store.insert(2, 20);
+
+    final int[] order = { 0, 10, 20, 30, 40 };
+    assertOrder(store.all(), order);
+  }
+
+  @Test
+  public void testEntriesKeepKeysAndSnapshot() {
+
+    store.insert(2, 20);
+    store.insert(1, 10);
+    store.insert(2, 21);
+
+    final Iterator<Map.Entry<Integer, Integer>> entries = store.entries().iterator();
+
+    // Made after the iterator, so it is not seen.
+    store.insert(0, 0);
+
+    final int[][] expected = { { 1, 10 }, { 2, 20 }, { 2, 21 } };
+    for (final int[] pair : expected) {
+      assertTrue(entries.hasNext());
+      final Map.Entry<Integer, Integer> entry = entries.next();
+      assertEquals(pair[0], (int) entry.getKey());
+      assertEquals(pair[1], (int) entry.getValue());
+    }
+    assertFalse(entries.hasNext());
+  }
+
+  @Test
+  public void testQueries() {
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(3, 30);
+    store.insert(2, 21);
+    store.insert(4, 40);
+
+    assertOrder(store.at(2), new int[] { 20, 21 });
+    assertOrder(store.before(1), new int[] { 0, 10 });
+    assertOrder(store.after(3), new int[] { 30, 40 });
+    assertOrder(store.range(1, 3), new int[] { 10, 20, 21, 30 });
+    assertOrder(store.range(3, 1), new int[] { });
+    assertOrder(store.at(5), new int[] { });
+
+    assertTrue(store.first(2) == 20);
+    assertNull(store.first(5));
+    assertEquals(6, store.size());
+  }
+
+  @Test
+  public void testRemove() {
+
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(2, 21);
+    store.insert(3, 30);
+
+    store.remove(2);
+    store.remove(4);
+
+    assertNull(store.first(2));
+    assertEquals(2, store.size());
+    assertOrder(store.all(), new int[] { 10, 30 });
+
+    store.insert(2, 22);
+    assertOrder(store.all(), new int[] { 10, 22, 30 });
+  }
+
+  @Test
+  public void testIteratorIsASnapshot() {
+
+    store.insert(1, 10);
+    store.insert(3, 30);
+
+    final Iterator<Integer> iterator = store.all().iterator();
+    assertTrue(iterator.next() == 10);
+
+    // Neither a new key nor a duplicate of a key still to come is seen by an
+    // iterator that was made before they were inserted.
+    store.insert(2, 20);
+    store.insert(3, 31);
+
+    assertTrue(iterator.next() == 30);
+    assertFalse(iterator.hasNext());
+
+    assertOrder(store.all(), new int[] { 10, 20, 30, 31 });
+  }
+
+  @Test
+  public void testReadWhileWriting() throws Exception {
+
+    final int count = 20000;
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < count; i++) {
+          store.insert(i % 10, i);
+        }
+      }
+    };
+    writer.start();
+
+    // Every read must see some prefix of the inserts, and so each key's
+    // values must always be in order.
+    while (writer.isAlive()) {
+      int previousKey = -1;
+      int previous = -1;
+      int seen = 0;
+      for (final Integer value : store.all()) {
+        final int key = value % 10;
+        assertTrue(key >= previousKey);
+        if (key == previousKey) {
+          assertTrue(value > previous);
+        }
+        previousKey = key;
+        previous = value;
+        seen += 1;
+      }
+      assertTrue(seen <= count);
+    }
+
+    writer.join();
+    assertEquals(count, store.size());
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+}
@@ -147,6 +147,43 @@ public final class StoreTest {
     assertTrue(store.first(4) == 40);
   }
 
+  @Test
+  public void testSizeCountsDuplicates() {
+
+    assertEquals(0, store.size());
+
+    store.insert(1, 10);
+    store.insert(0, 0);
+    store.insert(1, 11);
+
+    assertEquals(3, store.size());
+  }
+
+  @Test
+  public void testDuplicatesKeepInsertOrder() {
+
+    // Interleave keys so that every insert has to find the end of a series
+    // that other keys were added around.
+    for (int i = 0; i < 100; i++) {
+      store.insert(i % 3, i);
+    }
+
+    final int[] ones = new int[33];
+    for (int i = 0; i < ones.length; i++) {
+      ones[i] = 3 * i + 1;
+    }
+    assertOrder(store.at(1), ones);
+
+    final int[] twos = new int[33];
+    for (int i = 0; i < twos.length; i++) {
+      twos[i] = 3 * i + 2;
+    }
+    assertOrder(store.after(2), twos);
+
+    assertTrue(store.first(0) == 0);
+    assertEquals(100, store.size());
+  }
+
   private static void assertOrder(Iterable<Integer> actual, int[] expected) {
 
     int at = 0;
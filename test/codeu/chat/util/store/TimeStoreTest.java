@@ -0,0 +1,177 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.util.Time;
+
+public final class TimeStoreTest {
+
+  private TimeStore<Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new TimeStore<>();
+  }
+
+  @Test
+  public void testOutOfOrderInsert() {
+
+    store.insert(0, 0);
+    store.insert(4, 40);
+    store.insert(1, 10);
+    store.insert(3, 30);
+    store.insert(2, 20);
+    store.insert(1, 11);
+
+    assertOrder(store.all(), new int[] { 0, 10, 11, 20, 30, 40 });
+  }
+
+  @Test
+  public void testQueries() {
+
+    // More than the initial capacity, so that the arrays have to grow.
+    for (int i = 0; i < 100; i++) {
+      store.insert(i / 2, i);
+    }
+
+    assertOrder(store.at(Time.fromMs(7)), new int[] { 14, 15 });
+    assertOrder(store.range(Time.fromMs(3), Time.fromMs(4)), new int[] { 6, 7, 8, 9 });
+    assertOrder(store.range(Time.fromMs(4), Time.fromMs(3)), new int[] { });
+    assertOrder(store.before(Time.fromMs(0)), new int[] { 0, 1 });
+    assertOrder(store.after(Time.fromMs(49)), new int[] { 98, 99 });
+    assertOrder(store.at(Time.fromMs(50)), new int[] { });
+
+    assertTrue(store.first(Time.fromMs(10)) == 20);
+    assertNull(store.first(Time.fromMs(-1)));
+    assertEquals(100, store.size());
+  }
+
+  @Test
+  public void testIteratorIsASnapshot() {
+
+    store.insert(1, 10);
+    store.insert(3, 30);
+
+    final Iterator<Integer> iterator = store.all().iterator();
+
+    store.insert(4, 40);
+    store.insert(2, 20);
+
+    assertTrue(iterator.next() == 10);
+    assertTrue(iterator.next() == 30);
+    assertFalse(iterator.hasNext());
+
+    assertOrder(store.all(), new int[] { 10, 20, 30, 40 });
+  }
+
+  @Test
+  public void testManyOutOfOrderInserts() {
+
+    // Every insert goes at the front. Copying the whole store each time would
+    // take minutes.
+    final int count = 200000;
+    final long start = System.currentTimeMillis();
+
+    for (int i = 0; i < count; i++) {
+      store.insert(count - i, i);
+    }
+
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    assertEquals(count, store.size());
+
+    int expected = count - 1;
+    for (final Integer value : store.all()) {
+      assertTrue(value == expected);
+      expected -= 1;
+    }
+    assertEquals(-1, expected);
+  }
+
+  @Test
+  public void testRandomInsertsAcrossBlocks() {
+
+    final Random random = new Random(7);
+    final List<long[]> inserted = new ArrayList<>();
+
+    for (int i = 0; i < 20000; i++) {
+      final long key = random.nextInt(5000);
+      store.insert(key, i);
+      inserted.add(new long[] { key, i });
+    }
+
+    // A stable sort keeps values with equal keys in the order they were
+    // inserted, like the store.
+    Collections.sort(inserted, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] a, long[] b) { return Long.compare(a[0], b[0]); }
+    });
+
+    assertOrder(store.all(), valuesBetween(inserted, Long.MIN_VALUE, Long.MAX_VALUE));
+    assertOrder(store.range(Time.fromMs(1000), Time.fromMs(3999)), valuesBetween(inserted, 1000, 3999));
+    assertOrder(store.after(Time.fromMs(2500)), valuesBetween(inserted, 2500, Long.MAX_VALUE));
+    assertOrder(store.before(Time.fromMs(2500)), valuesBetween(inserted, Long.MIN_VALUE, 2500));
+    assertOrder(store.at(Time.fromMs(42)), valuesBetween(inserted, 42, 42));
+
+    for (int key = 0; key < 5000; key++) {
+      final int[] values = valuesBetween(inserted, key, key);
+      final Integer first = store.first(Time.fromMs(key));
+      if (values.length == 0) {
+        assertNull(first);
+      } else {
+        assertTrue(first == values[0]);
+      }
+    }
+  }
+
+  private static int[] valuesBetween(List<long[]> sorted, long start, long end) {
+
+    final List<Integer> values = new ArrayList<>();
+    for (final long[] entry : sorted) {
+      if (entry[0] >= start && entry[0] <= end) {
+        values.add((int) entry[1]);
+      }
+    }
+
+    final int[] result = new int[values.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = values.get(i);
+    }
+    return result;
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+}